@@ -0,0 +1,14 @@
+#!/bin/bash
+# Runs the JMH benchmarks with allocation profiling. Extra arguments are passed on to JMH,
+# e.g. a benchmark regex or -p size=500,1000 to restrict the parameters.
+# Build them first with >mvn -P benchmarks clean package -DskipTests
+
+jar=../target/benchmarks.jar
+if [ ! -f $jar ]; then
+    jar=target/benchmarks.jar
+fi
+if [ -f $jar ]; then
+    java -jar $jar -prof gc -rf csv -rff jmh-results.csv "$@"
+else
+    echo "No benchmarks detected. Build them with >mvn -P benchmarks clean package -DskipTests"
+fi
@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.Alignment;
+import data.Graph;
+import utils.AlignmentUtils;
+
+/**
+ * The steps of aligning one read, each benchmark taking the next of the reads of GraphState
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlignmentBenchmarks {
+  private int read;
+
+  private int nextRead() {
+    read = (read + 1) % GraphState.READS;
+    return read;
+  }
+
+  /**
+   * Fuzzy search of the left context of every position of a read, one query at a time
+   */
+  @Benchmark
+  public int improvedSearch(GraphState state) {
+    int r = nextRead();
+    int candidates = 0;
+    for (int i = 0; i < state.leftQueries[r].length; i++) {
+      candidates += state.leftContexts.improvedSearch(state.leftQueries[r][i],
+          state.forced[r][i]).size();
+    }
+    return candidates;
+  }
+
+  /**
+   * Fuzzy search of the left contexts of all positions of a read in one trie traversal
+   */
+  @Benchmark
+  public Object[] improvedSearchBatch(GraphState state) {
+    int r = nextRead();
+    return state.leftContexts.improvedSearch(state.leftQueries[r], state.forced[r]);
+  }
+
+  @Benchmark
+  public Object[] combineScores(GraphState state) {
+    int r = nextRead();
+    return state.index.combineScores(state.contextScores[r][0], state.contextScores[r][1],
+        state.reads[r]);
+  }
+
+  @Benchmark
+  public Alignment findMostProbablePath(GraphState state) {
+    int r = nextRead();
+    return state.index.findMostProbablePath(state.candidates[r], state.reads[r],
+        System.nanoTime());
+  }
+
+  /**
+   * PO-MSA of a read against the whole graph
+   */
+  @Benchmark
+  public Alignment alignRegion(GraphState state) {
+    int r = nextRead();
+    return AlignmentUtils.alignRegion(state.graph, Graph.HEAD_INDEX, state.reads[r],
+        state.configuration);
+  }
+}
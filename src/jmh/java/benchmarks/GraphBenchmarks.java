@@ -0,0 +1,43 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.Graph;
+
+/**
+ * Graph queries used while building the index and finding the most probable path
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphBenchmarks {
+  private int pair;
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public Object[] getContexts(GraphState state) {
+    return state.graph.getContexts(Graph.LEFT_CONTEXT);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int getDistance(GraphState state) {
+    pair = (pair + 1) % state.vertexPairs.length;
+    int[] vertices = state.vertexPairs[pair];
+    return state.graph.getDistance(vertices[0], vertices[1],
+        state.configuration.getMaxDistance());
+  }
+}
@@ -0,0 +1,132 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import configuration.LastzConfiguration;
+import context_search.SuffixTree;
+import data.ContextSink;
+import data.Graph;
+import index.FuzzySearchIndex;
+import utils.GraphUtils;
+import utils.LogUtils;
+import utils.ParseUtils;
+import utils.StringUtils;
+import utils.TestUtils;
+
+/**
+ * A random graph with a SNP about every SNP_DISTANCE bases, its index and reads sampled from
+ * it, shared by every benchmark. The sizes are those of TestUtils.SIZES. The error margin is in
+ * the unit of the scoring system and a suffix length of -1 picks the optimal length of the
+ * graph.
+ */
+@State(Scope.Benchmark)
+public class GraphState {
+  public static final int READS = 16;
+  private static final int SNP_DISTANCE = 100;
+
+  @Param({ "500", "1000", "5000", "10000", "50000", "100000" })
+  public int size;
+
+  @Param({ "0", "1", "2" })
+  public int errorMargin;
+
+  @Param({ "-1", "10", "20" })
+  public int suffixLength;
+
+  @Param({ "edit-distance", "lastz" })
+  public String scoringSystem;
+
+  public Configuration configuration;
+  public Graph graph;
+  public FuzzySearchIndex index;
+  public SuffixTree leftContexts;
+  public String indexFile;
+
+  public String[] reads;
+  /** The left contexts of every position of every read and whether they are forced */
+  public String[][] leftQueries;
+  public boolean[][] forced;
+  /** The context scores and candidate sets of every read */
+  public Object[][][] contextScores;
+  public Object[][] candidates;
+  /** Pairs of vertices at most the maximal distance apart */
+  public int[][] vertexPairs;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    LogUtils.setLevel(LogUtils.WARNING);
+    Random random = new Random(TestUtils.SEED);
+    configuration = "lastz".equals(scoringSystem)
+        ? new LastzConfiguration() : new EditDistanceConfiguration();
+    configuration.setErrorMargin(errorMargin);
+    graph = ParseUtils.stringToGraph(configuration,
+        TestUtils.generateRandomString(random, size));
+    for (int i = SNP_DISTANCE; i < size - 1; i += SNP_DISTANCE) {
+      char value = graph.getNode(i).getValue();
+      graph.addSNP(value == 'A' ? 'C' : 'A', i);
+    }
+    configuration.setContextLength(suffixLength == -1
+        ? GraphUtils.optimalSuffixLength(graph) : suffixLength);
+    index = FuzzySearchIndex.buildIndex(graph, configuration);
+
+    leftContexts = new SuffixTree(configuration);
+    graph.streamContexts(Graph.LEFT_CONTEXT, null, new ContextSink() {
+      @Override
+      public void addContext(int vertex, long[] kmers, int offset, int length) {
+        leftContexts.addSuffix(kmers, offset, length, vertex);
+      }
+    });
+    leftContexts.freeze();
+
+    File file = File.createTempFile("benchmark", ".idx");
+    file.deleteOnExit();
+    indexFile = file.getAbsolutePath();
+    index.writeToFile(indexFile);
+
+    int readLength = Math.min(TestUtils.READ_LENGTH, size / 2);
+    int length = configuration.getContextLength();
+    reads = new String[READS];
+    leftQueries = new String[READS][];
+    forced = new boolean[READS][];
+    contextScores = new Object[READS][][];
+    candidates = new Object[READS][];
+    for (int r = 0; r < READS; r++) {
+      reads[r] = TestUtils.generateStrictRandomSequence(random, graph, readLength,
+          random.nextInt(3));
+      String read = reads[r];
+      leftQueries[r] = new String[read.length()];
+      forced[r] = new boolean[read.length()];
+      for (int i = 0; i < read.length(); i++) {
+        leftQueries[r][i] = StringUtils.reverse(read.substring(Math.max(0, i - length), i));
+        forced[r][i] = i - 1 < length && read.length() - (i + 1) < length;
+      }
+      contextScores[r] = index.searchContextScores(read);
+      candidates[r] = index.combineScores(contextScores[r][0], contextScores[r][1], read);
+    }
+
+    vertexPairs = new int[READS][];
+    for (int p = 0; p < READS; p++) {
+      int source = 1 + random.nextInt(size - 1);
+      int dest = Math.min(size, source + 1 + random.nextInt(
+          Math.max(1, configuration.getMaxDistance())));
+      vertexPairs[p] = new int[] { source, dest };
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    new File(indexFile).delete();
+    LogUtils.setLevel(LogUtils.INFO);
+  }
+}
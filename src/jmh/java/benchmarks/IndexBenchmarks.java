@@ -0,0 +1,33 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import index.FuzzySearchIndex;
+
+/**
+ * Building the index of the graph of GraphState and reading it back from file
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class IndexBenchmarks {
+  @Benchmark
+  public FuzzySearchIndex buildIndex(GraphState state) {
+    return FuzzySearchIndex.buildIndex(state.graph, state.configuration);
+  }
+
+  @Benchmark
+  public FuzzySearchIndex readIndex(GraphState state) {
+    return FuzzySearchIndex.readIndex(state.indexFile);
+  }
+}
@@ -2,9 +2,13 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -14,12 +18,19 @@ import configuration.LastzConfiguration;
 import data.Alignment;
 import data.Graph;
 import data.Node;
+import index.AlignmentServer;
+import index.BatchAligner;
 import index.FuzzySearchIndex;
+import metrics.Metrics;
+import metrics.MetricsReporter;
 import utils.AlignmentUtils;
 import utils.DOTUtils;
+import utils.FastaReader;
 import utils.GraphUtils;
 import utils.LogUtils;
 import utils.ParseUtils;
+import utils.ReadReader;
+import utils.WorkerPool;
 
 /**
  * I/O Handler
@@ -46,6 +57,19 @@ public class GraphGenome {
     VALID_PARAMS.add("--parallellization");
     VALID_PARAMS.add("--vcf");
     VALID_PARAMS.add("--heuristical");
+    VALID_PARAMS.add("--reads");
+    VALID_PARAMS.add("--threads");
+    VALID_PARAMS.add("--output");
+    VALID_PARAMS.add("--distance-oracle");
+    VALID_PARAMS.add("--band-width");
+    VALID_PARAMS.add("--alignment-kernel");
+    VALID_PARAMS.add("--context-search");
+    VALID_PARAMS.add("--max-contexts");
+    VALID_PARAMS.add("--max-candidates");
+    VALID_PARAMS.add("--port");
+    VALID_PARAMS.add("--host");
+    VALID_PARAMS.add("--metrics");
+    VALID_PARAMS.add("--metrics-interval");
 
     SHORTHAND_PARAMS = new HashMap<String, String>();
     SHORTHAND_PARAMS.put("-if", "--input-fastas");
@@ -63,6 +87,19 @@ public class GraphGenome {
     SHORTHAND_PARAMS.put("-par", "--parallellization");
     SHORTHAND_PARAMS.put("-v", "--vcf");
     SHORTHAND_PARAMS.put("-heur", "--heuristical");
+    SHORTHAND_PARAMS.put("-r", "--reads");
+    SHORTHAND_PARAMS.put("-th", "--threads");
+    SHORTHAND_PARAMS.put("-o", "--output");
+    SHORTHAND_PARAMS.put("-do", "--distance-oracle");
+    SHORTHAND_PARAMS.put("-bw", "--band-width");
+    SHORTHAND_PARAMS.put("-ak", "--alignment-kernel");
+    SHORTHAND_PARAMS.put("-cs", "--context-search");
+    SHORTHAND_PARAMS.put("-mc", "--max-contexts");
+    SHORTHAND_PARAMS.put("-mca", "--max-candidates");
+    SHORTHAND_PARAMS.put("-po", "--port");
+    SHORTHAND_PARAMS.put("-ho", "--host");
+    SHORTHAND_PARAMS.put("-me", "--metrics");
+    SHORTHAND_PARAMS.put("-mi", "--metrics-interval");
 
     HELP_MENU = new HashMap<String, String>();
     HELP_MENU.put("-if", "Comma separated FASTA files used to build the graph");
@@ -80,13 +117,36 @@ public class GraphGenome {
     HELP_MENU.put("-p",
         "Filename of png file visualizing either graph or alignment. Will store dot-file if dot is not installed");
     HELP_MENU.put("-h", "Shows this menu");
-    HELP_MENU.put("-t", "Alignment algorithm to use. po_msa or fuzzy. Defaults to fuzzy");
+    HELP_MENU.put("-t", "Alignment algorithm to use. po_msa, po_msa_banded or fuzzy. Defaults to fuzzy");
     HELP_MENU.put("-m",
         "Chooses whether the aligned sequence should be merged in to the graph and index");
     HELP_MENU.put("-par",
         "Decides whether or not to use parallellization in suffix tree search, true/false");
     HELP_MENU.put("-v", "A vcf file containing variants. See README for allowed formats");
     HELP_MENU.put("-heur", "Allows the algorithm to return a heuristical result");
+    HELP_MENU.put("-r",
+        "FASTA, FASTQ or one-read-per-line file of reads to align with align-batch");
+    HELP_MENU.put("-th", "Number of worker threads. Defaults to the number of processors");
+    HELP_MENU.put("-o", "File where align-batch writes its results. Defaults to standard out");
+    HELP_MENU.put("-do", "Distances between candidate vertices: eager, lazy or auto. "
+        + "Defaults to lazy for align and auto, eager unless the graph is too large, otherwise");
+    HELP_MENU.put("-bw", "Initial band width of po_msa_banded, widened when too narrow. "
+        + "Defaults to " + Configuration.DEFAULT_BAND_WIDTH);
+    HELP_MENU.put("-ak", "How po_msa and po_msa_banded compute their cells: scalar or profile. "
+        + "Defaults to profile");
+    HELP_MENU.put("-cs", "How the fuzzy search looks up contexts: positions searches the tries "
+        + "for every read position, batched for all positions at once. Defaults to batched");
+    HELP_MENU.put("-mc", "Maximal number of contexts of each direction a vertex keeps in the "
+        + "index. Defaults to no limit");
+    HELP_MENU.put("-mca", "Maximal number of candidate vertices of each read position, the "
+        + "best scoring ones. Defaults to no limit");
+    HELP_MENU.put("-po", "Port the serve command listens on. Defaults to "
+        + AlignmentServer.DEFAULT_PORT);
+    HELP_MENU.put("-ho", "Host name or address the serve command binds to. Defaults to localhost");
+    HELP_MENU.put("-me", "File where alignment metrics are written periodically and at the end, "
+        + "as CSV if it ends with .csv, otherwise as text");
+    HELP_MENU.put("-mi", "Seconds between metrics written to the metrics file. Defaults to "
+        + MetricsReporter.DEFAULT_INTERVAL);
   }
 
   public static void main(String[] args)
@@ -101,24 +161,130 @@ public class GraphGenome {
       printHelp();
       return;
     }
+    PrintStream logStream = LogUtils.getStream();
+    if ("align-batch".equals(args[0]) && params.get("--output") == null) {
+      // The results go to standard out, which must only hold them
+      LogUtils.setStream(System.err);
+    }
+    Metrics.registerMBean();
+    MetricsReporter reporter = null;
+    if (params.get("--metrics") != null) {
+      int interval = ParseUtils.parseInt(params.get("--metrics-interval"),
+          MetricsReporter.DEFAULT_INTERVAL);
+      if (interval < 1) {
+        LogUtils.printError("Invalid metrics interval " + params.get("--metrics-interval"));
+        return;
+      }
+      reporter = new MetricsReporter(params.get("--metrics"), interval);
+      reporter.start();
+    }
+    if ("serve".equals(args[0])) {
+      serve(params, reporter);
+      return;
+    }
+    try {
+      Configuration configuration = parseConfiguration(args[0], params);
+      if (configuration == null) {
+        return;
+      }
+      int suffixLength = configuration.getContextLength();
+      if ("index".equals(args[0])) {
+        buildIndex(configuration, params, suffixLength, true);
+      } else if ("align".equals(args[0])) {
+        align(configuration, params, null);
+      } else if ("align-batch".equals(args[0])) {
+        alignBatch(configuration, params);
+      } else if ("build-and-align".equals(args[0])) {
+        FuzzySearchIndex index = buildIndex(configuration, params, suffixLength, false);
+        align(configuration, params, index);
+      } else {
+        System.out.println("Invalid type parameter! See help");
+        return;
+      }
+    } finally {
+      if (reporter != null) {
+        reporter.stop();
+      }
+      LogUtils.setStream(logStream);
+    }
+  }
+
+  /**
+   * The configuration given by params for command, or null if a parameter is invalid
+   */
+  private static Configuration parseConfiguration(String command, Map<String, String> params) {
     Configuration configuration = getConfiguration(params.get("--scoring-system"));
-    int suffixLength = ParseUtils.parseInt(params.get("--suffix-length"), -1);
-    configuration.setContextLength(suffixLength);
+    configuration.setContextLength(ParseUtils.parseInt(params.get("--suffix-length"), -1));
     configuration.setErrorMargin(ParseUtils.parseInt(params.get("--error-margin"),
         Configuration.DEFAULT_ERROR_MARGIN));
     configuration.setAllowParallellization("true".equals(params.get("--parallellization")));
     configuration.setAllowHeuristics("true".equals(params.get("--heuristical")));
-    if ("index".equals(args[0])) {
-      buildIndex(configuration, params, suffixLength, true);
-    } else if ("align".equals(args[0])) {
-      align(configuration, params, null);
-    } else if ("build-and-align".equals(args[0])) {
-      FuzzySearchIndex index = buildIndex(configuration, params, suffixLength, false);
-      align(configuration, params, index);
-    } else {
-      System.out.println("Invalid type parameter! See help");
-      return;
+    if (params.get("--threads") != null) {
+      int threads = ParseUtils.parseInt(params.get("--threads"), -1);
+      if (threads < 1) {
+        LogUtils.printError("Invalid number of threads " + params.get("--threads"));
+        return null;
+      }
+      WorkerPool.setParallelism(threads);
+    }
+    if (params.get("--band-width") != null) {
+      int bandWidth = ParseUtils.parseInt(params.get("--band-width"), -1);
+      if (bandWidth < 1) {
+        LogUtils.printError("Invalid band width " + params.get("--band-width"));
+        return null;
+      }
+      configuration.setBandWidth(bandWidth);
     }
+    String distanceOracle = params.get("--distance-oracle");
+    if (distanceOracle == null && "align".equals(command)) {
+      // A single alignment only looks at a few candidates, not worth precomputing the graph
+      distanceOracle = Configuration.DISTANCE_ORACLE_LAZY;
+    }
+    if (distanceOracle != null) {
+      if (!Configuration.DISTANCE_ORACLE_EAGER.equals(distanceOracle)
+          && !Configuration.DISTANCE_ORACLE_LAZY.equals(distanceOracle)
+          && !Configuration.DISTANCE_ORACLE_AUTO.equals(distanceOracle)) {
+        LogUtils.printError("Invalid distance oracle " + distanceOracle + ". See help");
+        return null;
+      }
+      configuration.setDistanceOracle(distanceOracle);
+    }
+    if (params.get("--max-contexts") != null) {
+      int maxContexts = ParseUtils.parseInt(params.get("--max-contexts"), -1);
+      if (maxContexts < 1) {
+        LogUtils.printError("Invalid maximal number of contexts " + params.get("--max-contexts"));
+        return null;
+      }
+      configuration.setMaxContexts(maxContexts);
+    }
+    if (params.get("--max-candidates") != null) {
+      int maxCandidates = ParseUtils.parseInt(params.get("--max-candidates"), -1);
+      if (maxCandidates < 1) {
+        LogUtils.printError("Invalid maximal number of candidates "
+            + params.get("--max-candidates"));
+        return null;
+      }
+      configuration.setMaxCandidates(maxCandidates);
+    }
+    String alignmentKernel = params.get("--alignment-kernel");
+    if (alignmentKernel != null) {
+      if (!Configuration.ALIGNMENT_KERNEL_SCALAR.equals(alignmentKernel)
+          && !Configuration.ALIGNMENT_KERNEL_PROFILE.equals(alignmentKernel)) {
+        LogUtils.printError("Invalid alignment kernel " + alignmentKernel + ". See help");
+        return null;
+      }
+      configuration.setAlignmentKernel(alignmentKernel);
+    }
+    String contextSearch = params.get("--context-search");
+    if (contextSearch != null) {
+      if (!Configuration.CONTEXT_SEARCH_POSITIONS.equals(contextSearch)
+          && !Configuration.CONTEXT_SEARCH_BATCHED.equals(contextSearch)) {
+        LogUtils.printError("Invalid context search " + contextSearch + ". See help");
+        return null;
+      }
+      configuration.setContextSearch(contextSearch);
+    }
+    return configuration;
   }
 
   private static FuzzySearchIndex buildIndex(Configuration configuration,
@@ -205,8 +371,7 @@ public class GraphGenome {
     }
 
     if ("true".equals(params.get("--merge"))) {
-      graph.mergeSequence(sequence, alignment.getAlignment());
-      index = FuzzySearchIndex.buildIndex(graph, configuration);
+      index.mergeSequence(sequence, alignment.getAlignment());
       if (params.get("--index") != null) {
         index.writeToFile(params.get("--index"));
       }
@@ -219,12 +384,142 @@ public class GraphGenome {
     }
   }
 
+  private static void alignBatch(Configuration configuration, Map<String, String> params) {
+    if (params.get("--index") == null) {
+      LogUtils.printError("Unable to align without an index. Use --index=<filename>");
+      return;
+    }
+    if (params.get("--reads") == null) {
+      LogUtils.printError("Need a file of reads for batch alignment. Use --reads=<filename>");
+      return;
+    }
+    FuzzySearchIndex index = FuzzySearchIndex.readIndex(params.get("--index"));
+    if (index == null) {
+      LogUtils.printError("Unable to align sequences without an index");
+      return;
+    }
+    index.setConfiguration(configuration);
+    if (configuration.getContextLength() == -1) {
+      configuration.setContextLength(GraphUtils.optimalSuffixLength(index.getGraph()));
+    }
+
+    BatchAligner aligner = new BatchAligner(index, params.get("--type"));
+    LogUtils.printInfo("Aligning reads from " + params.get("--reads") + " with "
+        + WorkerPool.getParallelism() + " threads");
+    long start = System.nanoTime();
+    long cappedPositions = Metrics.CAPPED_POSITIONS.sum();
+    long droppedCandidates = Metrics.DROPPED_CANDIDATES.sum();
+    int reads;
+    int level = LogUtils.getLevel();
+    try {
+      ReadReader reader = new ReadReader(params.get("--reads"));
+      Writer out;
+      if (params.get("--output") != null) {
+        out = new BufferedWriter(new FileWriter(params.get("--output")));
+      } else {
+        out = new BufferedWriter(new OutputStreamWriter(System.out));
+      }
+      LogUtils.setLevel(LogUtils.WARNING);
+      try {
+        reads = aligner.alignAll(reader, out);
+      } finally {
+        LogUtils.setLevel(level);
+        reader.close();
+        if (params.get("--output") != null) {
+          out.close();
+        }
+      }
+    } catch (IOException e) {
+      LogUtils.printError("Unable to align reads from " + params.get("--reads") + ": "
+          + e.getMessage());
+      return;
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    LogUtils.printInfo("Aligned " + reads + " reads in " + String.format("%.2f", seconds)
+        + " seconds, " + String.format("%.1f", reads / seconds) + " reads/second, "
+        + aligner.getFailures() + " failed");
+    cappedPositions = Metrics.CAPPED_POSITIONS.sum() - cappedPositions;
+    if (cappedPositions > 0) {
+      // The cap is logged per read at info level, which is muted while aligning
+      LogUtils.printInfo("Candidate cap of " + configuration.getMaxCandidates() + " hit at "
+          + cappedPositions + " positions, dropping "
+          + (Metrics.DROPPED_CANDIDATES.sum() - droppedCandidates) + " candidates");
+    }
+  }
+
+  /**
+   * Serves until the process is stopped, when the reporter, if any, writes its last metrics
+   */
+  private static void serve(Map<String, String> params, final MetricsReporter reporter) {
+    if (params.get("--index") == null) {
+      LogUtils.printError("Unable to serve without an index. Use --index=<filename>,...");
+      return;
+    }
+    int port = AlignmentServer.DEFAULT_PORT;
+    if (params.get("--port") != null) {
+      port = ParseUtils.parseInt(params.get("--port"), -1);
+      if (port < 0 || port > 65535) {
+        LogUtils.printError("Invalid port " + params.get("--port"));
+        return;
+      }
+    }
+    String host = params.get("--host") != null ? params.get("--host") : "localhost";
+
+    // Every index gets its own configuration, as the suffix length may depend on its graph
+    Map<String, FuzzySearchIndex> indexes = new LinkedHashMap<String, FuzzySearchIndex>();
+    for (String filename : params.get("--index").split(",")) {
+      String name = new File(filename).getName();
+      if (indexes.containsKey(name)) {
+        LogUtils.printError("Several indexes named " + name);
+        return;
+      }
+      Configuration configuration = parseConfiguration("serve", params);
+      if (configuration == null) {
+        return;
+      }
+      FuzzySearchIndex index = FuzzySearchIndex.readIndex(filename);
+      if (index == null) {
+        LogUtils.printError("Unable to serve without the index " + filename);
+        return;
+      }
+      index.setConfiguration(configuration);
+      if (configuration.getContextLength() == -1) {
+        configuration.setContextLength(GraphUtils.optimalSuffixLength(index.getGraph()));
+      }
+      indexes.put(name, index);
+    }
+
+    final AlignmentServer server;
+    try {
+      server = new AlignmentServer(indexes, params.get("--type"), host, port);
+    } catch (IOException e) {
+      LogUtils.printError("Unable to listen on " + host + ":" + port + ": " + e.getMessage());
+      return;
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        server.stop(1);
+        if (reporter != null) {
+          reporter.stop();
+        }
+      }
+    });
+    server.start();
+    LogUtils.printInfo("Serving " + indexes.keySet() + " on http://" + host + ":"
+        + server.getPort() + " with " + WorkerPool.getParallelism() + " threads");
+    LogUtils.setLevel(LogUtils.WARNING);
+  }
+
   private static Alignment alignSequence(Configuration configuration, Graph g,
       FuzzySearchIndex index, String sequence, String type) {
     if (type == null || "fuzzy".equals(type)) {
       return index.align(sequence);
     } else if ("po_msa".equals(type)) {
       return AlignmentUtils.align(g, sequence, configuration);
+    } else if ("po_msa_banded".equals(type)) {
+      return AlignmentUtils.alignBanded(g, index.align(sequence).getAlignment(), sequence,
+          configuration);
     } else {
       LogUtils.printError("Invalid alignment algorithm");
       return null;
@@ -260,11 +555,15 @@ public class GraphGenome {
         Math.max(paramName.length(), findLongestElement(SHORTHAND_PARAMS.values())) + 2;
     int helpLength = Math.max(helpName.length(), findLongestElement(HELP_MENU.values())) + 2;
 
-    System.out.println("Run with one of two type flags: index or align");
+    System.out.println("Run with one of the type flags: index, align, align-batch or serve");
     System.out.println(
         ">java -jar graph-genome.jar index [--input-fastas=<fasta_1>,<fasta_2>,...,<fasta_n> --input-sequences=<sequence_1>,<sequence_2>,...,<sequence_n>] --index=<index-file> (--scoring-system=<type>) (--suffix-length=<length>) (--threshold=<threshold>) (--dot=<dot-file>)");
     System.out.println(
         ">java -jar graph-genome.jar align --index=<index-file> [--align-fasta=<fasta> --align-sequence=<sequence>] (--scoring-system=<type>) (--suffix-length=<length>) (--threshold=<threshold>) (--dot=<dot-file>)");
+    System.out.println(
+        ">java -jar graph-genome.jar align-batch --index=<index-file> --reads=<reads-file> (--threads=<threads>) (--output=<file>) (--type=<type>)");
+    System.out.println(
+        ">java -jar graph-genome.jar serve --index=<index-file_1>,...,<index-file_n> (--port=<port>) (--host=<host>) (--threads=<threads>) (--type=<type>)");
     System.out.println(
         "Parameters in brackets means atleast one of them is necessary, parenthesis mean optional");
     System.out.println();
@@ -314,6 +613,7 @@ public class GraphGenome {
       sequences = sequencesString.split(",");
     }
     Graph graph = null;
+    FuzzySearchIndex index = null;
 
     if (files == null && sequences == null) {
       LogUtils.printError("Needs atleast one fasta file or input sequence to build graph");
@@ -322,9 +622,20 @@ public class GraphGenome {
     if (files != null) {
       for (int i = 0; i < files.length; i++) {
         try {
-          graph = createOrMerge(configuration, graph, ParseUtils.fastaToSequence(files[i]));
-          if (configuration.getContextLength() == -1) {
-            configuration.setContextLength(GraphUtils.optimalSuffixLength(graph));
+          FastaReader reader = new FastaReader(files[i]);
+          try {
+            while (reader.next()) {
+              if (graph == null) {
+                graph = ParseUtils.stringToGraph(configuration, reader.getSequence());
+              } else {
+                index = merge(configuration, graph, index, reader.getSequence());
+              }
+              if (configuration.getContextLength() == -1) {
+                configuration.setContextLength(GraphUtils.optimalSuffixLength(graph));
+              }
+            }
+          } finally {
+            reader.close();
           }
         } catch (IOException e) {
           LogUtils.printError("Unable to open file " + files[i]);
@@ -334,7 +645,11 @@ public class GraphGenome {
 
     if (sequences != null) {
       for (int i = 0; i < sequences.length; i++) {
-        graph = createOrMerge(configuration, graph, sequences[i]);
+        if (graph == null) {
+          graph = ParseUtils.stringToGraph(configuration, sequences[i]);
+        } else {
+          index = merge(configuration, graph, index, sequences[i]);
+        }
         if (configuration.getContextLength() == -1) {
           configuration.setContextLength(GraphUtils.optimalSuffixLength(graph));
         }
@@ -344,14 +659,19 @@ public class GraphGenome {
     return graph;
   }
 
-  public static Graph createOrMerge(Configuration configuration, Graph graph, String sequence) {
-    if (graph == null) {
-      return ParseUtils.stringToGraph(configuration, sequence);
+  /**
+   * Aligns sequence to the graph and merges it in. The index of the graph is built on the first
+   * merge and then only updated with the contexts every merge changes.
+   */
+  public static FuzzySearchIndex merge(Configuration configuration, Graph graph,
+      FuzzySearchIndex index, CharSequence sequence) {
+    if (index == null) {
+      index = FuzzySearchIndex.buildIndex(graph, configuration);
     }
-    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
-    graph.mergeSequence(sequence, index.align(sequence).getAlignment());
+    String s = sequence.toString();
+    index.mergeSequence(s, index.align(s).getAlignment());
 
-    return graph;
+    return index;
   }
 
   public static void printGraph(Graph graph, String filename, int[] alignment, String sequence) {
@@ -3,6 +3,7 @@ package configuration;
 import java.io.Serializable;
 
 import data.Graph;
+import utils.BaseUtils;
 import utils.LogUtils;
 
 /**
@@ -11,8 +12,38 @@ import utils.LogUtils;
 public abstract class Configuration implements Serializable {
   public static final int DEFAULT_SUFFIX_LENGTH = 15;
   public static final int DEFAULT_ERROR_MARGIN = 0;
+  public static final int DEFAULT_BAND_WIDTH = 16;
+  public static final int DEFAULT_MAX_CONTEXTS = Integer.MAX_VALUE;
+  public static final int DEFAULT_MAX_CANDIDATES = Integer.MAX_VALUE;
   public static final char WILDCARD = 'N';
 
+  public static final int CODE_HEAD = BaseUtils.ALPHABET_SIZE;
+  public static final int CODE_TAIL = BaseUtils.ALPHABET_SIZE + 1;
+  public static final int CODE_INVALID = BaseUtils.ALPHABET_SIZE + 2;
+  public static final int NUMBER_OF_CODES = BaseUtils.ALPHABET_SIZE + 3;
+  private static final byte[] CODES = new byte[128];
+
+  static {
+    for (int i = 0; i < CODES.length; i++) {
+      CODES[i] = CODE_INVALID;
+    }
+    for (int code = 0; code < BaseUtils.ALPHABET_SIZE; code++) {
+      CODES[BaseUtils.decode(code)] = (byte) code;
+    }
+    CODES[Graph.HEAD_VALUE] = CODE_HEAD;
+    CODES[Graph.TAIL_VALUE] = CODE_TAIL;
+  }
+
+  public static final String DISTANCE_ORACLE_AUTO = "auto";
+  public static final String DISTANCE_ORACLE_EAGER = "eager";
+  public static final String DISTANCE_ORACLE_LAZY = "lazy";
+
+  public static final String ALIGNMENT_KERNEL_SCALAR = "scalar";
+  public static final String ALIGNMENT_KERNEL_PROFILE = "profile";
+
+  public static final String CONTEXT_SEARCH_POSITIONS = "positions";
+  public static final String CONTEXT_SEARCH_BATCHED = "batched";
+
   private int[][] scoringMatrix;
   private int gapOpeningPenalty;
   private int gapExtensionPenalty;
@@ -22,6 +53,16 @@ public abstract class Configuration implements Serializable {
   private int errorMargin;
   private boolean allowParallellization;
   private boolean allowHeuristics;
+  private String distanceOracle;
+  private int bandWidth;
+  private int maxContexts;
+  private int maxCandidates;
+  private boolean unitCost;
+  private String alignmentKernel;
+  private String contextSearch;
+  private final int[] scores;
+  private int[] gapPenalties;
+  private int maxDistance;
 
   protected Configuration(int[][] scoringMatrix, int gapOpeningPenalty, int gapExtensionPenalty) {
     this.scoringMatrix = scoringMatrix;
@@ -31,7 +72,16 @@ public abstract class Configuration implements Serializable {
     this.errorMargin = DEFAULT_ERROR_MARGIN;
     this.allowParallellization = false;
     this.allowHeuristics = false;
+    this.distanceOracle = DISTANCE_ORACLE_AUTO;
+    this.bandWidth = DEFAULT_BAND_WIDTH;
+    this.maxContexts = DEFAULT_MAX_CONTEXTS;
+    this.maxCandidates = DEFAULT_MAX_CANDIDATES;
+    this.alignmentKernel = ALIGNMENT_KERNEL_PROFILE;
+    this.contextSearch = CONTEXT_SEARCH_BATCHED;
     setMinAndMax(scoringMatrix);
+    setUnitCost(scoringMatrix);
+    this.scores = computeScores();
+    setGapPenalties();
   }
 
   public void setAllowParallellization(boolean allowParallellization) {
@@ -60,51 +110,111 @@ public abstract class Configuration implements Serializable {
     minPairwiseScore = min;
   }
 
+  private void setUnitCost(int[][] scoringMatrix) {
+    boolean unit = gapOpeningPenalty == 1 && gapExtensionPenalty == 1;
+    for (int i = 0; i < scoringMatrix.length; i++) {
+      for (int j = 0; j < scoringMatrix[i].length; j++) {
+        unit &= scoringMatrix[i][j] == (i == j ? 0 : -1);
+      }
+    }
+    unitCost = unit;
+  }
+
+  /**
+   * Whether matches score 0 and mismatches and gaps -1, which allows bit-parallel edit distance
+   */
+  public boolean isUnitCost() {
+    return unitCost;
+  }
+
+  /**
+   * The score of two characters, looked up in the score table. Prefer encoding the characters
+   * once and calling getScore(int, int) in loops.
+   */
   public int getScore(char a, char b) {
+    int i = encode(a);
+    int j = encode(b);
+    if (i == CODE_INVALID || j == CODE_INVALID) {
+      LogUtils.printError("Looking up invalid bases " + a + " or " + b);
+    }
+    return scores[i * NUMBER_OF_CODES + j];
+  }
+
+  /**
+   * The score of two encoded characters
+   */
+  public int getScore(int a, int b) {
+    return scores[a * NUMBER_OF_CODES + b];
+  }
+
+  /**
+   * The code of a character: the base codes of BaseUtils, the head and the tail of the graph
+   * and anything else
+   */
+  public static int encode(char c) {
+    return c < CODES.length ? CODES[c] : CODE_INVALID;
+  }
+
+  public static byte[] encode(CharSequence s) {
+    byte[] codes = new byte[s.length()];
+    for (int i = 0; i < codes.length; i++) {
+      codes[i] = (byte) encode(s.charAt(i));
+    }
+    return codes;
+  }
+
+  private static char decode(int code) {
+    if (code == CODE_HEAD) {
+      return Graph.HEAD_VALUE;
+    } else if (code == CODE_TAIL) {
+      return Graph.TAIL_VALUE;
+    } else if (code == CODE_INVALID) {
+      return 0;
+    }
+    return BaseUtils.decode(code);
+  }
+
+  private int[] computeScores() {
+    int[] scores = new int[NUMBER_OF_CODES * NUMBER_OF_CODES];
+    for (int i = 0; i < NUMBER_OF_CODES; i++) {
+      for (int j = 0; j < NUMBER_OF_CODES; j++) {
+        scores[i * NUMBER_OF_CODES + j] = computeScore(decode(i), decode(j));
+      }
+    }
+    return scores;
+  }
+
+  private int computeScore(char a, char b) {
     if (a == WILDCARD || b == WILDCARD) {
       return minPairwiseScore;
     }
 
-    final int A = 0;
-    final int C = 1;
-    final int G = 2;
-    final int T = 3;
-
     if (a == Graph.HEAD_VALUE || a == Graph.TAIL_VALUE || b == Graph.HEAD_VALUE
         || b == Graph.TAIL_VALUE) {
       return gapOpeningPenalty;
     }
 
-    int i = -1;
-    if (a == 'A') {
-      i = A;
-    } else if (a == 'C') {
-      i = C;
-    } else if (a == 'G') {
-      i = G;
-    } else if (a == 'T') {
-      i = T;
-    }
-
-    int j = -1;
-    if (b == 'A') {
-      j = A;
-    } else if (b == 'C') {
-      j = C;
-    } else if (b == 'G') {
-      j = G;
-    } else if (b == 'T') {
-      j = T;
-    }
-    if (i != -1 && j != -1) {
+    int i = BaseUtils.encode(a);
+    int j = BaseUtils.encode(b);
+    if (i != BaseUtils.N && j != BaseUtils.N) {
       return scoringMatrix[i][j];
     } else {
-      LogUtils.printError("Looking up invalid bases " + a + " or " + b);
       return minPairwiseScore;
     }
   }
 
+  /**
+   * The penalty of skipping distance - 1 vertices or characters, from a table for the distances
+   * within the maximal distance
+   */
   public int getGapPenalty(int distance) {
+    if (distance < gapPenalties.length) {
+      return gapPenalties[distance];
+    }
+    return computeGapPenalty(distance);
+  }
+
+  private int computeGapPenalty(int distance) {
     if (distance == 0) {
       return gapOpeningPenalty;
     } else if (distance == 1) {
@@ -116,6 +226,22 @@ public abstract class Configuration implements Serializable {
     }
   }
 
+  /**
+   * Recomputes the maximal distance and the gap penalties up to it for the error margin
+   */
+  private void setGapPenalties() {
+    int i = 1;
+    while (computeGapPenalty(i) <= errorMargin) {
+      i++;
+    }
+    maxDistance = i;
+
+    gapPenalties = new int[maxDistance + 1];
+    for (int distance = 0; distance < gapPenalties.length; distance++) {
+      gapPenalties[distance] = computeGapPenalty(distance);
+    }
+  }
+
   public void setContextLength(int contextLength) {
     LogUtils.printInfo("Sat context length to " + contextLength);
     this.contextLength = contextLength;
@@ -139,6 +265,7 @@ public abstract class Configuration implements Serializable {
 
   public void setErrorMargin(int errorMargin) {
     this.errorMargin = errorMargin;
+    setGapPenalties();
   }
 
   public int getErrorMargin() {
@@ -153,22 +280,95 @@ public abstract class Configuration implements Serializable {
     return allowHeuristics;
   }
 
+  /**
+   * How distances between candidate vertices are computed: eager precomputes them for the whole
+   * graph once, lazy for the candidates of every alignment, and auto is eager unless the graph is
+   * too large
+   */
+  public void setDistanceOracle(String distanceOracle) {
+    this.distanceOracle = distanceOracle;
+  }
+
+  public String getDistanceOracle() {
+    return distanceOracle;
+  }
+
+  /**
+   * How many characters before and after its distance from the start every vertex computes in a
+   * banded alignment
+   */
+  public void setBandWidth(int bandWidth) {
+    this.bandWidth = bandWidth;
+  }
+
+  public int getBandWidth() {
+    return bandWidth;
+  }
+
+  /**
+   * How many distinct contexts of each direction a vertex keeps when the index is built. Bounds
+   * the contexts near clusters of variants, where they grow exponentially with the context
+   * length.
+   */
+  public void setMaxContexts(int maxContexts) {
+    this.maxContexts = maxContexts;
+  }
+
+  public int getMaxContexts() {
+    return maxContexts;
+  }
+
+  /**
+   * How many candidate vertices the fuzzy search keeps for a position, the best scoring ones.
+   * Bounds the path search in repetitive regions, where hundreds of vertices may score within
+   * the error margin.
+   */
+  public void setMaxCandidates(int maxCandidates) {
+    this.maxCandidates = maxCandidates;
+  }
+
+  public int getMaxCandidates() {
+    return maxCandidates;
+  }
+
+  /**
+   * How PO-MSA computes its cells: scalar looks up the score of every cell and handles gaps in
+   * the same loop, profile uses a per character score row over the sequence and bit-parallel
+   * edit distance for unit costs. Both give the same alignments.
+   */
+  public void setAlignmentKernel(String alignmentKernel) {
+    this.alignmentKernel = alignmentKernel;
+  }
+
+  public String getAlignmentKernel() {
+    return alignmentKernel;
+  }
+
+  /**
+   * How the fuzzy search looks up the contexts of a read: positions searches the tries from the
+   * root for every position, batched searches the contexts of all positions in one traversal of
+   * each trie. Both give the same candidates.
+   */
+  public void setContextSearch(String contextSearch) {
+    this.contextSearch = contextSearch;
+  }
+
+  public String getContextSearch() {
+    return contextSearch;
+  }
+
   public int getMaxAlignmentScore(String s) {
     int score = 0;
-    for (Character c : s.toCharArray()) {
-      score += getScore(c, c);
+    for (int i = 0; i < s.length(); i++) {
+      int code = encode(s.charAt(i));
+      score += getScore(code, code);
     }
 
     return score;
   }
 
   public int getMaxDistance() {
-    int i = 1;
-    while (getGapPenalty(i) <= getErrorMargin()) {
-      i++;
-    }
-
-    return i;
+    return maxDistance;
   }
 
 }
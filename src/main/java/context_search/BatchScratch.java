@@ -0,0 +1,43 @@
+package context_search;
+
+import java.util.Arrays;
+
+/**
+ * Per thread working memory of the batched trie search: the scratch space of every query of a
+ * batch, and for every depth the queries still searched, the length of the prefix each shares
+ * with the one before it and, for unit costs, the score before the last cell of its column.
+ * Queries are searched in batches of at most QUERIES, so that the memory stays bounded for
+ * long reads. The nodes visited and queries pruned are counted as in SearchScratch.
+ */
+class BatchScratch {
+  static final int QUERIES = 256;
+
+  SearchScratch[] queries = new SearchScratch[0];
+  int[][] active = new int[0][];
+  int[][] prefixes = new int[0][];
+  int[][] beforeLast = new int[0][];
+  int visited;
+  int pruned;
+
+  /**
+   * Makes room for count queries searched down to rows rows
+   */
+  void prepare(int rows, int count) {
+    visited = 0;
+    pruned = 0;
+    if (count > queries.length) {
+      int size = queries.length;
+      queries = Arrays.copyOf(queries, count);
+      for (int q = size; q < count; q++) {
+        queries[q] = new SearchScratch();
+      }
+    }
+    if (rows > active.length || count > active[0].length) {
+      int height = Math.max(rows, active.length);
+      int width = Math.max(count, active.length == 0 ? 0 : active[0].length);
+      active = new int[height][width];
+      prefixes = new int[height][width];
+      beforeLast = new int[height][width];
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package context_search;
+
+import java.util.Arrays;
+
+import utils.IntList;
+import utils.KmerSet;
+
+/**
+ * Contexts buffered by their first base, packed as described by KmerSet, so that the subtree of
+ * every child of the root can be built on a thread of its own. Empty contexts belong to the root.
+ */
+public class ContextPartitions {
+  private final int words;
+  private final long[][] kmers = new long[SuffixTree.FANOUT][];
+  private final int[][] lengths = new int[SuffixTree.FANOUT][];
+  private final int[][] vertices = new int[SuffixTree.FANOUT][];
+  private final int[] sizes = new int[SuffixTree.FANOUT];
+  private final IntList rootVertices = new IntList();
+
+  /**
+   * Partitions for contexts of at most maxLength bases
+   */
+  public ContextPartitions(int maxLength) {
+    this.words = KmerSet.getWords(maxLength);
+    for (int code = 0; code < SuffixTree.FANOUT; code++) {
+      kmers[code] = new long[16 * words];
+      lengths[code] = new int[16];
+      vertices[code] = new int[16];
+    }
+  }
+
+  public void add(long[] src, int offset, int length, int vertex) {
+    if (length == 0) {
+      rootVertices.add(vertex);
+      return;
+    }
+    int code = KmerSet.getCode(src, offset, 0);
+    int size = sizes[code];
+    if (size == lengths[code].length) {
+      kmers[code] = Arrays.copyOf(kmers[code], size * 2 * words);
+      lengths[code] = Arrays.copyOf(lengths[code], size * 2);
+      vertices[code] = Arrays.copyOf(vertices[code], size * 2);
+    }
+    System.arraycopy(src, offset, kmers[code], size * words, words);
+    lengths[code][size] = length;
+    vertices[code][size] = vertex;
+    sizes[code]++;
+  }
+
+  int getWords() {
+    return words;
+  }
+
+  int size(int code) {
+    return sizes[code];
+  }
+
+  long[] getKmers(int code) {
+    return kmers[code];
+  }
+
+  int getLength(int code, int i) {
+    return lengths[code][i];
+  }
+
+  int getVertex(int code, int i) {
+    return vertices[code][i];
+  }
+
+  int[] getRootVertices() {
+    return rootVertices.toArray();
+  }
+
+  /**
+   * Drops the contexts of a partition once its subtree is built
+   */
+  void release(int code) {
+    kmers[code] = null;
+    lengths[code] = null;
+    vertices[code] = null;
+  }
+}
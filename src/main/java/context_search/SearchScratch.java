@@ -0,0 +1,83 @@
+package context_search;
+
+import configuration.Configuration;
+import utils.BitParallel;
+import utils.IntIntMap;
+
+/**
+ * Per thread working memory of the trie search: one score row and one gap row per trie depth,
+ * the maximum of every row, the query, its codes and the scores of every trie character against
+ * them, the score to report and the reported vertices. The bit-parallel search keeps
+ * one column per depth instead, with the last cell and its gap apart. Rows are only reallocated
+ * when a deeper trie or a longer query is searched, so visiting a node allocates nothing. The
+ * nodes visited and pruned are counted here and added to Metrics once per search.
+ */
+class SearchScratch {
+  int[][] scores = new int[0][];
+  boolean[][] gaps = new boolean[0][];
+  int[] rowMax = new int[0];
+  char[] query = new char[0];
+  byte[] codes = new byte[0];
+  int[] profile = new int[0];
+  final IntIntMap results = new IntIntMap();
+  final BitParallel kernel = new BitParallel(new char[0], 0);
+  long[][] bitColumns = new long[0][];
+  int[] lastScores = new int[0];
+  boolean[] lastGaps = new boolean[0];
+  int width;
+  int maxScore;
+  int visited;
+  int pruned;
+
+  /**
+   * Makes room for rows rows of width cells and copies the query
+   */
+  void prepare(int rows, String s) {
+    int width = s.length() + 1;
+    if (rows > scores.length || width > query.length + 1) {
+      int height = Math.max(rows, scores.length);
+      int columns = Math.max(width, query.length + 1);
+      scores = new int[height][columns];
+      gaps = new boolean[height][columns];
+      rowMax = new int[height];
+      query = new char[columns - 1];
+      codes = new byte[columns - 1];
+    }
+    this.width = width;
+    s.getChars(0, s.length(), query, 0);
+    for (int i = 0; i < s.length(); i++) {
+      codes[i] = (byte) Configuration.encode(query[i]);
+    }
+    results.clear();
+    visited = 0;
+    pruned = 0;
+  }
+
+  /**
+   * Fills the profile with the score of every character of the query prepared before against
+   * every trie character, with the characters of one trie character next to each other
+   */
+  void prepareProfile(Configuration configuration, int length) {
+    if (SuffixTree.FANOUT * length > profile.length) {
+      profile = new int[SuffixTree.FANOUT * length];
+    }
+    for (int code = 0; code < SuffixTree.FANOUT; code++) {
+      for (int i = 0; i < length; i++) {
+        profile[code * length + i] = configuration.getScore(codes[i], code);
+      }
+    }
+  }
+
+  /**
+   * Makes room for rows bit-parallel columns over the query copied by prepare
+   */
+  void prepareColumns(int rows, int length) {
+    kernel.setPattern(query, length);
+    int size = kernel.columnSize();
+    if (rows > bitColumns.length || size > bitColumns[0].length) {
+      bitColumns = new long[Math.max(rows, bitColumns.length)][size];
+      lastScores = new int[bitColumns.length];
+      lastGaps = new boolean[bitColumns.length];
+    }
+  }
+}
@@ -1,140 +1,841 @@
 package context_search;
 
-import java.io.Serializable;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import configuration.Configuration;
+import metrics.Metrics;
+import utils.BaseUtils;
+import utils.BitParallel;
+import utils.IntIntMap;
+import utils.StringUtils;
+import utils.WorkerPool;
 
-public class SuffixTree implements Serializable, Runnable {
+/**
+ * Trie of contexts. Contexts are inserted into an array-backed builder, which is flattened into
+ * preorder arrays before searching: FANOUT child slots per node indexed by base code (0 meaning
+ * no child, since the root is never a child), and the vertices of every node as a range of a
+ * shared leaf pool. The flat arrays are buffers so that a trie can be searched directly from a
+ * memory mapped index file.
+ *
+ * Searches keep their state in per thread scratch space and may run concurrently once the trie
+ * is frozen, but not concurrently with addSuffix.
+ */
+public class SuffixTree {
 
   public static final int GAP_STATUS_NO_GAP = 0;
   public static final int GAP_STATUS_GAP_IN_SEQUENCE = 1;
   public static final int GAP_STATUS_GAP_IN_GRAPH = 2;
 
+  public static final int FANOUT = BaseUtils.ALPHABET_SIZE;
+  public static final int NO_MATCH = Integer.MIN_VALUE;
+  public static final int AMBIGUOUS = Integer.MIN_VALUE + 1;
+  private static final int ROOT = 0;
+
+  private static final ThreadLocal<BatchScratch> BATCH_SCRATCH =
+      new ThreadLocal<BatchScratch>() {
+        @Override
+        protected BatchScratch initialValue() {
+          return new BatchScratch();
+        }
+      };
+
+  private static final ThreadLocal<SearchScratch> SCRATCH = new ThreadLocal<SearchScratch>() {
+    @Override
+    protected SearchScratch initialValue() {
+      return new SearchScratch();
+    }
+  };
+
   private Configuration configuration;
-  private SuffixTreeNode head;
+  private TrieBuilder builder;
   private int maxDepth;
-  private String s;
-  private boolean force;
-  private int index;
-  private Map<Integer, HashMap<Integer, Integer>> scores;
-  private boolean ready = false;
+  private int nodeCount;
+  private IntBuffer children;
+  private IntBuffer leafOffsets;
+  private IntBuffer leaves;
+  private volatile boolean frozen;
+  private volatile int[] subtreeEnds;
 
   public SuffixTree(Configuration configuration) {
     this.configuration = configuration;
-    head = new SuffixTreeNode(configuration, 0);
+    builder = new TrieBuilder();
     maxDepth = configuration.getContextLength();
-    scores = new HashMap<Integer, HashMap<Integer, Integer>>();
   }
 
   /**
-   * Method used in parallelization
+   * Creates a trie from its flattened form, e.g. one mapped from an index file
    */
-  public synchronized void setSearchParams(String s, boolean force, int index) {
-    this.s = s;
-    this.force = force;
-    this.index = index;
-    setReady(false);
+  public SuffixTree(Configuration configuration, int maxDepth, IntBuffer children,
+      IntBuffer leafOffsets, IntBuffer leaves) {
+    this.configuration = configuration;
+    this.maxDepth = maxDepth;
+    this.nodeCount = leafOffsets.limit() - 1;
+    this.children = children;
+    this.leafOffsets = leafOffsets;
+    this.leaves = leaves;
+    this.frozen = true;
+  }
+
+  public void setConfiguration(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public synchronized void addSuffix(String suffix, int node) {
+    if (builder == null) {
+      builder = TrieBuilder.fromFlat(children, leafOffsets, leaves);
+    }
+    builder.add(suffix, Math.min(suffix.length(), maxDepth), node);
+    children = null;
+    subtreeEnds = null;
+    frozen = false;
   }
 
   /**
-   * Method used in parallelization
+   * Adds a context packed as described by KmerSet
    */
-  public synchronized boolean getReady() {
-    return ready;
+  public synchronized void addSuffix(long[] kmers, int offset, int length, int node) {
+    if (builder == null) {
+      builder = TrieBuilder.fromFlat(children, leafOffsets, leaves);
+    }
+    builder.add(kmers, offset, Math.min(length, maxDepth), node);
+    children = null;
+    subtreeEnds = null;
+    frozen = false;
   }
 
   /**
-   * Method used in parallelization
+   * Inserts buffered contexts into an empty trie and freezes it. The subtree below every child
+   * of the root is built and flattened by a worker thread of its own, and the flat subtrees are
+   * then laid out after the root in base code order, which is the preorder a single builder
+   * gives. A trie that already holds contexts adds them one by one instead.
    */
-  public synchronized void await() {
-    while (!ready) {
-      try {
-        wait();
-      } catch (InterruptedException e) {
-        e.printStackTrace();
+  public synchronized void addSuffixes(ContextPartitions partitions) {
+    if (builder == null || !builder.isEmpty() || maxDepth == 0) {
+      for (int code = 0; code < FANOUT; code++) {
+        for (int i = 0; i < partitions.size(code); i++) {
+          addSuffix(partitions.getKmers(code), i * partitions.getWords(),
+              partitions.getLength(code, i), partitions.getVertex(code, i));
+        }
+      }
+      for (int vertex : partitions.getRootVertices()) {
+        addSuffix(new long[1], 0, 0, vertex);
+      }
+      return;
+    }
+
+    PartitionTask[] tasks = new PartitionTask[FANOUT];
+    for (int code = 0; code < FANOUT; code++) {
+      tasks[code] = new PartitionTask(partitions, code);
+    }
+    invokeAll(tasks);
+
+    // Lays out the root, then the subtrees without their roots
+    int[] rootLeaves = partitions.getRootVertices();
+    Arrays.sort(rootLeaves);
+    int rootLeafCount = 0;
+    for (int i = 0; i < rootLeaves.length; i++) {
+      if (i == 0 || rootLeaves[i] != rootLeaves[i - 1]) {
+        rootLeaves[rootLeafCount++] = rootLeaves[i];
+      }
+    }
+    int count = 1;
+    int leafCount = rootLeafCount;
+    for (PartitionTask task : tasks) {
+      task.nodeBase = count - 1;
+      task.leafBase = leafCount;
+      count += task.offsets.length - 2;
+      leafCount += task.leaves.length;
+    }
+    int[] childArray = new int[count * FANOUT];
+    int[] offsetArray = new int[count + 1];
+    int[] leafArray = new int[leafCount];
+    System.arraycopy(rootLeaves, 0, leafArray, 0, rootLeafCount);
+    for (int code = 0; code < FANOUT; code++) {
+      tasks[code].target(childArray, offsetArray, leafArray);
+      if (tasks[code].offsets.length > 2) {
+        childArray[ROOT * FANOUT + code] = tasks[code].nodeBase + 1;
       }
     }
-    return;
+    invokeAll(tasks);
+    offsetArray[count] = leafCount;
+
+    nodeCount = count;
+    leafOffsets = IntBuffer.wrap(offsetArray);
+    leaves = IntBuffer.wrap(leafArray);
+    children = IntBuffer.wrap(childArray);
+    subtreeEnds = null;
+    builder = null;
+    frozen = true;
+  }
+
+  private static void invokeAll(RecursiveAction[] tasks) {
+    if (ForkJoinTask.inForkJoinPool()) {
+      ForkJoinTask.invokeAll(tasks);
+    } else {
+      final RecursiveAction[] all = tasks;
+      WorkerPool.getPool().invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(all);
+        }
+      });
+    }
   }
 
   /**
-   * Method used in parallelization
+   * Builds and flattens the subtree of one base, then copies it into the flat trie once its
+   * place there is known. Every node but the root of the subtree moves from its preorder id l
+   * to nodeBase + l.
    */
-  public void run() {
-    improvedSearch(s, force, index);
+  private class PartitionTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final ContextPartitions partitions;
+    private final int code;
+    private int[] childArray;
+    private int[] offsets;
+    private int[] leaves;
+    private int nodeBase;
+    private int leafBase;
+    private int[] targetChildren;
+    private int[] targetOffsets;
+    private int[] targetLeaves;
+
+    private PartitionTask(ContextPartitions partitions, int code) {
+      this.partitions = partitions;
+      this.code = code;
+    }
+
+    void target(int[] children, int[] offsets, int[] leaves) {
+      targetChildren = children;
+      targetOffsets = offsets;
+      targetLeaves = leaves;
+      reinitialize();
+    }
+
+    @Override
+    protected void compute() {
+      if (targetChildren == null) {
+        build();
+      } else {
+        copy();
+      }
+    }
+
+    private void build() {
+      TrieBuilder subtree = new TrieBuilder();
+      long[] kmers = partitions.getKmers(code);
+      int words = partitions.getWords();
+      for (int i = 0; i < partitions.size(code); i++) {
+        subtree.add(kmers, i * words, Math.min(partitions.getLength(code, i), maxDepth),
+            partitions.getVertex(code, i));
+      }
+      partitions.release(code);
+      int count = subtree.getNodeCount();
+      childArray = new int[count * FANOUT];
+      offsets = new int[count + 1];
+      leaves = subtree.flatten(childArray, offsets);
+    }
+
+    private void copy() {
+      for (int l = 1; l < offsets.length - 1; l++) {
+        targetOffsets[nodeBase + l] = leafBase + offsets[l];
+        for (int c = 0; c < FANOUT; c++) {
+          int child = childArray[l * FANOUT + c];
+          targetChildren[(nodeBase + l) * FANOUT + c] = child == 0 ? 0 : nodeBase + child;
+        }
+      }
+      System.arraycopy(leaves, 0, targetLeaves, leafBase, leaves.length);
+      childArray = null;
+      leaves = null;
+    }
   }
 
   /**
-   * Method used in parallelization
+   * Flattens the inserted contexts, if any were added since the last search
    */
-  public synchronized void setReady(boolean ready) {
-    this.ready = ready;
+  public synchronized void freeze() {
+    if (frozen) {
+      return;
+    }
+    int count = builder.getNodeCount();
+    int[] childArray = new int[count * FANOUT];
+    int[] offsetArray = new int[count + 1];
+    int[] leafArray = builder.flatten(childArray, offsetArray);
+
+    nodeCount = count;
+    leafOffsets = IntBuffer.wrap(offsetArray);
+    leaves = IntBuffer.wrap(leafArray);
+    children = IntBuffer.wrap(childArray);
+    subtreeEnds = null;
+    frozen = true;
   }
 
   /**
-   * Method used in parallelization
+   * Bytes held by the flattened trie
    */
-  public HashMap<Integer, Integer> getScores(int index) {
-    return scores.get(index);
+  public synchronized long getMemoryFootprint() {
+    freeze();
+    return 4L * (children.limit() + leafOffsets.limit() + leaves.limit());
   }
 
-  public void setConfiguration(Configuration configuration) {
-    this.configuration = configuration;
+  public IntBuffer getChildren() {
+    freeze();
+    return children.duplicate();
+  }
+
+  public IntBuffer getLeafOffsets() {
+    freeze();
+    return leafOffsets.duplicate();
+  }
+
+  public IntBuffer getLeaves() {
+    freeze();
+    return leaves.duplicate();
   }
 
-  public void addSuffix(String suffix, int node) {
-    if (suffix.length() > maxDepth) {
-      suffix = suffix.substring(0, maxDepth);
+  private boolean isLeaf(int node) {
+    for (int code = 0; code < FANOUT; code++) {
+      if (children.get(node * FANOUT + code) != 0) {
+        return false;
+      }
     }
-    head.addSuffix(suffix, node);
+    return true;
   }
 
   /**
-   * The recursive suffix tree search
+   * The recursive suffix tree search. Returns the best score of every vertex whose context
+   * aligns to s within the error margin.
    */
-  public synchronized HashMap<Integer, Integer> improvedSearch(String s, boolean force, int index) {
-    setReady(true);
-    notifyAll();
+  public HashMap<Integer, Integer> improvedSearch(String s, boolean force) {
     if ((!force && s.length() < configuration.getContextLength()) || s.length() == 0) {
-      this.scores.put(index, new HashMap<Integer, Integer>());
       return new HashMap<Integer, Integer>();
     }
+    if (!frozen) {
+      freeze();
+    }
+
+    SearchScratch scratch = SCRATCH.get();
+    prepareSearch(scratch, s);
+    if (configuration.isUnitCost()) {
+      bitParallelSearch(ROOT, scratch, s.length(), scratch.maxScore, 0);
+    } else {
+      improvedSearch(ROOT, scratch, s.length() + 1, scratch.maxScore, 0);
+    }
+    Metrics.TRIE_NODES_VISITED.add(scratch.visited);
+    Metrics.TRIE_NODES_PRUNED.add(scratch.pruned);
+    return getResults(scratch);
+  }
+
+  /**
+   * improvedSearch of several queries in one traversal of the trie, e.g. the contexts of every
+   * position of a read. A node is visited once for all the queries that may still reach their
+   * score below it. The queries are sorted, and the cells of a row over the prefix a query
+   * shares with the query before it are copied instead of computed. Returns the results of the
+   * queries in their order.
+   */
+  public Object[] improvedSearch(String[] queries, boolean[] force) {
+    if (!frozen) {
+      freeze();
+    }
+    Object[] results = new Object[queries.length];
+    List<Integer> searched = new ArrayList<Integer>();
+    for (int q = 0; q < queries.length; q++) {
+      String s = queries[q];
+      if ((!force[q] && s.length() < configuration.getContextLength()) || s.length() == 0) {
+        results[q] = new HashMap<Integer, Integer>();
+      } else {
+        searched.add(q);
+      }
+    }
+    final String[] sorting = queries;
+    Collections.sort(searched, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return sorting[a].compareTo(sorting[b]);
+      }
+    });
+
+    // Equal queries are searched once, the first of every run of equal queries
+    List<Integer> distinct = new ArrayList<Integer>();
+    List<Integer> runs = new ArrayList<Integer>();
+    for (int i = 0; i < searched.size(); i++) {
+      int q = searched.get(i);
+      if (distinct.isEmpty() || !queries[q].equals(queries[distinct.get(distinct.size() - 1)])) {
+        distinct.add(q);
+        runs.add(i);
+      }
+    }
+    runs.add(searched.size());
+
+    BatchScratch batch = BATCH_SCRATCH.get();
+    for (int from = 0; from < distinct.size(); from += BatchScratch.QUERIES) {
+      int count = Math.min(BatchScratch.QUERIES, distinct.size() - from);
+      batch.prepare(maxDepth + 1, count);
+      int alive = 0;
+      int prefix = Integer.MAX_VALUE;
+      String previous = null;
+      for (int a = 0; a < count; a++) {
+        String s = queries[distinct.get(from + a)];
+        prepareSearch(batch.queries[a], s);
+        prefix = Math.min(prefix,
+            previous == null ? 0 : StringUtils.commonPrefix(previous, s));
+        previous = s;
+        if (!isPruned(batch.queries[a], 0)) {
+          batch.active[0][alive] = a;
+          batch.prefixes[0][alive] = alive == 0 ? 0 : prefix;
+          alive++;
+          prefix = Integer.MAX_VALUE;
+        } else {
+          batch.pruned++;
+        }
+      }
+      if (alive > 0) {
+        batchSearch(ROOT, batch, alive, 0);
+      }
+      Metrics.TRIE_NODES_VISITED.add(batch.visited);
+      Metrics.TRIE_NODES_PRUNED.add(batch.pruned);
+      for (int a = 0; a < count; a++) {
+        for (int i = runs.get(from + a); i < runs.get(from + a + 1); i++) {
+          results[searched.get(i)] = getResults(batch.queries[a]);
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Prepares the scratch space of a query and the row or column of the root
+   */
+  private void prepareSearch(SearchScratch scratch, String s) {
+    scratch.prepare(maxDepth + 1, s);
+    scratch.maxScore = configuration.getMaxAlignmentScore(s) - configuration.getErrorMargin();
+    if (configuration.isUnitCost()) {
+      scratch.prepareColumns(maxDepth + 1, s.length());
+      scratch.kernel.initColumn(scratch.bitColumns[0], 0);
+      scratch.lastScores[0] = -s.length();
+      scratch.lastGaps[0] = false;
+      scratch.rowMax[0] = 0;
+      return;
+    }
+
+    scratch.prepareProfile(configuration, s.length());
 
     // Initializes the base cases of an empty string
-    int[] scores = new int[s.length() + 1];
+    int width = s.length() + 1;
+    int[] scores = scratch.scores[0];
+    boolean[] gaps = scratch.gaps[0];
     scores[0] = 0;
-    scores[1] = scores[0] - configuration.getGapOpeningPenalty();
-    for (int i = 2; i < scores.length; i++) {
-      scores[i] = scores[i - 1] - configuration.getGapExtensionPenalty();
+    gaps[0] = false;
+    int rowMax = scores[0];
+    for (int i = 1; i < width; i++) {
+      if (i == 1) {
+        scores[i] = scores[i - 1] - configuration.getGapOpeningPenalty();
+      } else {
+        scores[i] = scores[i - 1] - configuration.getGapExtensionPenalty();
+      }
+      gaps[i] = false;
+      rowMax = Math.max(rowMax, scores[i]);
     }
+    scratch.rowMax[0] = rowMax;
+  }
 
-    HashMap<Integer, Integer> finalScores = new HashMap<Integer, Integer>();
-    int maxScore = configuration.getMaxAlignmentScore(s) - configuration.getErrorMargin();
-    int depth = 0;
-    head.improvedSearch(s.toCharArray(), scores, maxScore, depth, finalScores,
-        new boolean[scores.length], maxDepth);
-
-    this.scores.put(index, finalScores);
+  private HashMap<Integer, Integer> getResults(SearchScratch scratch) {
+    IntIntMap results = scratch.results;
+    HashMap<Integer, Integer> finalScores = new HashMap<Integer, Integer>(results.size() * 2);
+    for (int i = 0; i < results.size(); i++) {
+      finalScores.put(results.keyAt(i), results.valueAt(i));
+    }
     return finalScores;
   }
 
-  public Set<Integer> strictSearch(String s) {
-    return head.strictSearch(s);
+  /**
+   * Whether no vertex below a node of depth depth can reach the score of the query
+   */
+  private boolean isPruned(SearchScratch scratch, int depth) {
+    return scratch.rowMax[depth] + (maxDepth - depth) * configuration.getMaxPairwiseScore()
+        < scratch.maxScore;
   }
 
-  public int getNumberOfNodes() {
-    return head.count();
+  private void reportLeaves(SearchScratch scratch, int node, int depth) {
+    int currentMax = scratch.rowMax[depth];
+    if (currentMax >= scratch.maxScore) {
+      for (int l = leafOffsets.get(node); l < leafOffsets.get(node + 1); l++) {
+        scratch.results.putMax(leaves.get(l), currentMax);
+      }
+    }
   }
 
-  public void printSuffix(int index) {
-    head.printSuffix("", index);
+  /**
+   * Fills the row of every child of node in place from the row of node at the same depth.
+   *
+   * @param node The trie node being visited
+   * @param scratch The score and gap rows of every depth and the candidate vertices
+   * @param width The number of cells in a row
+   * @param maxScore The score a vertex needs to be reported
+   * @param depth Current depth of the search
+   */
+  private void improvedSearch(int node, SearchScratch scratch, int width, int maxScore,
+      int depth) {
+    scratch.visited++;
+    if (isPruned(scratch, depth)) {
+      scratch.pruned++;
+      return;
+    }
+
+    if (isLeaf(node)) {
+      reportLeaves(scratch, node, depth);
+      return;
+    }
+
+    for (int code = 0; code < FANOUT; code++) {
+      int child = children.get(node * FANOUT + code);
+      if (child == 0) {
+        continue;
+      }
+      fillRow(scratch, code, depth, width, null, 0);
+      improvedSearch(child, scratch, width, maxScore, depth + 1);
+    }
+  }
+
+  /**
+   * Fills the row of depth + 1 for trie character code from the row of depth. The first
+   * sharedCells cells after the first are copied from the row of depth + 1 of shared, a query
+   * with the same prefix, since a cell only depends on the query before it.
+   */
+  private void fillRow(SearchScratch scratch, int code, int depth, int width,
+      SearchScratch shared, int sharedCells) {
+    int[] profile = scratch.profile;
+    int length = width - 1;
+    int[] scores = scratch.scores[depth];
+    boolean[] gaps = scratch.gaps[depth];
+    int[] myScores = scratch.scores[depth + 1];
+    boolean[] myGaps = scratch.gaps[depth + 1];
+    int offset = code * length - 1;
+    int rowMax;
+    if (sharedCells > 0) {
+      System.arraycopy(shared.scores[depth + 1], 0, myScores, 0, sharedCells + 1);
+      System.arraycopy(shared.gaps[depth + 1], 0, myGaps, 0, sharedCells + 1);
+      rowMax = myScores[0];
+      for (int i = 1; i <= sharedCells; i++) {
+        rowMax = Math.max(rowMax, myScores[i]);
+      }
+    } else {
+      if (depth == 0) {
+        myScores[0] = scores[0] - configuration.getGapOpeningPenalty();
+      } else {
+        myScores[0] = scores[0] - configuration.getGapExtensionPenalty();
+      }
+      myGaps[0] = false;
+      rowMax = myScores[0];
+    }
+    for (int i = sharedCells + 1; i < width; i++) {
+      int verticalScore = myScores[i - 1] - getGapPenalty(myScores, i);
+      int horizontalScore = scores[i] - configuration.getGapOpeningPenalty();
+      if (i == width - 1 && depth >= width - 2) {
+        horizontalScore = scores[i];
+      }
+      if (gaps[i]) {
+        horizontalScore = scores[i] - configuration.getGapExtensionPenalty();
+      }
+      int diagonalScore = scores[i - 1] + profile[offset + i];
+      int score = Math.max(verticalScore, Math.max(horizontalScore, diagonalScore));
+      myScores[i] = score;
+      myGaps[i] = score == horizontalScore;
+      if (score > rowMax) {
+        rowMax = score;
+      }
+    }
+    scratch.rowMax[depth + 1] = rowMax;
+  }
+
+  /**
+   * The search of improvedSearch for unit costs, with Myers' bit-parallel edit distance. A
+   * column holds the standard edit distance of the query against the trie path, except for the
+   * last cell, which is kept apart since it may move horizontally for free at the bottom of the
+   * trie. Every cell i of depth d is at least |i - d| from the top, so the best cell of a row
+   * within the error margin lies within the margin of d and the rest of the row is not read.
+   *
+   * @param node The trie node being visited
+   * @param scratch The columns of every depth and the candidate vertices
+   * @param length The length of the query
+   * @param maxScore The score a vertex needs to be reported
+   * @param depth Current depth of the search
+   */
+  private void bitParallelSearch(int node, SearchScratch scratch, int length, int maxScore,
+      int depth) {
+    scratch.visited++;
+    if (isPruned(scratch, depth)) {
+      scratch.pruned++;
+      return;
+    }
+
+    if (isLeaf(node)) {
+      reportLeaves(scratch, node, depth);
+      return;
+    }
+
+    int beforeLast = -(depth + scratch.kernel.prefix(scratch.bitColumns[depth], 0, length - 1));
+    for (int code = 0; code < FANOUT; code++) {
+      int child = children.get(node * FANOUT + code);
+      if (child == 0) {
+        continue;
+      }
+      fillColumn(scratch, code, depth, length, beforeLast);
+      bitParallelSearch(child, scratch, length, maxScore, depth + 1);
+    }
+  }
+
+  /**
+   * Advances the column of depth to depth + 1 for trie character code. beforeLast is the score
+   * of the cell before the last one of the column of depth.
+   */
+  private void fillColumn(SearchScratch scratch, int code, int depth, int length,
+      int beforeLast) {
+    BitParallel kernel = scratch.kernel;
+    long[] myColumn = scratch.bitColumns[depth + 1];
+    kernel.advance(scratch.bitColumns[depth], 0, myColumn, 0, BaseUtils.decode(code), 1);
+
+    int lastScore = scratch.lastScores[depth];
+    int verticalScore = -(depth + 1 + kernel.prefix(myColumn, 0, length - 1)) - 1;
+    int horizontalScore = lastScore - 1;
+    if (depth >= length - 1 && !scratch.lastGaps[depth]) {
+      horizontalScore = lastScore;
+    }
+    int diagonalScore =
+        beforeLast + configuration.getScore(scratch.codes[length - 1], code);
+    int score = Math.max(verticalScore, Math.max(horizontalScore, diagonalScore));
+    scratch.lastScores[depth + 1] = score;
+    scratch.lastGaps[depth + 1] = score == horizontalScore;
+
+    int margin = -scratch.maxScore;
+    int from = Math.max(0, depth + 1 - margin);
+    int to = Math.min(length - 1, depth + 1 + margin);
+    int rowMax = score;
+    if (from <= to) {
+      rowMax = Math.max(rowMax, -(depth + 1 + kernel.min(myColumn, 0, from, to)));
+    }
+    scratch.rowMax[depth + 1] = rowMax;
+  }
+
+  /**
+   * The traversal of the batched improvedSearch. The queries that may still reach their score
+   * below node are kept in sorted order for its depth, together with the length of the prefix
+   * each shares with the one before it, and a child is only visited by the queries that may
+   * reach their score below it.
+   */
+  private void batchSearch(int node, BatchScratch batch, int count, int depth) {
+    int[] active = batch.active[depth];
+    int[] prefixes = batch.prefixes[depth];
+    batch.visited++;
+    if (isLeaf(node)) {
+      for (int a = 0; a < count; a++) {
+        reportLeaves(batch.queries[active[a]], node, depth);
+      }
+      return;
+    }
+
+    boolean unitCost = configuration.isUnitCost();
+    int[] beforeLast = batch.beforeLast[depth];
+    if (unitCost) {
+      for (int a = 0; a < count; a++) {
+        SearchScratch scratch = batch.queries[active[a]];
+        beforeLast[a] = -(depth
+            + scratch.kernel.prefix(scratch.bitColumns[depth], 0, scratch.width - 2));
+      }
+    }
+    int[] childActive = batch.active[depth + 1];
+    int[] childPrefixes = batch.prefixes[depth + 1];
+    for (int code = 0; code < FANOUT; code++) {
+      int child = children.get(node * FANOUT + code);
+      if (child == 0) {
+        continue;
+      }
+      int alive = 0;
+      int prefix = Integer.MAX_VALUE;
+      SearchScratch previous = null;
+      for (int a = 0; a < count; a++) {
+        SearchScratch scratch = batch.queries[active[a]];
+        if (unitCost) {
+          fillColumn(scratch, code, depth, scratch.width - 1, beforeLast[a]);
+        } else {
+          // The last cell of a row is special, so only the cells before it are shared
+          int sharedCells = previous == null ? 0
+              : Math.min(prefixes[a], Math.min(scratch.width, previous.width) - 2);
+          fillRow(scratch, code, depth, scratch.width, previous, Math.max(0, sharedCells));
+        }
+        previous = scratch;
+        prefix = Math.min(prefix, prefixes[a]);
+        if (!isPruned(scratch, depth + 1)) {
+          childActive[alive] = active[a];
+          childPrefixes[alive] = alive == 0 ? 0 : prefix;
+          alive++;
+          prefix = Integer.MAX_VALUE;
+        } else {
+          batch.pruned++;
+        }
+      }
+      if (alive > 0) {
+        batchSearch(child, batch, alive, depth + 1);
+      }
+    }
+  }
+
+  private int getGapPenalty(int[] scores, int index) {
+    if (index - 1 == 0) {
+      return configuration.getGapExtensionPenalty();
+    } else if ((scores[index - 1] == scores[index - 2] - configuration.getGapOpeningPenalty())
+        || (scores[index - 1]
+        == scores[index - 2] - configuration.getGapExtensionPenalty())) {
+      return configuration.getGapExtensionPenalty();
+    } else {
+      return configuration.getGapOpeningPenalty();
+    }
+  }
+
+  public synchronized Set<Integer> strictSearch(String s) {
+    freeze();
+    int node = ROOT;
+    for (int i = 0; i < s.length() && !isLeaf(node); i++) {
+      node = children.get(node * FANOUT + BaseUtils.encode(s.charAt(i)));
+      if (node == 0) {
+        return null;
+      }
+    }
+    Set<Integer> indexes = new HashSet<Integer>();
+    int end = leafOffsets.get(getSubtreeEnds()[node]);
+    for (int l = leafOffsets.get(node); l < end; l++) {
+      indexes.add(leaves.get(l));
+    }
+    return indexes;
+  }
+
+  /**
+   * The exact search used before improvedSearch. Returns the only vertex with a context that
+   * has s as a prefix, NO_MATCH if there is none and AMBIGUOUS if there are several. Nodes are
+   * numbered in preorder, so the vertices below the node of s are one range of the leaf pool,
+   * up to the leaves of the end of its subtree. A context ending before s, near the head or
+   * tail of the graph, is a prefix of s that improvedSearch may report, so passing a node with
+   * leaves gives AMBIGUOUS. The root is not checked: its empty contexts are never reported.
+   */
+  public int exactSearch(String s) {
+    if (!frozen) {
+      freeze();
+    }
+    int node = ROOT;
+    for (int i = 0; i < s.length(); i++) {
+      if (node != ROOT && leafOffsets.get(node) != leafOffsets.get(node + 1)) {
+        return AMBIGUOUS;
+      }
+      node = children.get(node * FANOUT + BaseUtils.encode(s.charAt(i)));
+      if (node == 0) {
+        return NO_MATCH;
+      }
+    }
+    int start = leafOffsets.get(node);
+    int end = leafOffsets.get(getSubtreeEnds()[node]);
+    if (start == end) {
+      return NO_MATCH;
+    }
+    int vertex = leaves.get(start);
+    for (int l = start + 1; l < end; l++) {
+      if (leaves.get(l) != vertex) {
+        return AMBIGUOUS;
+      }
+    }
+    return vertex;
+  }
+
+  /**
+   * The node following the subtree of every node in preorder, computed on first use
+   */
+  private int[] getSubtreeEnds() {
+    int[] ends = subtreeEnds;
+    if (ends == null) {
+      synchronized (this) {
+        ends = subtreeEnds;
+        if (ends == null) {
+          ends = new int[nodeCount];
+          for (int node = nodeCount - 1; node >= 0; node--) {
+            ends[node] = node + 1;
+            for (int code = FANOUT - 1; code >= 0; code--) {
+              int child = children.get(node * FANOUT + code);
+              if (child != 0) {
+                ends[node] = ends[child];
+                break;
+              }
+            }
+          }
+          subtreeEnds = ends;
+        }
+      }
+    }
+    return ends;
+  }
+
+  public synchronized int getNumberOfNodes() {
+    freeze();
+    return nodeCount;
+  }
+
+  public synchronized void printSuffix(int index) {
+    freeze();
+    printSuffix(ROOT, "", index);
+  }
+
+  private boolean printSuffix(int node, String suffix, int index) {
+    for (int l = leafOffsets.get(node); l < leafOffsets.get(node + 1); l++) {
+      if (leaves.get(l) == index) {
+        System.out.println("Suffix for index " + index + ": " + suffix);
+        return true;
+      }
+    }
+    for (int code = 0; code < FANOUT; code++) {
+      int child = children.get(node * FANOUT + code);
+      if (child != 0 && printSuffix(child, suffix + BaseUtils.decode(code), index)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private String prettyPrint(int node, int spaces) {
+    if (isLeaf(node)) {
+      Set<Integer> indexes = new HashSet<Integer>();
+      for (int l = leafOffsets.get(node); l < leafOffsets.get(node + 1); l++) {
+        indexes.add(leaves.get(l));
+      }
+      return ": " + indexes + "\n";
+    }
+    String s = "";
+    for (int code = 0; code < FANOUT; code++) {
+      int child = children.get(node * FANOUT + code);
+      if (child != 0) {
+        s += new String(new char[spaces]).replace("\0", " ");
+        s += BaseUtils.decode(code) + "\n";
+        s += prettyPrint(child, spaces + 1);
+      }
+    }
+    return s;
   }
 
   @Override
-  public String toString() {
-    return "SuffixTree:\n" + head.prettyPrint(0);
+  public synchronized String toString() {
+    freeze();
+    return "SuffixTree:\n" + prettyPrint(ROOT, 0);
   }
 }
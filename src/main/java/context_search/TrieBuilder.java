@@ -0,0 +1,176 @@
+package context_search;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import utils.BaseUtils;
+import utils.KmerSet;
+
+/**
+ * Array-backed mutable trie used while inserting contexts. Every node owns FANOUT child slots
+ * indexed by base code, and the vertices ending in a node are kept as a linked list through
+ * shared entry arrays. The trie is flattened into preorder arrays for searching.
+ */
+class TrieBuilder {
+  private static final int NONE = -1;
+  private static final int ROOT = 0;
+
+  private int[] children;
+  private int[] leafHeads;
+  private int nodeCount;
+
+  private int[] entryVertices;
+  private int[] entryNext;
+  private int entryCount;
+
+  TrieBuilder() {
+    children = new int[64 * SuffixTree.FANOUT];
+    leafHeads = new int[64];
+    entryVertices = new int[64];
+    entryNext = new int[64];
+    nodeCount = 1;
+    leafHeads[ROOT] = NONE;
+  }
+
+  /**
+   * Rebuilds a builder from a flattened trie, keeping its node numbering
+   */
+  static TrieBuilder fromFlat(IntBuffer childBuffer, IntBuffer offsetBuffer, IntBuffer leafBuffer) {
+    TrieBuilder builder = new TrieBuilder();
+    int nodes = offsetBuffer.limit() - 1;
+    builder.children = new int[Math.max(1, nodes) * SuffixTree.FANOUT];
+    childBuffer.duplicate().get(builder.children, 0, nodes * SuffixTree.FANOUT);
+    builder.leafHeads = new int[Math.max(1, nodes)];
+    builder.nodeCount = nodes;
+    for (int node = 0; node < nodes; node++) {
+      builder.leafHeads[node] = NONE;
+      for (int l = offsetBuffer.get(node); l < offsetBuffer.get(node + 1); l++) {
+        builder.addVertex(node, leafBuffer.get(l));
+      }
+    }
+    return builder;
+  }
+
+  /**
+   * Adds the first length bases of a context
+   */
+  void add(CharSequence context, int length, int vertex) {
+    int node = ROOT;
+    for (int i = 0; i < length; i++) {
+      node = getOrCreateChild(node, BaseUtils.encode(context.charAt(i)));
+    }
+    addVertex(node, vertex);
+  }
+
+  /**
+   * Adds the first length bases of a context packed as described by KmerSet
+   */
+  void add(long[] kmers, int offset, int length, int vertex) {
+    int node = ROOT;
+    for (int i = 0; i < length; i++) {
+      node = getOrCreateChild(node, KmerSet.getCode(kmers, offset, i));
+    }
+    addVertex(node, vertex);
+  }
+
+  int getOrCreateChild(int node, int code) {
+    int slot = node * SuffixTree.FANOUT + code;
+    int child = children[slot];
+    if (child == 0) {
+      child = createNode();
+      children[slot] = child;
+    }
+    return child;
+  }
+
+  private int createNode() {
+    if (nodeCount == leafHeads.length) {
+      leafHeads = Arrays.copyOf(leafHeads, nodeCount * 2);
+      children = Arrays.copyOf(children, nodeCount * 2 * SuffixTree.FANOUT);
+    }
+    leafHeads[nodeCount] = NONE;
+    return nodeCount++;
+  }
+
+  void addVertex(int node, int vertex) {
+    if (entryCount == entryVertices.length) {
+      entryVertices = Arrays.copyOf(entryVertices, entryCount * 2);
+      entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+    }
+    entryVertices[entryCount] = vertex;
+    entryNext[entryCount] = leafHeads[node];
+    leafHeads[node] = entryCount++;
+  }
+
+  int getNodeCount() {
+    return nodeCount;
+  }
+
+  boolean isEmpty() {
+    return nodeCount == 1 && entryCount == 0;
+  }
+
+  /**
+   * Bytes held by the builder arrays
+   */
+  long getMemoryFootprint() {
+    return 4L * (children.length + leafHeads.length + entryVertices.length + entryNext.length);
+  }
+
+  /**
+   * Renumbers the nodes in preorder. Children are written to childArray (0 meaning no child)
+   * and the sorted, distinct vertices of every node to the leaf pool, delimited by offsetArray
+   * which must hold getNodeCount() + 1 entries. Returns the leaf pool.
+   */
+  int[] flatten(int[] childArray, int[] offsetArray) {
+    int[] pool = new int[entryCount];
+    int[] stack = new int[nodeCount];
+    int[] ids = new int[nodeCount];
+    int top = 0;
+    int next = 0;
+    int leafCount = 0;
+    stack[top++] = ROOT;
+    while (top > 0) {
+      int node = stack[--top];
+      int id = next++;
+      ids[node] = id;
+      offsetArray[id] = leafCount;
+      int first = leafCount;
+      for (int e = leafHeads[node]; e != NONE; e = entryNext[e]) {
+        pool[leafCount++] = entryVertices[e];
+      }
+      Arrays.sort(pool, first, leafCount);
+      leafCount = unique(pool, first, leafCount);
+
+      // Pushed in reverse so that children are numbered in base code order
+      for (int code = SuffixTree.FANOUT - 1; code >= 0; code--) {
+        int child = children[node * SuffixTree.FANOUT + code];
+        if (child != 0) {
+          stack[top++] = child;
+        }
+      }
+    }
+    offsetArray[nodeCount] = leafCount;
+
+    for (int node = 0; node < nodeCount; node++) {
+      for (int code = 0; code < SuffixTree.FANOUT; code++) {
+        int child = children[node * SuffixTree.FANOUT + code];
+        childArray[ids[node] * SuffixTree.FANOUT + code] = child == 0 ? 0 : ids[child];
+      }
+    }
+    return Arrays.copyOf(pool, leafCount);
+  }
+
+  private static int unique(int[] values, int from, int to) {
+    if (to - from < 2) {
+      return to;
+    }
+    int last = from;
+    for (int i = from + 1; i < to; i++) {
+      if (values[i] != values[last]) {
+        values[++last] = values[i];
+      }
+    }
+    return last + 1;
+  }
+}
@@ -4,6 +4,8 @@ public class Alignment {
   private int[] alignment;
   private double score;
   private long time;
+  private long searchTime;
+  private long pathTime;
   private String type;
   private int sequenceLength;
   private int graphSize;
@@ -36,6 +38,28 @@ public class Alignment {
     return time;
   }
 
+  /**
+   * Time used searching for candidate vertices, for fuzzy search alignments
+   */
+  public void setSearchTime(long searchTime) {
+    this.searchTime = searchTime;
+  }
+
+  public long getSearchTime() {
+    return searchTime;
+  }
+
+  /**
+   * Time used finding the most probable path through the candidates, for fuzzy search alignments
+   */
+  public void setPathTime(long pathTime) {
+    this.pathTime = pathTime;
+  }
+
+  public long getPathTime() {
+    return pathTime;
+  }
+
   public void setType(String type) {
     this.type = type;
   }
@@ -65,8 +89,12 @@ public class Alignment {
     String s = "Alignment type: " + type + "\n" +
         "Sequence length: " + sequenceLength + "\n" +
         "Graph size: " + graphSize + "\n" +
-        "Score: " + (int) score + "\n" +
-        "Time: " + time + "\n" +
+        "Score: " + (int) score + "\n";
+    if (searchTime > 0 || pathTime > 0) {
+      s += "Search time: " + searchTime + "\n" +
+          "Path time: " + pathTime + "\n";
+    }
+    s += "Time: " + time + "\n" +
         "Alignment: ";
     if (alignment != null) {
       for (int i = 0; i < alignment.length; i++) {
@@ -0,0 +1,217 @@
+package data;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A read-only compressed sparse row (CSR) representation of a graph, used by the alignment
+ * procedures. Vertices are addressed by slot, which is the graph index for every vertex except
+ * the tail, which is stored in the last slot. The arrays are held as buffers so that a graph can
+ * be queried directly from a memory mapped index file.
+ */
+public class CompactGraph {
+  private final int size;
+  private final ByteBuffer values;
+  private final IntBuffer outOffsets;
+  private final IntBuffer outEdges;
+  private final IntBuffer inOffsets;
+  private final IntBuffer inEdges;
+
+  private final ThreadLocal<DistanceScratch> distanceScratch = new ThreadLocal<DistanceScratch>();
+
+  public CompactGraph(ByteBuffer values, IntBuffer outOffsets, IntBuffer outEdges,
+      IntBuffer inOffsets, IntBuffer inEdges) {
+    this.size = values.limit();
+    this.values = values;
+    this.outOffsets = outOffsets;
+    this.outEdges = outEdges;
+    this.inOffsets = inOffsets;
+    this.inEdges = inEdges;
+  }
+
+  /**
+   * Freezes the first currentIndex nodes and the tail of a node array into CSR form
+   */
+  public static CompactGraph fromNodes(Node[] nodes, int currentIndex) {
+    int size = currentIndex + 1;
+    byte[] values = new byte[size];
+    int[] outOffsets = new int[size + 1];
+    int[] inOffsets = new int[size + 1];
+    for (int slot = 0; slot < size; slot++) {
+      Node n = getNode(nodes, currentIndex, slot);
+      values[slot] = (byte) n.getValue();
+      outOffsets[slot + 1] = outOffsets[slot] + n.getOutgoing().size();
+      inOffsets[slot + 1] = inOffsets[slot] + n.getIncoming().size();
+    }
+
+    int[] outEdges = new int[outOffsets[size]];
+    int[] inEdges = new int[inOffsets[size]];
+    for (int slot = 0; slot < size; slot++) {
+      Node n = getNode(nodes, currentIndex, slot);
+      fill(outEdges, outOffsets[slot], n.getOutgoing(), size);
+      fill(inEdges, inOffsets[slot], n.getIncoming(), size);
+    }
+
+    return new CompactGraph(ByteBuffer.wrap(values), IntBuffer.wrap(outOffsets),
+        IntBuffer.wrap(outEdges), IntBuffer.wrap(inOffsets), IntBuffer.wrap(inEdges));
+  }
+
+  private static Node getNode(Node[] nodes, int currentIndex, int slot) {
+    return slot == currentIndex ? nodes[nodes.length - 1] : nodes[slot];
+  }
+
+  private static void fill(int[] edges, int offset, Set<Integer> neighbours, int size) {
+    for (Integer neighbour : neighbours) {
+      edges[offset++] = neighbour == Graph.TAIL_INDEX ? size - 1 : neighbour;
+    }
+  }
+
+  /**
+   * The number of slots, including head and tail
+   */
+  public int getSize() {
+    return size;
+  }
+
+  public int getHeadSlot() {
+    return Graph.HEAD_INDEX;
+  }
+
+  public int getTailSlot() {
+    return size - 1;
+  }
+
+  public int toSlot(int index) {
+    return index == Graph.TAIL_INDEX ? size - 1 : index;
+  }
+
+  public int toIndex(int slot) {
+    return slot == size - 1 ? Graph.TAIL_INDEX : slot;
+  }
+
+  public char getValue(int slot) {
+    return (char) values.get(slot);
+  }
+
+  public int getOutgoingStart(int slot) {
+    return outOffsets.get(slot);
+  }
+
+  public int getOutgoingEnd(int slot) {
+    return outOffsets.get(slot + 1);
+  }
+
+  public int getOutgoing(int edge) {
+    return outEdges.get(edge);
+  }
+
+  public int getIncomingStart(int slot) {
+    return inOffsets.get(slot);
+  }
+
+  public int getIncomingEnd(int slot) {
+    return inOffsets.get(slot + 1);
+  }
+
+  public int getIncoming(int edge) {
+    return inEdges.get(edge);
+  }
+
+  public int getNumberOfEdges() {
+    return outEdges.limit();
+  }
+
+  public ByteBuffer getValues() {
+    return values.duplicate();
+  }
+
+  public IntBuffer getOutgoingOffsets() {
+    return outOffsets.duplicate();
+  }
+
+  public IntBuffer getOutgoingEdges() {
+    return outEdges.duplicate();
+  }
+
+  public IntBuffer getIncomingOffsets() {
+    return inOffsets.duplicate();
+  }
+
+  public IntBuffer getIncomingEdges() {
+    return inEdges.duplicate();
+  }
+
+  /**
+   * Breadth first search from source to dest over at most maxDistance - 1 edges. Returns
+   * maxDistance * 2 when dest is the source itself or cannot be reached.
+   */
+  public int getDistance(int source, int dest, int maxDistance) {
+    if (source == dest) {
+      return maxDistance * 2;
+    }
+    DistanceScratch scratch = distanceScratch.get();
+    if (scratch == null) {
+      scratch = new DistanceScratch(size);
+      distanceScratch.set(scratch);
+    }
+    int stamp = scratch.nextStamp();
+    int[] visited = scratch.visited;
+    int head = 0;
+    int tail = 0;
+    scratch.push(tail++, source, 0);
+    visited[source] = stamp;
+    while (head < tail) {
+      int node = scratch.queue[head];
+      int distance = scratch.distances[head++];
+      if (node == dest) {
+        return distance;
+      }
+      if (distance + 1 >= maxDistance) {
+        continue;
+      }
+      for (int e = outOffsets.get(node); e < outOffsets.get(node + 1); e++) {
+        int neighbour = outEdges.get(e);
+        if (visited[neighbour] != stamp) {
+          visited[neighbour] = stamp;
+          scratch.push(tail++, neighbour, distance + 1);
+        }
+      }
+    }
+    return maxDistance * 2;
+  }
+
+  /**
+   * Per thread buffers for getDistance, reset by bumping the stamp instead of clearing
+   */
+  private static class DistanceScratch {
+    private final int[] visited;
+    private int stamp;
+    private int[] queue;
+    private int[] distances;
+
+    private DistanceScratch(int size) {
+      visited = new int[size];
+      queue = new int[16];
+      distances = new int[16];
+    }
+
+    private int nextStamp() {
+      if (++stamp == Integer.MAX_VALUE) {
+        Arrays.fill(visited, 0);
+        stamp = 1;
+      }
+      return stamp;
+    }
+
+    private void push(int position, int node, int distance) {
+      if (position == queue.length) {
+        queue = Arrays.copyOf(queue, queue.length * 2);
+        distances = Arrays.copyOf(distances, distances.length * 2);
+      }
+      queue[position] = node;
+      distances[position] = distance;
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package data;
+
+/**
+ * Receives the contexts of the vertices of a graph as they are completed
+ */
+public interface ContextSink {
+  /**
+   * A context of vertex, packed as described by KmerSet at offset of kmers. The array is reused
+   * once the call returns.
+   */
+  void addContext(int vertex, long[] kmers, int offset, int length);
+}
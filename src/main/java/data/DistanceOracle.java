@@ -0,0 +1,188 @@
+package data;
+
+import java.util.Arrays;
+
+import utils.IntIntMap;
+
+/**
+ * Answers bounded distance queries between slots of a compact graph, with the same results as
+ * CompactGraph.getDistance for one fixed maxDistance. For every source it stores the slots
+ * reachable over at most maxDistance - 1 edges, sorted, with their distances, so a query is a
+ * binary search.
+ *
+ * An eager oracle computes every source up front and is shared by all alignments against the
+ * graph. A lazy oracle computes the sources it is asked about and is meant to live for a single
+ * alignment of a graph too large to precompute.
+ *
+ * Distances are stored as shorts, so maxDistance is at most MAX_DISTANCE.
+ */
+public class DistanceOracle {
+  public static final int MAX_DISTANCE = Short.MAX_VALUE;
+
+  private final CompactGraph graph;
+  private final int maxDistance;
+
+  private int[] offsets;
+  private int[] targets;
+  private short[] distances;
+  private int entries;
+
+  private final IntIntMap lazyRows;
+
+  private int[] visited;
+  private int stamp;
+  private final IntIntMap lazyVisited;
+  private int[] queue;
+  private long[] row;
+
+  private DistanceOracle(CompactGraph graph, int maxDistance, boolean lazy) {
+    if (maxDistance > MAX_DISTANCE) {
+      throw new IllegalArgumentException("Distances above " + MAX_DISTANCE + " not supported");
+    }
+    this.graph = graph;
+    this.maxDistance = maxDistance;
+    this.lazyRows = lazy ? new IntIntMap() : null;
+    // A lazy oracle only visits a few slots, so it avoids an array the size of the graph
+    this.lazyVisited = lazy ? new IntIntMap() : null;
+    int rows = lazy ? 16 : graph.getSize();
+    offsets = new int[rows + 1];
+    targets = new int[Math.max(16, rows)];
+    distances = new short[targets.length];
+    if (!lazy) {
+      visited = new int[graph.getSize()];
+    }
+    queue = new int[16];
+    row = new long[16];
+  }
+
+  /**
+   * Computes the distances from every slot. Returns null if more than maxEntries pairs are
+   * within reach of each other.
+   */
+  public static DistanceOracle eager(CompactGraph graph, int maxDistance, long maxEntries) {
+    DistanceOracle oracle = new DistanceOracle(graph, maxDistance, false);
+    for (int source = 0; source < graph.getSize(); source++) {
+      oracle.search(source);
+      oracle.offsets[source + 1] = oracle.entries;
+      if (oracle.entries > maxEntries) {
+        return null;
+      }
+    }
+    oracle.targets = Arrays.copyOf(oracle.targets, oracle.entries);
+    oracle.distances = Arrays.copyOf(oracle.distances, oracle.entries);
+    oracle.visited = null;
+    oracle.queue = null;
+    oracle.row = null;
+    return oracle;
+  }
+
+  public static DistanceOracle lazy(CompactGraph graph, int maxDistance) {
+    return new DistanceOracle(graph, maxDistance, true);
+  }
+
+  public CompactGraph getGraph() {
+    return graph;
+  }
+
+  public int getMaxDistance() {
+    return maxDistance;
+  }
+
+  /**
+   * The number of stored source and target pairs
+   */
+  public int getEntries() {
+    return entries;
+  }
+
+  /**
+   * The distance from source to dest if it is less than maxDistance, maxDistance * 2 otherwise
+   */
+  public int getDistance(int source, int dest) {
+    int r = source;
+    if (lazyRows != null) {
+      r = lazyRows.get(source, -1);
+      if (r == -1) {
+        r = addRow(source);
+      }
+    }
+    int found = Arrays.binarySearch(targets, offsets[r], offsets[r + 1], dest);
+    return found >= 0 ? distances[found] : maxDistance * 2;
+  }
+
+  private int addRow(int source) {
+    int r = lazyRows.size();
+    if (r + 1 == offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    search(source);
+    offsets[r + 1] = entries;
+    lazyRows.put(source, r);
+    return r;
+  }
+
+  /**
+   * Breadth first search from source, appending the reached slots sorted by slot
+   */
+  private void search(int source) {
+    if (lazyVisited != null) {
+      lazyVisited.clear();
+    } else if (++stamp == Integer.MAX_VALUE) {
+      Arrays.fill(visited, 0);
+      stamp = 1;
+    }
+    visit(source);
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = source;
+    int found = 0;
+    for (int distance = 1; distance < maxDistance && head < tail; distance++) {
+      int levelEnd = tail;
+      while (head < levelEnd) {
+        int node = queue[head++];
+        for (int e = graph.getOutgoingStart(node); e < graph.getOutgoingEnd(node); e++) {
+          int neighbour = graph.getOutgoing(e);
+          if (visit(neighbour)) {
+            if (tail == queue.length) {
+              queue = Arrays.copyOf(queue, tail * 2);
+            }
+            queue[tail++] = neighbour;
+            if (found == row.length) {
+              row = Arrays.copyOf(row, found * 2);
+            }
+            row[found++] = ((long) neighbour << 32) | distance;
+          }
+        }
+      }
+    }
+
+    Arrays.sort(row, 0, found);
+    if (entries + found > targets.length) {
+      int capacity = Math.max(entries + found, targets.length * 2);
+      targets = Arrays.copyOf(targets, capacity);
+      distances = Arrays.copyOf(distances, capacity);
+    }
+    for (int i = 0; i < found; i++) {
+      targets[entries] = (int) (row[i] >>> 32);
+      distances[entries++] = (short) row[i];
+    }
+  }
+
+  /**
+   * Marks slot as visited by the current search. Returns false if it already was.
+   */
+  private boolean visit(int slot) {
+    if (lazyVisited != null) {
+      if (lazyVisited.containsKey(slot)) {
+        return false;
+      }
+      lazyVisited.put(slot, 0);
+      return true;
+    }
+    if (visited[slot] == stamp) {
+      return false;
+    }
+    visited[slot] = stamp;
+    return true;
+  }
+}
@@ -1,17 +1,22 @@
 package data;
 
-import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import configuration.Configuration;
+import metrics.FlightEvent;
+import utils.BaseUtils;
 import utils.GraphUtils;
+import utils.IntList;
+import utils.KmerSet;
 import utils.LogUtils;
-import utils.Pair;
 
-public class Graph implements Serializable {
+public class Graph {
 
   public static final char HEAD_VALUE = 's';
   public static final char TAIL_VALUE = 'e';
@@ -24,7 +29,10 @@ public class Graph implements Serializable {
   private Configuration configuration;
   private int totalSize;
   private int currentIndex;
-  private Node[] nodes;
+  private volatile Node[] nodes;
+  private volatile CompactGraph compactGraph;
+  private volatile TopologicalOrder topologicalOrder;
+  private final AtomicLong truncatedContexts = new AtomicLong();
 
   public Graph(Configuration configuration, int size) {
     this.configuration = configuration;
@@ -38,6 +46,17 @@ public class Graph implements Serializable {
     nodes[size - 1].setIndex(TAIL_INDEX);
   }
 
+  /**
+   * Creates a graph backed only by a compact representation, e.g. one mapped from an index file.
+   * Nodes are materialized the first time they are asked for, typically before a merge.
+   */
+  public Graph(Configuration configuration, CompactGraph compactGraph) {
+    this.configuration = configuration;
+    this.compactGraph = compactGraph;
+    this.currentIndex = compactGraph.getSize() - 1;
+    this.totalSize = GraphUtils.getGraphSize(compactGraph.getSize());
+  }
+
   public void setConfiguration(Configuration configuration) {
     this.configuration = configuration;
   }
@@ -47,12 +66,14 @@ public class Graph implements Serializable {
   }
 
   public int addNode(Node n) {
+    materializeNodes();
     if (currentIndex == totalSize - 1) {
       nodes = GraphUtils.doubleNodeArray(nodes);
       totalSize = (totalSize * 2) - 1;
     }
     nodes[currentIndex] = n;
     n.setIndex(currentIndex++);
+    invalidate();
 
     return n.getIndex();
   }
@@ -65,18 +86,12 @@ public class Graph implements Serializable {
     }
     Node n = new Node(c);
     addNode(n);
-    Set<Integer> incoming = new HashSet<Integer>();
-    incoming.addAll(old.getIncoming());
-    for (Integer neighbour : incoming) {
-      getNode(neighbour).addOutgoing(n.getIndex());
+    for (Integer neighbour : new HashSet<Integer>(old.getIncoming())) {
+      addEdge(neighbour, n.getIndex());
     }
-    n.setIncoming(incoming);
-    Set<Integer> outgoing = new HashSet<Integer>();
-    outgoing.addAll(old.getOutgoing());
-    for (Integer neighbour : outgoing) {
-      getNode(neighbour).addIncoming(n.getIndex());
+    for (Integer neighbour : new HashSet<Integer>(old.getOutgoing())) {
+      addEdge(n.getIndex(), neighbour);
     }
-    n.setOutgoing(outgoing);
     return n.getIndex();
   }
 
@@ -87,9 +102,8 @@ public class Graph implements Serializable {
     }
     Node end = findEndOfPath(index, ref);
     if (end != null) {
-      curr.getOutgoing().addAll(end.getOutgoing());
       for (Integer neighbour : end.getOutgoing()) {
-        getNode(neighbour).addIncoming(curr.getIndex());
+        addEdge(curr.getIndex(), neighbour);
       }
     }
   }
@@ -102,16 +116,24 @@ public class Graph implements Serializable {
     for (int i = 0; i < variant.length(); i++) {
       Node curr = new Node(variant.charAt(i));
       addNode(curr);
-      curr.addIncoming(prev.getIndex());
-      prev.addOutgoing(curr.getIndex());
+      addEdge(prev.getIndex(), curr.getIndex());
       prev = curr;
     }
-    prev.getOutgoing().addAll(outgoing);
     for (Integer neighbour : outgoing) {
-      getNode(neighbour).addIncoming(prev.getIndex());
+      addEdge(prev.getIndex(), neighbour);
     }
   }
 
+  /**
+   * Adds an edge between two existing nodes. All structural changes go through here or addNode so
+   * that the compact representation is invalidated.
+   */
+  public void addEdge(int from, int to) {
+    getNode(from).addOutgoing(to);
+    getNode(to).addIncoming(from);
+    invalidate();
+  }
+
   public Node findEndOfPath(int start, String path) {
     Node n = getNode(start);
     if (n == null) {
@@ -144,11 +166,17 @@ public class Graph implements Serializable {
     return getNode(node).getOutgoing().contains(neighbour);
   }
 
-  public void mergeSequence(String sequence, int[] alignment) {
+  /**
+   * Merges sequence into the graph along alignment, adding a vertex for every character that is
+   * unaligned or aligned to a different character. Returns the edges that were added, as pairs
+   * of from and to indexes.
+   */
+  public IntList mergeSequence(String sequence, int[] alignment) {
     char[] characters = sequence.toCharArray();
+    IntList edges = new IntList();
     if (characters.length != alignment.length) {
       LogUtils.printError("Invalid alignment");
-      return;
+      return edges;
     }
 
     Node prev = getHead();
@@ -162,12 +190,19 @@ public class Graph implements Serializable {
         n = getNode(alignment[i]);
         index = n.getIndex();
       }
-      prev.addOutgoing(index);
-      n.addIncoming(prev.getIndex());
+      addNewEdge(prev.getIndex(), index, edges);
       prev = n;
     }
-    prev.addOutgoing(TAIL_INDEX);
-    getTail().addIncoming(prev.getIndex());
+    addNewEdge(prev.getIndex(), TAIL_INDEX, edges);
+    return edges;
+  }
+
+  private void addNewEdge(int from, int to, IntList edges) {
+    if (!getNode(from).getOutgoing().contains(to)) {
+      addEdge(from, to);
+      edges.add(from);
+      edges.add(to);
+    }
   }
 
   private Set<Node> getPrev(int[] alignment) {
@@ -185,6 +220,7 @@ public class Graph implements Serializable {
   }
 
   public Node getNode(int index) {
+    materializeNodes();
     if (index == -1) {
       return nodes[nodes.length - 1];
     } else {
@@ -193,6 +229,7 @@ public class Graph implements Serializable {
   }
 
   public Node[] getNodes() {
+    materializeNodes();
     return nodes;
   }
 
@@ -204,89 +241,288 @@ public class Graph implements Serializable {
     return getNode(-1);
   }
 
-  /** The procedure generating contexts for the index */
-  public Object[] getContexts(String direction) {
-    List<Node> queue = new ArrayList<Node>();
-    Set<Integer> active = new HashSet<Integer>();
-    Object[] suffixes = new Object[nodes.length];
-    boolean[] finished = new boolean[nodes.length];
-    if (LEFT_CONTEXT.equals(direction)) {
-      for (Integer i : getHead().getOutgoing()) {
-        queue.add(getNode(i));
-        addSuffix(suffixes, i, "");
-        active.add(i);
-        finished[0] = true;
+  /**
+   * The CSR view of the graph used by the read-only procedures. Built on first use and dropped
+   * whenever the graph is modified.
+   */
+  public CompactGraph getCompactGraph() {
+    CompactGraph compact = compactGraph;
+    if (compact == null) {
+      synchronized (this) {
+        compact = compactGraph;
+        if (compact == null) {
+          compact = CompactGraph.fromNodes(nodes, currentIndex);
+          compactGraph = compact;
+        }
       }
-    } else {
-      for (Integer i : getTail().getIncoming()) {
-        queue.add(getNode(i));
-        addSuffix(suffixes, i, "");
-        active.add(i);
-        finished[finished.length - 1] = true;
+    }
+    return compact;
+  }
+
+  /**
+   * A topological order of the compact graph's slots. Cached, and dropped together with the
+   * compact graph whenever the graph is modified.
+   */
+  public TopologicalOrder getTopologicalOrder() {
+    TopologicalOrder order = topologicalOrder;
+    if (order == null) {
+      synchronized (this) {
+        order = topologicalOrder;
+        if (order == null) {
+          order = TopologicalOrder.of(getCompactGraph());
+          topologicalOrder = order;
+        }
       }
     }
+    return order;
+  }
 
-    while (!queue.isEmpty()) {
-      Node curr = queue.remove(0);
-      if (curr == getHead() || curr == getTail()) {
-        continue;
+  private void invalidate() {
+    compactGraph = null;
+    topologicalOrder = null;
+  }
+
+  private void materializeNodes() {
+    if (nodes != null) {
+      return;
+    }
+    synchronized (this) {
+      if (nodes != null) {
+        return;
       }
-      int index = curr.getIndex();
-      if (index == -1) {
-        index = nodes.length - 1;
+      CompactGraph compact = compactGraph;
+      Node[] materialized = new Node[totalSize];
+      for (int slot = 0; slot < compact.getSize(); slot++) {
+        Node n = new Node(compact.getValue(slot));
+        n.setIndex(compact.toIndex(slot));
+        for (int e = compact.getOutgoingStart(slot); e < compact.getOutgoingEnd(slot); e++) {
+          n.addOutgoing(compact.toIndex(compact.getOutgoing(e)));
+        }
+        for (int e = compact.getIncomingStart(slot); e < compact.getIncomingEnd(slot); e++) {
+          n.addIncoming(compact.toIndex(compact.getIncoming(e)));
+        }
+        materialized[slot == compact.getTailSlot() ? totalSize - 1 : slot] = n;
       }
-      active.remove(index);
-      Set<Integer> neighbours;
-      Set<Integer> prev;
-      if (LEFT_CONTEXT.equals(direction)) {
-        neighbours = curr.getOutgoing();
-        prev = curr.getIncoming();
-      } else {
-        neighbours = curr.getIncoming();
-        prev = curr.getOutgoing();
+      nodes = materialized;
+    }
+  }
+
+  /**
+   * The contexts of every vertex as sets of strings, indexed by slot. See streamContexts.
+   */
+  public Object[] getContexts(String direction) {
+    return getContexts(direction, null);
+  }
+
+  /**
+   * The contexts of the vertices streamContexts reports for the given edges as sets of strings,
+   * indexed by slot. The entries of all other vertices are null.
+   */
+  public Object[] getContexts(String direction, IntList edges) {
+    final Object[] contexts = new Object[getCompactGraph().getSize()];
+    streamContexts(direction, edges, new ContextSink() {
+      @Override
+      public void addContext(int vertex, long[] kmers, int offset, int length) {
+        if (contexts[vertex] == null) {
+          contexts[vertex] = new HashSet<String>();
+        }
+        ((Set<String>) contexts[vertex]).add(KmerSet.toString(kmers, offset, length));
       }
-      for (Integer incoming : prev) {
-        if (incoming == TAIL_INDEX) {
-          incoming = finished.length - 1;
+    });
+    return contexts;
+  }
+
+  /**
+   * The procedure generating contexts for the index. Sweeps the topological order once, forwards
+   * for left contexts and backwards for right contexts, so that the contexts of a vertex are
+   * complete before they are extended to its neighbours. The contexts of a vertex are packed
+   * k-mers in a set of their own, passed to sink once complete and then recycled, so only the
+   * sets of the vertices whose neighbours have not all been swept are held. A graph with cycles
+   * is swept until no more contexts are found, and passed to the sink at the end.
+   *
+   * A vertex keeps at most the maximal number of contexts of the configuration, contexts found
+   * after that are dropped and counted by getTruncatedContexts.
+   *
+   * With edges, pairs of from and to indexes just added to the graph, only the vertices whose
+   * contexts may have changed are passed to sink: those less than the context length after an
+   * edge in the direction the contexts are built. Only the region within the context length of
+   * these is swept, and the vertices on its border are given the empty context, which is all of
+   * their contexts that reaches the changed vertices.
+   */
+  public void streamContexts(String direction, IntList edges, ContextSink sink) {
+    Object event = FlightEvent.GET_CONTEXTS.begin();
+    final int[] count = new int[1];
+    if (event != null) {
+      final ContextSink target = sink;
+      sink = new ContextSink() {
+        @Override
+        public void addContext(int vertex, long[] kmers, int offset, int length) {
+          count[0]++;
+          target.addContext(vertex, kmers, offset, length);
         }
-        if (!finished[incoming]) {
-          queue.add(curr);
-          continue;
+      };
+    }
+    CompactGraph compact = getCompactGraph();
+    TopologicalOrder order = getTopologicalOrder();
+    boolean left = LEFT_CONTEXT.equals(direction);
+    int length = configuration.getContextLength();
+    int headSlot = compact.getHeadSlot();
+    int tailSlot = compact.getTailSlot();
+    KmerSet[] suffixes = new KmerSet[compact.getSize()];
+    ArrayDeque<KmerSet> pool = new ArrayDeque<KmerSet>();
+    long[] empty = new long[KmerSet.getWords(length)];
+    long[] extended = new long[empty.length];
+    int[] changedSteps = null;
+    int[] regionSteps = null;
+    if (edges != null) {
+      IntList changed = new IntList();
+      for (int e = left ? 1 : 0; e < edges.size(); e += 2) {
+        changed.add(compact.toSlot(edges.get(e)));
+      }
+      changedSteps = getSteps(compact, changed, left, length - 1);
+      changed.clear();
+      for (int slot = 0; slot < changedSteps.length; slot++) {
+        if (changedSteps[slot] != -1) {
+          changed.add(slot);
         }
       }
+      regionSteps = getSteps(compact, changed, !left, length);
+      for (int slot = 0; slot < regionSteps.length; slot++) {
+        if (regionSteps[slot] == length) {
+          addSuffix(suffixes, pool, slot, empty, 0, 0, length);
+        }
+      }
+    }
+    int first = left ? headSlot : tailSlot;
+    int start = left ? compact.getOutgoingStart(first) : compact.getIncomingStart(first);
+    int end = left ? compact.getOutgoingEnd(first) : compact.getIncomingEnd(first);
+    for (int e = start; e < end; e++) {
+      int i = left ? compact.getOutgoing(e) : compact.getIncoming(e);
+      if (regionSteps == null || regionSteps[i] != -1) {
+        addSuffix(suffixes, pool, i, empty, 0, 0, length);
+      }
+    }
 
-      for (Integer i : neighbours) {
-        for (String suffix : (Set<String>) suffixes[index]) {
-          addSuffix(suffixes, i, curr.getValue() + suffix);
+    boolean acyclic = order.isAcyclic();
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int position = 0; position < order.size(); position++) {
+        int curr = order.get(left ? position : order.size() - 1 - position);
+        KmerSet contexts = suffixes[curr];
+        if (curr == headSlot || curr == tailSlot || contexts == null) {
+          continue;
         }
-        if (!active.contains(i)) {
-          active.add(i);
-          queue.add(getNode(i));
+        int code = BaseUtils.encode(compact.getValue(curr));
+        long[] kmers = contexts.getKmers();
+        int words = contexts.getWords();
+        int nextStart = left ? compact.getOutgoingStart(curr) : compact.getIncomingStart(curr);
+        int nextEnd = left ? compact.getOutgoingEnd(curr) : compact.getIncomingEnd(curr);
+        for (int e = nextStart; e < nextEnd; e++) {
+          int i = left ? compact.getOutgoing(e) : compact.getIncoming(e);
+          if (i == headSlot || i == tailSlot
+              || (regionSteps != null && regionSteps[i] == -1)) {
+            continue;
+          }
+          for (int c = 0; c < contexts.size(); c++) {
+            int extendedLength = KmerSet.prepend(code, kmers, c * words,
+                contexts.getLength(c), extended, length);
+            changed |= addSuffix(suffixes, pool, i, extended, 0, extendedLength, length);
+          }
+        }
+        if (acyclic) {
+          emit(compact, sink, curr, contexts, changedSteps);
+          contexts.clear();
+          pool.push(contexts);
+          suffixes[curr] = null;
         }
       }
-      if (curr.getIndex() == TAIL_INDEX) {
-        finished[finished.length - 1] = true;
-      } else {
-        finished[curr.getIndex()] = true;
-      }
+      changed &= !acyclic;
     }
 
-    return suffixes;
+    for (int slot = 0; slot < suffixes.length; slot++) {
+      if (suffixes[slot] != null && slot != headSlot && slot != tailSlot) {
+        emit(compact, sink, slot, suffixes[slot], changedSteps);
+      }
+    }
+    if (event != null) {
+      FlightEvent.GET_CONTEXTS.commit(event, direction, getCurrentSize(), count[0]);
+    }
   }
 
-  private void addSuffix(Object[] suffixes, int index, String suffix) {
-    if (index == TAIL_INDEX || index == HEAD_INDEX) {
+  private static void emit(CompactGraph compact, ContextSink sink, int slot, KmerSet contexts,
+      int[] changedSteps) {
+    if (changedSteps != null && changedSteps[slot] == -1) {
       return;
     }
-    if (suffixes[index] == null) {
-      suffixes[index] = new HashSet<String>();
+    int vertex = compact.toIndex(slot);
+    for (int c = 0; c < contexts.size(); c++) {
+      sink.addContext(vertex, contexts.getKmers(), c * contexts.getWords(),
+          contexts.getLength(c));
     }
-    suffix = suffix.substring(0, Math.min(suffix.length(), configuration.getContextLength()));
-    ((Set<String>) suffixes[index]).add(suffix);
+  }
+
+  /**
+   * The number of steps from the closest of sources to every slot, following outgoing edges if
+   * forward and incoming ones otherwise, or -1 if it is more than maxSteps
+   */
+  private static int[] getSteps(CompactGraph compact, IntList sources, boolean forward,
+      int maxSteps) {
+    int[] steps = new int[compact.getSize()];
+    Arrays.fill(steps, -1);
+    IntList queue = new IntList();
+    for (int i = 0; i < sources.size(); i++) {
+      if (steps[sources.get(i)] == -1) {
+        steps[sources.get(i)] = 0;
+        queue.add(sources.get(i));
+      }
+    }
+    for (int head = 0; head < queue.size(); head++) {
+      int curr = queue.get(head);
+      if (steps[curr] == maxSteps) {
+        continue;
+      }
+      int start = forward ? compact.getOutgoingStart(curr) : compact.getIncomingStart(curr);
+      int end = forward ? compact.getOutgoingEnd(curr) : compact.getIncomingEnd(curr);
+      for (int e = start; e < end; e++) {
+        int next = forward ? compact.getOutgoing(e) : compact.getIncoming(e);
+        if (steps[next] == -1) {
+          steps[next] = steps[curr] + 1;
+          queue.add(next);
+        }
+      }
+    }
+    return steps;
+  }
+
+  /**
+   * Returns true if the context was not already a context of the vertex and was kept
+   */
+  private boolean addSuffix(KmerSet[] suffixes, ArrayDeque<KmerSet> pool, int slot,
+      long[] kmer, int offset, int kmerLength, int length) {
+    KmerSet contexts = suffixes[slot];
+    if (contexts == null) {
+      contexts = pool.isEmpty() ? new KmerSet(length) : pool.pop();
+      suffixes[slot] = contexts;
+    }
+    if (contexts.size() >= configuration.getMaxContexts()) {
+      if (!contexts.contains(kmer, offset, kmerLength)) {
+        truncatedContexts.incrementAndGet();
+      }
+      return false;
+    }
+    return contexts.add(kmer, offset, kmerLength);
+  }
+
+  /**
+   * The number of contexts dropped since a vertex already had the maximal number of contexts
+   */
+  public long getTruncatedContexts() {
+    return truncatedContexts.get();
   }
 
   public int[] getDistances(int source) {
-    int[] distances = new int[nodes.length];
+    int[] distances = new int[getNodes().length];
     List<Integer> queue = new ArrayList<Integer>();
     queue.add(source);
     while (!queue.isEmpty()) {
@@ -304,36 +540,12 @@ public class Graph implements Serializable {
   }
 
   public int getDistance(int source, int dest, int maxDistance) {
-    if (source == dest) {
-      return maxDistance * 2;
-    }
-    Set<Integer> visited = new HashSet<Integer>();
-    List<Pair> queue = new ArrayList<Pair>();
-    queue.add(new Pair(source, 0));
-    while (!queue.isEmpty()) {
-      Pair p = queue.remove(0);
-      int node = p.getKey();
-      int distance = p.getValue();
-      visited.add(node);
-      if (node == dest) {
-        return distance;
-      } else {
-        for (Integer i : getNode(node).getOutgoing()) {
-          if (!visited.contains(i) && distance + 1 < maxDistance) {
-            queue.add(new Pair(i, distance + 1));
-          }
-        }
-      }
-    }
-    return maxDistance * 2;
+    CompactGraph compact = getCompactGraph();
+    return compact.getDistance(compact.toSlot(source), compact.toSlot(dest), maxDistance);
   }
 
   public double getApproxBranchingFactor() {
-    int branches = 0;
-    for (int i = 0; i < currentIndex; i++) {
-      branches += nodes[i].getOutgoing().size();
-    }
-    return (double) branches / currentIndex;
+    return (double) getCompactGraph().getNumberOfEdges() / currentIndex;
   }
 
   public int getTotalSize() {
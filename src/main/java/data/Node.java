@@ -1,11 +1,10 @@
 package data;
 
-import java.io.Serializable;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-public class Node implements Serializable {
+public class Node {
   private final char value;
   private int index;
   private Set<Integer> incoming;
@@ -0,0 +1,78 @@
+package data;
+
+/**
+ * A topological order of the slots of a compact graph and the rank of every slot in it. Merging
+ * sequences can in principle introduce cycles; the slots on or behind a cycle are then appended
+ * in slot order and isAcyclic() is false.
+ */
+public class TopologicalOrder {
+  private final int[] order;
+  private final int[] rank;
+  private final boolean acyclic;
+
+  private TopologicalOrder(int[] order, int[] rank, boolean acyclic) {
+    this.order = order;
+    this.rank = rank;
+    this.acyclic = acyclic;
+  }
+
+  /**
+   * Kahn's algorithm, processing slots whose predecessors are done in first in, first out order
+   */
+  public static TopologicalOrder of(CompactGraph graph) {
+    int size = graph.getSize();
+    int[] order = new int[size];
+    int[] rank = new int[size];
+    int[] remaining = new int[size];
+    int tail = 0;
+    for (int slot = 0; slot < size; slot++) {
+      remaining[slot] = graph.getIncomingEnd(slot) - graph.getIncomingStart(slot);
+      if (remaining[slot] == 0) {
+        order[tail++] = slot;
+      }
+    }
+    for (int head = 0; head < tail; head++) {
+      int slot = order[head];
+      for (int e = graph.getOutgoingStart(slot); e < graph.getOutgoingEnd(slot); e++) {
+        int next = graph.getOutgoing(e);
+        if (--remaining[next] == 0) {
+          order[tail++] = next;
+        }
+      }
+    }
+    boolean acyclic = tail == size;
+    if (!acyclic) {
+      for (int slot = 0; slot < size; slot++) {
+        if (remaining[slot] > 0) {
+          order[tail++] = slot;
+        }
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      rank[order[i]] = i;
+    }
+    return new TopologicalOrder(order, rank, acyclic);
+  }
+
+  public int size() {
+    return order.length;
+  }
+
+  /**
+   * The slot at position i of the order
+   */
+  public int get(int i) {
+    return order[i];
+  }
+
+  /**
+   * The position of slot in the order
+   */
+  public int getRank(int slot) {
+    return rank[slot];
+  }
+
+  public boolean isAcyclic() {
+    return acyclic;
+  }
+}
@@ -0,0 +1,414 @@
+package index;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import data.Alignment;
+import metrics.Histogram;
+import metrics.Metrics;
+import utils.JsonUtils;
+import utils.LogUtils;
+
+/**
+ * Serves alignments against indexes loaded once at startup over HTTP/JSON. The indexes are only
+ * read while serving, so every request shares them. Each request is handled on its own thread,
+ * which only parses and waits, while the reads are aligned on the shared worker pool.
+ *
+ * <pre>
+ * POST /align   {"index": name, "name": name, "sequence": read}
+ *               {"index": name, "reads": [{"name": name, "sequence": read}, read, ...]}
+ * GET  /indexes the names of the loaded indexes
+ * GET  /stats   request counts, requests and reads in flight and latency percentiles in ms
+ * GET  /metrics the alignment phase timings and counters of Metrics
+ * </pre>
+ *
+ * The index may be left out when only one is loaded.
+ */
+public class AlignmentServer {
+  public static final int DEFAULT_PORT = 8080;
+  private static final int MAX_REQUEST_BYTES = 64 << 20;
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final Map<String, BatchAligner> aligners = new LinkedHashMap<String, BatchAligner>();
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  private final AtomicInteger inFlightRequests = new AtomicInteger();
+  private final AtomicInteger inFlightReads = new AtomicInteger();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong reads = new AtomicLong();
+  private final Histogram requestLatency = new Histogram();
+  private final Histogram readLatency = new Histogram();
+
+  /**
+   * @param indexes The indexes to serve by name, each with its configuration set
+   * @param type The alignment algorithm, as for BatchAligner
+   * @param port The port to listen on, 0 for any free port
+   */
+  public AlignmentServer(Map<String, FuzzySearchIndex> indexes, String type, String host,
+      int port) throws IOException {
+    for (Map.Entry<String, FuzzySearchIndex> entry : indexes.entrySet()) {
+      aligners.put(entry.getKey(), new BatchAligner(entry.getValue(), type));
+    }
+    server = HttpServer.create(new InetSocketAddress(host, port), 0);
+    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger threads = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "alignment-server-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    server.setExecutor(executor);
+    server.createContext("/align", new AlignHandler());
+    server.createContext("/indexes", new IndexesHandler());
+    server.createContext("/stats", new StatsHandler());
+    server.createContext("/metrics", new MetricsHandler());
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stops accepting requests and waits at most delay seconds for the ones in flight
+   */
+  public void stop(int delay) {
+    server.stop(delay);
+    executor.shutdown();
+    try {
+      executor.awaitTermination(delay, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public int getInFlightRequests() {
+    return inFlightRequests.get();
+  }
+
+  public int getInFlightReads() {
+    return inFlightReads.get();
+  }
+
+  public Histogram getRequestLatency() {
+    return requestLatency;
+  }
+
+  public Histogram getReadLatency() {
+    return readLatency;
+  }
+
+  /**
+   * The server statistics as a JSON object
+   */
+  public String getStats() {
+    StringBuilder json = new StringBuilder("{");
+    json.append("\"inFlightRequests\":").append(inFlightRequests.get());
+    json.append(",\"inFlightReads\":").append(inFlightReads.get());
+    json.append(",\"requests\":").append(requestLatency.getCount());
+    json.append(",\"reads\":").append(reads.get());
+    json.append(",\"errors\":").append(errors.get());
+    json.append(",\"requestLatency\":");
+    appendLatency(json, requestLatency);
+    json.append(",\"readLatency\":");
+    appendLatency(json, readLatency);
+    return json.append('}').toString();
+  }
+
+  private static void appendLatency(StringBuilder json, Histogram histogram) {
+    json.append("{\"mean\":").append(toMillis(histogram.getMean()));
+    for (double percentile : PERCENTILES) {
+      json.append(",\"").append(Metrics.getPercentileName(percentile)).append("\":")
+          .append(toMillis(histogram.getPercentile(percentile)));
+    }
+    json.append(",\"max\":").append(toMillis(histogram.getMax())).append('}');
+  }
+
+  private static String toMillis(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+  }
+
+  private class AlignHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      long start = System.nanoTime();
+      inFlightRequests.incrementAndGet();
+      try {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+          sendError(exchange, 405, "Use POST to align");
+          return;
+        }
+        String body = readBody(exchange);
+        if (body == null) {
+          sendError(exchange, 413, "Request larger than " + MAX_REQUEST_BYTES + " bytes");
+          return;
+        }
+        Map<?, ?> request;
+        try {
+          Object json = JsonUtils.parse(body);
+          if (!(json instanceof Map)) {
+            sendError(exchange, 400, "Request must be a JSON object");
+            return;
+          }
+          request = (Map<?, ?>) json;
+        } catch (IllegalArgumentException e) {
+          sendError(exchange, 400, "Invalid JSON: " + e.getMessage());
+          return;
+        }
+        BatchAligner aligner = getAligner(exchange, request.get("index"));
+        if (aligner == null) {
+          return;
+        }
+        if (request.containsKey("reads")) {
+          alignReads(exchange, aligner, request.get("reads"));
+        } else {
+          alignRead(exchange, aligner, request);
+        }
+      } finally {
+        inFlightRequests.decrementAndGet();
+        requestLatency.record(System.nanoTime() - start);
+        exchange.close();
+      }
+    }
+
+    private BatchAligner getAligner(HttpExchange exchange, Object name) throws IOException {
+      if (name == null) {
+        if (aligners.size() == 1) {
+          return aligners.values().iterator().next();
+        }
+        sendError(exchange, 400, "Several indexes are loaded, choose one with \"index\"");
+        return null;
+      }
+      BatchAligner aligner = aligners.get(name);
+      if (aligner == null) {
+        sendError(exchange, 404, "Unknown index " + name);
+      }
+      return aligner;
+    }
+
+    private void alignRead(HttpExchange exchange, BatchAligner aligner, Map<?, ?> read)
+        throws IOException {
+      String sequence = getSequence(read.get("sequence"));
+      if (sequence == null) {
+        sendError(exchange, 400, "Missing sequence to align");
+        return;
+      }
+      long submitted = System.nanoTime();
+      Future<Alignment> result = submit(aligner, sequence);
+      StringBuilder json = new StringBuilder();
+      if (appendResult(json, getName(read.get("name")), sequence, result, submitted)) {
+        send(exchange, 200, json.toString());
+      } else {
+        sendError(exchange, 500, "Unable to align sequence");
+      }
+    }
+
+    private void alignReads(HttpExchange exchange, BatchAligner aligner, Object readsValue)
+        throws IOException {
+      if (!(readsValue instanceof List)) {
+        sendError(exchange, 400, "\"reads\" must be an array");
+        return;
+      }
+      List<?> batch = (List<?>) readsValue;
+      List<String> names = new ArrayList<String>(batch.size());
+      List<String> sequences = new ArrayList<String>(batch.size());
+      for (Object read : batch) {
+        String sequence = getSequence(read);
+        String name = null;
+        if (read instanceof Map) {
+          sequence = getSequence(((Map<?, ?>) read).get("sequence"));
+          name = getName(((Map<?, ?>) read).get("name"));
+        }
+        if (sequence == null) {
+          sendError(exchange, 400, "Missing sequence of read " + names.size());
+          return;
+        }
+        names.add(name);
+        sequences.add(sequence);
+      }
+
+      long submitted = System.nanoTime();
+      List<Future<Alignment>> results = new ArrayList<Future<Alignment>>(batch.size());
+      for (String sequence : sequences) {
+        results.add(submit(aligner, sequence));
+      }
+      StringBuilder json = new StringBuilder("{\"results\":[");
+      boolean failed = false;
+      for (int i = 0; i < results.size(); i++) {
+        if (i > 0) {
+          json.append(',');
+        }
+        failed |= !appendResult(json, names.get(i), sequences.get(i), results.get(i),
+            submitted);
+      }
+      json.append("]}");
+      if (failed) {
+        sendError(exchange, 500, "Unable to align every read");
+      } else {
+        send(exchange, 200, json.toString());
+      }
+    }
+
+    private Future<Alignment> submit(BatchAligner aligner, String sequence) {
+      inFlightReads.incrementAndGet();
+      return aligner.submit(sequence);
+    }
+
+    /**
+     * Waits for the alignment of sequence submitted at the given time and appends it, returns
+     * false if it failed
+     */
+    private boolean appendResult(StringBuilder json, String name, String sequence,
+        Future<Alignment> result, long submitted) {
+      Alignment alignment;
+      try {
+        alignment = result.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (ExecutionException e) {
+        LogUtils.printError("Unable to align " + (name != null ? name : sequence) + ": "
+            + e.getCause());
+        return false;
+      } finally {
+        inFlightReads.decrementAndGet();
+        reads.incrementAndGet();
+        readLatency.record(System.nanoTime() - submitted);
+      }
+      json.append('{');
+      if (name != null) {
+        json.append("\"name\":").append(JsonUtils.quote(name)).append(',');
+      }
+      json.append("\"score\":").append((int) alignment.getScore()).append(",\"alignment\":[");
+      int[] vertices = alignment.getAlignment();
+      for (int i = 0; i < vertices.length; i++) {
+        if (i > 0) {
+          json.append(',');
+        }
+        json.append(vertices[i]);
+      }
+      json.append("]}");
+      return true;
+    }
+  }
+
+  private class IndexesHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        StringBuilder json = new StringBuilder("{\"indexes\":[");
+        boolean first = true;
+        for (String name : aligners.keySet()) {
+          if (!first) {
+            json.append(',');
+          }
+          json.append(JsonUtils.quote(name));
+          first = false;
+        }
+        send(exchange, 200, json.append("]}").toString());
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  private class StatsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        send(exchange, 200, getStats());
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  private class MetricsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Long> entry : Metrics.snapshot().entrySet()) {
+          if (json.length() > 1) {
+            json.append(',');
+          }
+          json.append(JsonUtils.quote(entry.getKey())).append(':').append(entry.getValue());
+        }
+        send(exchange, 200, json.append('}').toString());
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  private static String getSequence(Object value) {
+    if (!(value instanceof String) || ((String) value).isEmpty()) {
+      return null;
+    }
+    return ((String) value).toUpperCase();
+  }
+
+  private static String getName(Object value) {
+    return value == null ? null : value.toString();
+  }
+
+  /**
+   * The request body, or null if it is larger than MAX_REQUEST_BYTES
+   */
+  private static String readBody(HttpExchange exchange) throws IOException {
+    InputStream in = exchange.getRequestBody();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      if (body.size() + read > MAX_REQUEST_BYTES) {
+        return null;
+      }
+      body.write(buffer, 0, read);
+    }
+    return new String(body.toByteArray(), UTF_8);
+  }
+
+  private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    errors.incrementAndGet();
+    send(exchange, status, "{\"error\":" + JsonUtils.quote(message) + "}");
+  }
+
+  private static void send(HttpExchange exchange, int status, String json) throws IOException {
+    byte[] bytes = json.getBytes(UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+}
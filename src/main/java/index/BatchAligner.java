@@ -0,0 +1,134 @@
+package index;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import data.Alignment;
+import utils.AlignmentUtils;
+import utils.ReadReader;
+import utils.WorkerPool;
+
+/**
+ * Aligns many reads against one loaded index. Reads are aligned concurrently on the shared
+ * worker pool, while the results are written in input order, one line per read:
+ *
+ * <pre>
+ * name \t score \t vertex of base 0,vertex of base 1,...
+ * </pre>
+ *
+ * A read whose alignment fails gets the line
+ *
+ * <pre>
+ * name \t ERROR \t cause
+ * </pre>
+ */
+public class BatchAligner {
+  private static final int READS_IN_FLIGHT_PER_THREAD = 4;
+
+  private final FuzzySearchIndex index;
+  private final String type;
+  private int failures;
+
+  /**
+   * @param type The alignment algorithm, po_msa, po_msa_banded or fuzzy. Defaults to fuzzy if
+   *          null
+   */
+  public BatchAligner(FuzzySearchIndex index, String type) {
+    this.index = index;
+    this.type = type;
+  }
+
+  /**
+   * Aligns every read of reader and writes the results to out. Returns the number of reads,
+   * including those that failed, see getFailures.
+   */
+  public int alignAll(ReadReader reader, Writer out) throws IOException {
+    failures = 0;
+    int window = WorkerPool.getParallelism() * READS_IN_FLIGHT_PER_THREAD;
+    Queue<String> names = new ArrayDeque<String>();
+    Queue<Future<Alignment>> pending = new ArrayDeque<Future<Alignment>>();
+    int count = 0;
+    String read;
+    while ((read = reader.nextRead()) != null) {
+      if (pending.size() == window) {
+        write(out, names.poll(), pending.poll());
+      }
+      names.add(reader.getName());
+      pending.add(submit(read));
+      count++;
+    }
+    while (!pending.isEmpty()) {
+      write(out, names.poll(), pending.poll());
+    }
+    out.flush();
+    return count;
+  }
+
+  /**
+   * The number of reads of the last alignAll whose alignment failed
+   */
+  public int getFailures() {
+    return failures;
+  }
+
+  /**
+   * Aligns sequence on the shared worker pool
+   */
+  public Future<Alignment> submit(String sequence) {
+    return WorkerPool.getPool().submit(new AlignTask(sequence));
+  }
+
+  public Alignment align(String sequence) {
+    if ("po_msa".equals(type)) {
+      return AlignmentUtils.align(index.getGraph(), sequence, index.getConfiguration());
+    } else if ("po_msa_banded".equals(type)) {
+      return AlignmentUtils.alignBanded(index.getGraph(), index.align(sequence).getAlignment(),
+          sequence, index.getConfiguration());
+    }
+    return index.align(sequence);
+  }
+
+  private void write(Writer out, String name, Future<Alignment> result) throws IOException {
+    Alignment alignment;
+    try {
+      alignment = result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while aligning " + name);
+    } catch (ExecutionException e) {
+      failures++;
+      // Keeps the line of the read on one line and its columns apart
+      String cause = String.valueOf(e.getCause()).replaceAll("\\s+", " ");
+      out.write(name + "\tERROR\t" + cause + "\n");
+      return;
+    }
+    StringBuilder line = new StringBuilder();
+    line.append(name).append('\t').append((int) alignment.getScore()).append('\t');
+    int[] vertices = alignment.getAlignment();
+    for (int i = 0; i < vertices.length; i++) {
+      if (i > 0) {
+        line.append(',');
+      }
+      line.append(vertices[i]);
+    }
+    line.append('\n');
+    out.write(line.toString());
+  }
+
+  private class AlignTask implements Callable<Alignment> {
+    private final String read;
+
+    private AlignTask(String read) {
+      this.read = read;
+    }
+
+    public Alignment call() {
+      return align(read);
+    }
+  }
+}
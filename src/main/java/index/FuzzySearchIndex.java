@@ -1,81 +1,202 @@
 package index;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import configuration.Configuration;
+import context_search.ContextPartitions;
 import context_search.SuffixTree;
 import data.Alignment;
+import data.CompactGraph;
+import data.ContextSink;
+import data.DistanceOracle;
 import data.Graph;
-import data.Score;
-import utils.ArrayUtils;
+import metrics.FlightEvent;
+import metrics.Metrics;
+import utils.IntList;
 import utils.LogUtils;
 import utils.StringUtils;
+import utils.WorkerPool;
 
 /**
  * The index, representing the main bulk of the functionality
  */
-public class FuzzySearchIndex implements Serializable {
+public class FuzzySearchIndex {
+  private static final long MAX_DISTANCE_ORACLE_ENTRIES = 1L << 25;
+  /**
+   * Combined scores are measured against a best score of at least this, so a position whose
+   * contexts all score far below it has no candidates
+   */
+  private static final int MIN_COMBINED_SCORE = -1000;
+
+  private static final ThreadLocal<CombineScratch> COMBINE_SCRATCH =
+      new ThreadLocal<CombineScratch>() {
+        @Override
+        protected CombineScratch initialValue() {
+          return new CombineScratch();
+        }
+      };
+
+  private static final ThreadLocal<PathTables> PATH_TABLES = new ThreadLocal<PathTables>() {
+    @Override
+    protected PathTables initialValue() {
+      return new PathTables();
+    }
+  };
+
   private Configuration configuration;
   private Graph graph;
   private SuffixTree leftContexts;
   private SuffixTree rightContexts;
 
+  private CompactGraph distanceGraph;
+  private int distanceLimit;
+  private DistanceOracle distanceOracle;
+
   public static FuzzySearchIndex buildIndex(Graph graph, Configuration configuration) {
     LogUtils.printInfo("Building index");
+    Object event = FlightEvent.INDEX_BUILD.begin();
     FuzzySearchIndex index = new FuzzySearchIndex();
     index.setConfiguration(configuration);
     index.setGraph(graph);
 
-    Object[] contexts = graph.getContexts(Graph.LEFT_CONTEXT);
+    long start = System.nanoTime();
     SuffixTree leftContexts = new SuffixTree(configuration);
-    int i = 1;
-    while (i < contexts.length && contexts[i] != null) {
-      for (String s : (Set<String>) contexts[i]) {
-        leftContexts.addSuffix(s, i);
+    SuffixTree rightContexts = new SuffixTree(configuration);
+    if (WorkerPool.getParallelism() > 1) {
+      ContextTask task = new ContextTask(graph, configuration, leftContexts, rightContexts);
+      if (ForkJoinTask.inForkJoinPool()) {
+        task.invoke();
+      } else {
+        WorkerPool.getPool().invoke(task);
       }
-      i++;
+    } else {
+      graph.streamContexts(Graph.LEFT_CONTEXT, null, getSink(leftContexts));
+      graph.streamContexts(Graph.RIGHT_CONTEXT, null, getSink(rightContexts));
+      leftContexts.freeze();
+      rightContexts.freeze();
     }
     index.setLeftContexts(leftContexts);
+    index.setRightContexts(rightContexts);
+    LogUtils.printInfo("Time for building context trees with " + WorkerPool.getParallelism()
+        + " threads: " + (System.nanoTime() - start));
 
-    SuffixTree rightContexts = new SuffixTree(configuration);
-    contexts = graph.getContexts(Graph.RIGHT_CONTEXT);
-    i = 1;
-    while (i < contexts.length && contexts[i] != null) {
-      for (String s : (Set<String>) contexts[i]) {
-        rightContexts.addSuffix(s, i);
-      }
-      i++;
+    if (graph.getTruncatedContexts() > 0) {
+      LogUtils.printInfo("Dropped " + graph.getTruncatedContexts() + " contexts of vertices "
+          + "with more than " + configuration.getMaxContexts() + " contexts");
     }
-    index.setRightContexts(rightContexts);
 
+    LogUtils.printInfo("Left context tree: " + leftContexts.getNumberOfNodes() + " nodes, "
+        + leftContexts.getMemoryFootprint() + " bytes");
+    LogUtils.printInfo("Right context tree: " + rightContexts.getNumberOfNodes() + " nodes, "
+        + rightContexts.getMemoryFootprint() + " bytes");
     LogUtils.printInfo("Finished building indexes");
+    if (event != null) {
+      FlightEvent.INDEX_BUILD.commit(event, graph.getCurrentSize(),
+          configuration.getContextLength(), WorkerPool.getParallelism(),
+          leftContexts.getLeaves().limit(), rightContexts.getLeaves().limit(),
+          leftContexts.getNumberOfNodes() + rightContexts.getNumberOfNodes());
+    }
     return index;
   }
 
+  private static ContextSink getSink(final SuffixTree tree) {
+    return new ContextSink() {
+      @Override
+      public void addContext(int vertex, long[] kmers, int offset, int length) {
+        tree.addSuffix(kmers, offset, length, vertex);
+      }
+    };
+  }
+
+  /**
+   * Builds the left and the right context trees concurrently. The contexts of each direction
+   * are buffered by their first base, so that the tree can build the subtree of every base on
+   * a worker thread of its own.
+   */
+  private static class ContextTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Graph graph;
+    private final Configuration configuration;
+    private final SuffixTree tree;
+    private final String direction;
+    private final SuffixTree otherTree;
+
+    ContextTask(Graph graph, Configuration configuration, SuffixTree leftTree,
+        SuffixTree rightTree) {
+      this(graph, configuration, leftTree, Graph.LEFT_CONTEXT, rightTree);
+    }
+
+    private ContextTask(Graph graph, Configuration configuration, SuffixTree tree,
+        String direction, SuffixTree otherTree) {
+      this.graph = graph;
+      this.configuration = configuration;
+      this.tree = tree;
+      this.direction = direction;
+      this.otherTree = otherTree;
+    }
+
+    @Override
+    protected void compute() {
+      if (otherTree != null) {
+        invokeAll(new ContextTask(graph, configuration, tree, direction, null),
+            new ContextTask(graph, configuration, otherTree, Graph.RIGHT_CONTEXT, null));
+        return;
+      }
+      final ContextPartitions partitions =
+          new ContextPartitions(configuration.getContextLength());
+      graph.streamContexts(direction, null, new ContextSink() {
+        @Override
+        public void addContext(int vertex, long[] kmers, int offset, int length) {
+          partitions.add(kmers, offset, length, vertex);
+        }
+      });
+      tree.addSuffixes(partitions);
+    }
+  }
+
+  /**
+   * Merges an aligned sequence into the graph and adds the contexts of the vertices near the new
+   * edges to the tries, instead of rebuilding them. A merge only adds vertices and edges, so
+   * every context in the tries is still a context of its vertex and none has to be removed.
+   * Tries of another context length than the configuration are rebuilt.
+   */
+  public void mergeSequence(String sequence, int[] alignment) {
+    long start = System.nanoTime();
+    IntList edges = graph.mergeSequence(sequence, alignment);
+    if (leftContexts.getMaxDepth() != configuration.getContextLength()
+        || rightContexts.getMaxDepth() != configuration.getContextLength()) {
+      FuzzySearchIndex index = buildIndex(graph, configuration);
+      leftContexts = index.leftContexts;
+      rightContexts = index.rightContexts;
+      return;
+    }
+    graph.streamContexts(Graph.LEFT_CONTEXT, edges, getSink(leftContexts));
+    graph.streamContexts(Graph.RIGHT_CONTEXT, edges, getSink(rightContexts));
+    LogUtils.printInfo("Updated index with " + edges.size() / 2 + " new edges in "
+        + (System.nanoTime() - start));
+  }
+
   public static FuzzySearchIndex readIndex(String filename) {
     LogUtils.printInfo("Reading index from file " + filename);
     try {
       long start = System.nanoTime();
-      FileInputStream fis = new FileInputStream(filename);
-      ObjectInputStream stream = new ObjectInputStream(fis);
-      FuzzySearchIndex index = (FuzzySearchIndex) stream.readObject();
+      Object event = FlightEvent.INDEX_READ.begin();
+      FuzzySearchIndex index = IndexFormat.read(filename);
+      if (event != null) {
+        FlightEvent.INDEX_READ.commit(event, filename, index.getGraph().getCurrentSize(),
+            index.getConfiguration().getContextLength());
+      }
       LogUtils.printInfo("Time for reading index: " + (System.nanoTime() - start));
       return index;
     } catch (IOException e) {
-      LogUtils.printError("Unable to read index from file " + filename);
-      return null;
-    } catch (ClassNotFoundException e) {
-      LogUtils.printError("Internal error. Try rebuilding the project");
+      LogUtils.printError("Unable to read index from file " + filename + ": " + e.getMessage());
       return null;
     }
   }
@@ -84,216 +205,481 @@ public class FuzzySearchIndex implements Serializable {
    * The procedure doing the search for candidate vertices
    */
   public Object[] improvedFuzzyContextSearch(String s) {
-    if (configuration.getAllowParallellization()) {
-      LogUtils.printInfo("Doing search with parallellization");
+    Object event = FlightEvent.CONTEXT_SEARCH.begin();
+    long start = System.nanoTime();
+    Object[][] contextScores = searchContextScores(s);
+    long searched = System.nanoTime();
+    Metrics.CONTEXT_SEARCH.record(searched - start);
+    Object[] candidates = combineScores(contextScores[0], contextScores[1], s);
+    Metrics.COMBINE_SCORES.record(System.nanoTime() - searched);
+    if (event != null) {
+      int count = 0;
+      for (Object positionCandidates : candidates) {
+        count += ((int[]) positionCandidates).length;
+      }
+      FlightEvent.CONTEXT_SEARCH.commit(event, s.length(), configuration.getErrorMargin(),
+          configuration.getContextLength(), count);
     }
+    return candidates;
+  }
 
+  /**
+   * The scores of the vertices whose left and right contexts match the contexts of every
+   * position of s, as two arrays of maps from vertex to score
+   */
+  public Object[][] searchContextScores(String s) {
     Object[] leftContextScores = new Object[s.length()];
     Object[] rightContextScores = new Object[s.length()];
-    int tenPercent = s.length() / 10;
-    int status = 0;
-    long leftTotal = 0;
-    long rightTotal = 0;
-    Thread[] leftThreads = new Thread[s.length()];
-    Thread[] rightThreads = new Thread[s.length()];
-    for (int i = 0; i < s.length(); i++) {
-      if (s.length() > 10 && i % tenPercent == 0) {
-        LogUtils.printInfo(status++ * 10 + " percent done");
+    AtomicInteger exactMatches = new AtomicInteger();
+    if (Configuration.CONTEXT_SEARCH_BATCHED.equals(configuration.getContextSearch())) {
+      batchSearchContexts(s, leftContextScores, rightContextScores, exactMatches);
+    } else if (configuration.getAllowParallellization()) {
+      LogUtils.printInfo("Doing search with parallellization");
+      ContextSearchTask task = new ContextSearchTask(s, 0, s.length(), leftContextScores,
+          rightContextScores, exactMatches);
+      if (ForkJoinTask.inForkJoinPool()) {
+        // Already running on the pool, e.g. when aligning reads in batch
+        task.invoke();
+      } else {
+        WorkerPool.getPool().invoke(task);
       }
-      boolean force = false;
-      if (i - 1 < configuration.getContextLength() && s.length() - (i + 1) < configuration
-          .getContextLength()) {
-        force = true;
+    } else {
+      int tenPercent = s.length() / 10;
+      int status = 0;
+      for (int i = 0; i < s.length(); i++) {
+        if (s.length() > 10 && i % tenPercent == 0) {
+          LogUtils.printInfo(status++ * 10 + " percent done");
+        }
+        if (searchContexts(s, i, leftContextScores, rightContextScores)) {
+          exactMatches.incrementAndGet();
+        }
       }
+    }
+    LogUtils.printInfo("Exact matches served " + exactMatches.get() + " of " + s.length()
+        + " positions");
+    Metrics.POSITIONS.add(s.length());
+    Metrics.EXACT_MATCHES.add(exactMatches.get());
+
+    return new Object[][] { leftContextScores, rightContextScores };
+  }
+
+  /**
+   * Searches the left and right context of position i of s, first exactly and then within the
+   * error margin. Returns true if the exact lookup served the position.
+   */
+  private boolean searchContexts(String s, int i, Object[] leftContextScores,
+      Object[] rightContextScores) {
+    if (exactSearchContexts(s, i, leftContextScores, rightContextScores)) {
+      return true;
+    }
+    boolean force = isForced(s, i);
+    leftContextScores[i] = leftContexts.improvedSearch(getLeftContext(s, i), force);
+    rightContextScores[i] = rightContexts.improvedSearch(getRightContext(s, i), force);
+    return false;
+  }
 
-      // Initializes and starts threads for the individual indexes iff parallelization is allowed
-      if (configuration.getAllowParallellization()) {
-        leftContexts.setSearchParams(StringUtils.reverse(
-            s.substring(Math.max(0, i - (configuration.getContextLength())), i)), force, i);
-        rightContexts.setSearchParams(
-            s.substring(i + 1, Math.min(s.length(), i + 1 + configuration.getContextLength())),
-            force, i);
-        leftThreads[i] = new Thread(leftContexts);
-        leftThreads[i].start();
-        rightThreads[i] = new Thread(rightContexts);
-        rightThreads[i].start();
-        leftContexts.await();
-        rightContexts.await();
+  /**
+   * Searches the contexts of every position of s not served by the exact lookup in one
+   * traversal of each trie, see SuffixTree.improvedSearch(String[], boolean[]). With
+   * parallellization the two tries are searched concurrently.
+   */
+  private void batchSearchContexts(String s, Object[] leftContextScores,
+      Object[] rightContextScores, AtomicInteger exactMatches) {
+    IntList positions = new IntList();
+    for (int i = 0; i < s.length(); i++) {
+      if (exactSearchContexts(s, i, leftContextScores, rightContextScores)) {
+        exactMatches.incrementAndGet();
       } else {
-        leftContextScores[i] = leftContexts.improvedSearch(StringUtils.reverse(
-            s.substring(Math.max(0, i - (configuration.getContextLength())), i)), force, i);
-        rightContextScores[i] = rightContexts.improvedSearch(
-            s.substring(i + 1, Math.min(s.length(), i + 1 + configuration.getContextLength())),
-            force, i);
+        positions.add(i);
       }
     }
-    if (configuration.getAllowParallellization()) {
-      for (int i = 0; i < leftThreads.length; i++) {
-        try {
-          leftThreads[i].join();
-          rightThreads[i].join();
-        } catch (InterruptedException e) {
-          e.printStackTrace();
-          System.exit(-1);
-        }
-        leftContextScores[i] = leftContexts.getScores(i);
-        rightContextScores[i] = rightContexts.getScores(i);
+    String[] left = new String[positions.size()];
+    String[] right = new String[positions.size()];
+    boolean[] force = new boolean[positions.size()];
+    for (int p = 0; p < positions.size(); p++) {
+      left[p] = getLeftContext(s, positions.get(p));
+      right[p] = getRightContext(s, positions.get(p));
+      force[p] = isForced(s, positions.get(p));
+    }
+
+    TrieSearchTask leftTask = new TrieSearchTask(leftContexts, left, force);
+    TrieSearchTask rightTask = new TrieSearchTask(rightContexts, right, force);
+    if (!configuration.getAllowParallellization()) {
+      leftTask.compute();
+      rightTask.compute();
+    } else if (ForkJoinTask.inForkJoinPool()) {
+      ForkJoinTask.invokeAll(leftTask, rightTask);
+    } else {
+      WorkerPool.getPool().invoke(new TrieSearchTask(leftTask, rightTask));
+    }
+    for (int p = 0; p < positions.size(); p++) {
+      leftContextScores[positions.get(p)] = leftTask.results[p];
+      rightContextScores[positions.get(p)] = rightTask.results[p];
+    }
+  }
+
+  /**
+   * Looks up the contexts of position i of s exactly. If every context that is searched
+   * matches the same single vertex and no other, that vertex is the only candidate and given
+   * the score of an exact match. With an error margin, this skips the candidates within the
+   * margin of an unambiguous match, so it is only done when both contexts are searched: one
+   * context alone cannot tell a vertex from its neighbour next to an indel. Only contexts of
+   * the full context length are looked up, as improvedSearch does not give a shorter one, near
+   * the ends of the read, the full score of the longer contexts it is a prefix of. Returns true
+   * if the position was served.
+   */
+  private boolean exactSearchContexts(String s, int i, Object[] leftContextScores,
+      Object[] rightContextScores) {
+    boolean force = isForced(s, i);
+    String left = getLeftContext(s, i);
+    String right = getRightContext(s, i);
+    boolean searchLeft = left.length() > 0
+        && (force || left.length() >= configuration.getContextLength());
+    boolean searchRight = right.length() > 0
+        && (force || right.length() >= configuration.getContextLength());
+
+    int vertex = SuffixTree.NO_MATCH;
+    boolean exact = (configuration.getErrorMargin() == 0 || (searchLeft && searchRight))
+        && (!searchLeft || left.length() == configuration.getContextLength())
+        && (!searchRight || right.length() == configuration.getContextLength());
+    if (exact && searchLeft) {
+      vertex = leftContexts.exactSearch(left);
+    }
+    if (exact && searchRight && vertex != SuffixTree.AMBIGUOUS) {
+      int rightVertex = rightContexts.exactSearch(right);
+      vertex = !searchLeft || rightVertex == vertex ? rightVertex : SuffixTree.NO_MATCH;
+    }
+    if (vertex == SuffixTree.NO_MATCH || vertex == SuffixTree.AMBIGUOUS) {
+      return false;
+    }
+    leftContextScores[i] = getExactScores(searchLeft, vertex, left);
+    rightContextScores[i] = getExactScores(searchRight, vertex, right);
+    return true;
+  }
+
+  private HashMap<Integer, Integer> getExactScores(boolean searched, int vertex,
+      String context) {
+    HashMap<Integer, Integer> scores = new HashMap<Integer, Integer>();
+    if (searched) {
+      scores.put(vertex, configuration.getMaxAlignmentScore(context));
+    }
+    return scores;
+  }
+
+  /**
+   * Whether the contexts of position i are searched even if shorter than the context length,
+   * which is when neither of them has the full length
+   */
+  private boolean isForced(String s, int i) {
+    return i - 1 < configuration.getContextLength()
+        && s.length() - (i + 1) < configuration.getContextLength();
+  }
+
+  private String getLeftContext(String s, int i) {
+    return StringUtils.reverse(s.substring(Math.max(0, i - configuration.getContextLength()), i));
+  }
+
+  private String getRightContext(String s, int i) {
+    return s.substring(i + 1, Math.min(s.length(), i + 1 + configuration.getContextLength()));
+  }
+
+  /**
+   * Searches the queries of a trie in one batch, or runs two such tasks concurrently
+   */
+  private static class TrieSearchTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final SuffixTree tree;
+    private final String[] queries;
+    private final boolean[] force;
+    private final TrieSearchTask[] tasks;
+    private Object[] results;
+
+    private TrieSearchTask(SuffixTree tree, String[] queries, boolean[] force) {
+      this.tree = tree;
+      this.queries = queries;
+      this.force = force;
+      this.tasks = null;
+    }
+
+    private TrieSearchTask(TrieSearchTask... tasks) {
+      this.tree = null;
+      this.queries = null;
+      this.force = null;
+      this.tasks = tasks;
+    }
+
+    @Override
+    protected void compute() {
+      if (tasks != null) {
+        invokeAll(tasks);
+      } else {
+        results = tree.improvedSearch(queries, force);
       }
     }
+  }
+
+  /**
+   * Searches the contexts of a range of positions, splitting it among the worker threads
+   */
+  private class ContextSearchTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int POSITIONS_PER_TASK = 4;
+
+    private final String s;
+    private final int from;
+    private final int to;
+    private final Object[] leftContextScores;
+    private final Object[] rightContextScores;
+    private final AtomicInteger exactMatches;
+
+    private ContextSearchTask(String s, int from, int to, Object[] leftContextScores,
+        Object[] rightContextScores, AtomicInteger exactMatches) {
+      this.s = s;
+      this.from = from;
+      this.to = to;
+      this.leftContextScores = leftContextScores;
+      this.rightContextScores = rightContextScores;
+      this.exactMatches = exactMatches;
+    }
 
-    return combineScores(leftContextScores, rightContextScores, s);
+    @Override
+    protected void compute() {
+      if (to - from <= POSITIONS_PER_TASK) {
+        for (int i = from; i < to; i++) {
+          if (searchContexts(s, i, leftContextScores, rightContextScores)) {
+            exactMatches.incrementAndGet();
+          }
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(
+          new ContextSearchTask(s, from, middle, leftContextScores, rightContextScores,
+              exactMatches),
+          new ContextSearchTask(s, middle, to, leftContextScores, rightContextScores,
+              exactMatches));
+    }
   }
 
   private double getMaxAlignmentScore(String sequence) {
-    int score = 0;
-    for (Character c : sequence.toCharArray()) {
-      score += configuration.getScore(c, c);
-    }
-    return score;
+    return configuration.getMaxAlignmentScore(sequence);
   }
 
   /**
-   * Combines left and right context scores into a single candidate set for every index
+   * Combines left and right context scores into the candidate vertices of every index: the
+   * vertices within the error margin of the best combined score, or of MIN_COMBINED_SCORE if
+   * that is higher, as an int array ordered by descending score and then descending vertex.
+   * Keeps at most the maximal number of candidates of the configuration, the first ones of that
+   * order. The scores are merged as packed longs in per thread scratch space, so only the
+   * candidate arrays are allocated.
    */
-  private Object[] combineScores(Object[] scores1, Object[] scores2, String s) {
-    char[] characters = s.toCharArray();
+  public Object[] combineScores(Object[] scores1, Object[] scores2, String s) {
+    int errorMargin = configuration.getErrorMargin();
+    int maxCandidates = configuration.getMaxCandidates();
+    CombineScratch scratch = COMBINE_SCRATCH.get();
     Object[] combined = new Object[scores1.length];
+    int cappedPositions = 0;
+    long droppedCandidates = 0;
 
     for (int i = 0; i < scores1.length; i++) {
-      SortedSet<Score> combinedForPosition = new TreeSet<Score>();
-      HashMap<Integer, Integer> map1 = (HashMap<Integer, Integer>) scores1[i];
-      HashMap<Integer, Integer> map2 = (HashMap<Integer, Integer>) scores2[i];
-      double maxScore = -1000;
+      Map<Integer, Integer> map1 = (Map<Integer, Integer>) scores1[i];
+      Map<Integer, Integer> map2 = (Map<Integer, Integer>) scores2[i];
+      long[] keys = scratch.prepare(map1.size() + map2.size());
+      int count = 0;
+      int maxScore = MIN_COMBINED_SCORE;
       for (Map.Entry<Integer, Integer> entry : map1.entrySet()) {
-        Score score;
-        if (map2.containsKey(entry.getKey())) {
-          score = new Score(entry.getValue() + map2.get(entry.getKey()), entry.getKey());
-        } else {
-          score = new Score(entry.getValue(), entry.getKey());
-        }
-        if (score.getScore() >= maxScore) {
-          combinedForPosition.add(score);
-          maxScore = score.getScore();
-        } else if (score.getScore() >= maxScore - configuration.getErrorMargin()) {
-          combinedForPosition.add(score);
-        }
+        Integer other = map2.get(entry.getKey());
+        int score = other == null ? entry.getValue() : entry.getValue() + other;
+        keys[count++] = CombineScratch.pack(score, entry.getKey());
+        maxScore = Math.max(maxScore, score);
       }
       for (Map.Entry<Integer, Integer> entry : map2.entrySet()) {
         if (!map1.containsKey(entry.getKey())) {
-          Score score = new Score(entry.getValue(), entry.getKey());
-          if (score.getScore() >= maxScore) {
-            combinedForPosition.add(score);
-            maxScore = score.getScore();
-          } else if (score.getScore() >= maxScore - configuration.getErrorMargin()) {
-            combinedForPosition.add(score);
-          }
+          keys[count++] = CombineScratch.pack(entry.getValue(), entry.getKey());
+          maxScore = Math.max(maxScore, entry.getValue());
+        }
+      }
+
+      int kept = 0;
+      for (int j = 0; j < count; j++) {
+        if (CombineScratch.score(keys[j]) >= (long) maxScore - errorMargin) {
+          keys[kept++] = keys[j];
         }
       }
-      combined[i] = combinedForPosition.subSet(new Score(maxScore + 1, -1),
-          new Score(maxScore - configuration.getErrorMargin() - 1, -1));
+      Arrays.sort(keys, 0, kept);
+      int size = Math.min(kept, maxCandidates);
+      if (size < kept) {
+        cappedPositions++;
+        droppedCandidates += kept - size;
+      }
+      int[] vertices = new int[size];
+      for (int j = 0; j < size; j++) {
+        vertices[j] = CombineScratch.vertex(keys[kept - 1 - j]);
+      }
+      combined[i] = vertices;
     }
 
+    if (cappedPositions > 0) {
+      LogUtils.printInfo("Candidate cap of " + maxCandidates + " hit at " + cappedPositions
+          + " of " + scores1.length + " positions, dropping " + droppedCandidates
+          + " candidates");
+      Metrics.CAPPED_POSITIONS.add(cappedPositions);
+      Metrics.DROPPED_CANDIDATES.add(droppedCandidates);
+    }
     return combined;
   }
 
+  /**
+   * Per thread scratch space of combineScores: the combined score and vertex of every candidate
+   * of a position packed in a long, so that sorting the longs orders by score and then vertex
+   */
+  private static class CombineScratch {
+    private long[] keys = new long[16];
+
+    private long[] prepare(int size) {
+      if (size > keys.length) {
+        keys = new long[Math.max(size, 2 * keys.length)];
+      }
+      return keys;
+    }
+
+    private static long pack(int score, int vertex) {
+      return ((long) score << 32) | (vertex & 0xFFFFFFFFL);
+    }
+
+    private static int score(long key) {
+      return (int) (key >> 32);
+    }
+
+    private static int vertex(long key) {
+      return (int) key;
+    }
+  }
+
+  /**
+   * Finds the highest scoring path through the candidate vertices of every position.
+   *
+   * @param time The time the alignment started, before the context search
+   */
   public Alignment findMostProbablePath(Object[] alignmentScores, String sequence, long time) {
     LogUtils.printInfo("Finding most probable path");
 
+    Object event = FlightEvent.PATH_SEARCH.begin();
     long startTime = System.nanoTime();
+    CompactGraph compact = graph.getCompactGraph();
     int maxDistance = configuration.getMaxDistance();
-    int[][] scores = new int[alignmentScores.length][0];
-    int[][] indexes = new int[alignmentScores.length][0];
-    String[][] backPointers = new String[alignmentScores.length][0];
-    char[] characters = sequence.toCharArray();
+    DistanceOracle distances = getDistanceOracle(compact, maxDistance);
+    int positions = alignmentScores.length;
+    PathTables tables = PATH_TABLES.get();
+    tables.prepare(alignmentScores);
+    int[] rowStarts = tables.rowStarts;
+    int[] scores = tables.scores;
+    int[] indexes = tables.indexes;
+    int[] backPointers = tables.backPointers;
+    byte[] codes = Configuration.encode(sequence);
     int limit = 0 - sequence.length() * configuration.getGapOpeningPenalty();
+    for (int i = 0; i < positions; i++) {
+      Metrics.CANDIDATES.record(rowStarts[i + 1] - rowStarts[i]);
+    }
+    long distanceQueries = 0;
 
     // Initializes base cases
-    SortedSet<Score> row = (SortedSet<Score>) alignmentScores[0];
-    scores[0] = new int[row.size()];
-    indexes[0] = new int[row.size()];
-    backPointers[0] = new String[row.size()];
-    int i = 0;
-    for (Score s : row) {
-      scores[0][i] = configuration.getScore(graph.getNode(s.getIndex()).getValue(), characters[0]);
-      indexes[0][i] = s.getIndex();
-      backPointers[0][i] = "-1:-1";
-      i++;
+    for (int j = rowStarts[0]; j < rowStarts[1]; j++) {
+      scores[j] = configuration.getScore(Configuration.encode(compact.getValue(indexes[j])),
+          codes[0]);
+      backPointers[j] = -1;
     }
 
     // Calculates DP tables
-    int tenPercent = alignmentScores.length / 10;
+    int tenPercent = positions / 10;
     int status = 0;
 
     // For each index
-    for (i = 1; i < alignmentScores.length; i++) {
-      row = (SortedSet<Score>) alignmentScores[i];
+    for (int i = 1; i < positions; i++) {
       if (tenPercent > 0 && i % tenPercent == 0) {
         LogUtils.printInfo(status++ * 10 + " percent done");
       }
-      scores[i] = new int[row.size()];
-      indexes[i] = new int[row.size()];
-      backPointers[i] = new String[row.size()];
-      int j = 0;
       // For each candidate vertex
-      for (Score s : row) {
+      for (int j = rowStarts[i]; j < rowStarts[i + 1]; j++) {
+        int best;
         if (configuration.getAllowHeuristics()) {
-          scores[i][j] = limit;
+          best = limit;
         } else {
-          scores[i][j] = (-2 * configuration.getErrorMargin()) - 1;
+          best = (-2 * configuration.getErrorMargin()) - 1;
         }
-        indexes[i][j] = s.getIndex();
-        backPointers[i][j] = "-1:-1";
-        int baseScore = configuration
-            .getScore(graph.getNode(s.getIndex()).getValue(), characters[i]);
+        int backPointer = -1;
+        int vertex = indexes[j];
+        int baseScore = configuration.getScore(Configuration.encode(compact.getValue(vertex)),
+            codes[i]);
         // For each candidate vertex at every preceding index
         for (int k = Math.max(0, i - maxDistance); k < i; k++) {
-          for (int l = 0; l < scores[k].length; l++) {
-            int distance = graph.getDistance(indexes[k][l], s.getIndex(), maxDistance);
+          int gapPenalty = configuration.getGapPenalty(i - k);
+          distanceQueries += rowStarts[k + 1] - rowStarts[k];
+          for (int l = rowStarts[k]; l < rowStarts[k + 1]; l++) {
+            int distance = distances != null ? distances.getDistance(indexes[l], vertex)
+                : compact.getDistance(indexes[l], vertex, maxDistance);
             if (distance == maxDistance && configuration.getAllowHeuristics()) {
               distance = graph.getCurrentSize();
             }
-            int score = baseScore + scores[k][l] - configuration.getGapPenalty(distance)
-                - configuration.getGapPenalty(i - k);
+            int score = baseScore + scores[l] - configuration.getGapPenalty(distance)
+                - gapPenalty;
 
-            if (score > scores[i][j]) {
-              scores[i][j] = score;
-              indexes[i][j] = s.getIndex();
-              backPointers[i][j] = k + ":" + l;
+            if (score > best) {
+              best = score;
+              backPointer = l;
             }
           }
         }
-        j++;
+        scores[j] = best;
+        backPointers[j] = backPointer;
       }
     }
 
-    int rowNr = scores.length - 1;
+    long backtrackStart = System.nanoTime();
+    Metrics.PATH_SEARCH.record(backtrackStart - startTime);
+    Metrics.DISTANCE_QUERIES.add(distanceQueries);
+    if (event != null) {
+      FlightEvent.PATH_SEARCH.commit(event, sequence.length(), graph.getCurrentSize(),
+          configuration.getErrorMargin(), rowStarts[positions], distanceQueries);
+    }
+
+    int rowNr = positions - 1;
     int initialGapLength = 1;
-    while (scores[rowNr] == null || scores[rowNr].length == 0 || noValidScores(scores[rowNr],
-        limit)) {
+    while (noValidScores(scores, rowStarts[rowNr], rowStarts[rowNr + 1], limit)) {
       initialGapLength += 1;
       rowNr -= 1;
       if (rowNr == -1) {
         Alignment alignment = new Alignment();
         alignment.setType("Fuzzy search");
-        alignment.setTime(System.nanoTime() - startTime);
+        alignment.setPathTime(System.nanoTime() - startTime);
+        alignment.setTime(System.nanoTime() - time);
         alignment.setAlignment(new int[sequence.length()]);
         alignment.setScore(0 - configuration.getGapPenalty(graph.getCurrentSize()));
         return alignment;
       }
     }
-    int colNr = ArrayUtils.findHighestIndex(scores[rowNr]);
-    int max = scores[rowNr][colNr];
-
-    // Backtracks the sequence leading to the best score
-    int[] alignmentSequence = new int[scores.length];
-    while (rowNr >= 0) {
-      alignmentSequence[rowNr] = indexes[rowNr][colNr];
-      String backPointer = backPointers[rowNr][colNr];
-      rowNr = Integer.parseInt(backPointer.split(":")[0]);
-      colNr = Integer.parseInt(backPointer.split(":")[1]);
+    int cell = rowStarts[rowNr];
+    for (int j = cell + 1; j < rowStarts[rowNr + 1]; j++) {
+      if (scores[j] > scores[cell]) {
+        cell = j;
+      }
+    }
+    int max = scores[cell];
+
+    // Backtracks the sequence leading to the best score. Rows are in position order, so the row
+    // of a cell is found by walking back from the row of the cell pointing to it.
+    int[] alignmentSequence = new int[positions];
+    while (cell != -1) {
+      while (rowStarts[rowNr] > cell) {
+        rowNr--;
+      }
+      alignmentSequence[rowNr] = indexes[cell];
+      cell = backPointers[cell];
     }
 
-    long searchTime = System.nanoTime() - startTime;
+    long pathTime = System.nanoTime() - startTime;
+    Metrics.BACKTRACK.record(System.nanoTime() - backtrackStart);
     Alignment alignment = new Alignment();
     if (!configuration.getAllowHeuristics()
         && max < configuration.getMaxAlignmentScore(sequence) - configuration.getErrorMargin()) {
@@ -305,34 +691,116 @@ public class FuzzySearchIndex implements Serializable {
       alignment.setScore(max - configuration.getGapPenalty(initialGapLength));
       alignment.setAlignment(alignmentSequence);
     }
-    alignment.setTime(searchTime);
+    alignment.setPathTime(pathTime);
+    alignment.setTime(System.nanoTime() - time);
     alignment.setType("Fuzzy search");
-    alignment.setSequenceLength(characters.length);
+    alignment.setSequenceLength(codes.length);
     alignment.setGraphSize(graph.getCurrentSize());
     return alignment;
   }
 
-  private boolean noValidScores(int[] scores, int limit) {
-    for (Integer score : scores) {
-      if (score > limit) {
+  /**
+   * The shared oracle of the graph, built on first use, or a lazy one for this alignment if the
+   * configuration asks for it or the graph is too large to precompute. Null if maxDistance is
+   * too large for an oracle, when distances are searched in the graph one by one.
+   */
+  private DistanceOracle getDistanceOracle(CompactGraph compact, int maxDistance) {
+    if (maxDistance > DistanceOracle.MAX_DISTANCE) {
+      return null;
+    }
+    String mode = configuration.getDistanceOracle();
+    if (!Configuration.DISTANCE_ORACLE_LAZY.equals(mode)) {
+      synchronized (this) {
+        if (distanceGraph != compact || distanceLimit != maxDistance) {
+          long start = System.nanoTime();
+          long limit = Configuration.DISTANCE_ORACLE_EAGER.equals(mode) ? Integer.MAX_VALUE
+              : MAX_DISTANCE_ORACLE_ENTRIES;
+          distanceOracle = DistanceOracle.eager(compact, maxDistance, limit);
+          distanceGraph = compact;
+          distanceLimit = maxDistance;
+          if (distanceOracle == null) {
+            LogUtils.printInfo("Graph too large to precompute distances, computing them lazily");
+          } else {
+            LogUtils.printInfo("Precomputed " + distanceOracle.getEntries() + " distances in "
+                + (System.nanoTime() - start));
+          }
+        }
+        if (distanceOracle != null) {
+          return distanceOracle;
+        }
+      }
+    }
+    return DistanceOracle.lazy(compact, maxDistance);
+  }
+
+  private boolean noValidScores(int[] scores, int from, int to, int limit) {
+    for (int i = from; i < to; i++) {
+      if (scores[i] > limit) {
         return false;
       }
     }
     return true;
   }
 
-  private void setGraph(Graph graph) {
+  /**
+   * Per thread DP tables of the path search, reused across reads. The candidates of all
+   * positions are laid out after each other, position i occupying [rowStarts[i], rowStarts[i + 1]),
+   * and a back pointer is the cell it points to, or -1.
+   */
+  private static class PathTables {
+    private int[] rowStarts = new int[1];
+    private int[] scores = new int[0];
+    private int[] indexes = new int[0];
+    private int[] backPointers = new int[0];
+
+    private void prepare(Object[] alignmentScores) {
+      if (alignmentScores.length + 1 > rowStarts.length) {
+        rowStarts = new int[alignmentScores.length + 1];
+      }
+      int cells = 0;
+      for (int i = 0; i < alignmentScores.length; i++) {
+        cells += ((int[]) alignmentScores[i]).length;
+      }
+      if (cells > scores.length) {
+        scores = new int[cells];
+        indexes = new int[cells];
+        backPointers = new int[cells];
+      }
+      int cell = 0;
+      for (int i = 0; i < alignmentScores.length; i++) {
+        rowStarts[i] = cell;
+        int[] candidates = (int[]) alignmentScores[i];
+        System.arraycopy(candidates, 0, indexes, cell, candidates.length);
+        cell += candidates.length;
+      }
+      rowStarts[alignmentScores.length] = cell;
+    }
+  }
+
+  void setGraph(Graph graph) {
     this.graph = graph;
   }
 
-  private void setLeftContexts(SuffixTree leftContexts) {
+  void setLeftContexts(SuffixTree leftContexts) {
     this.leftContexts = leftContexts;
   }
 
-  private void setRightContexts(SuffixTree rightContexts) {
+  SuffixTree getLeftContexts() {
+    return leftContexts;
+  }
+
+  void setRightContexts(SuffixTree rightContexts) {
     this.rightContexts = rightContexts;
   }
 
+  SuffixTree getRightContexts() {
+    return rightContexts;
+  }
+
+  public Configuration getConfiguration() {
+    return configuration;
+  }
+
   public void setConfiguration(Configuration configuration) {
     this.configuration = configuration;
     if (graph != null) {
@@ -355,8 +823,11 @@ public class FuzzySearchIndex implements Serializable {
         .printInfo("Aligning " + sequence + " with error-margin " + configuration.getErrorMargin());
     long start = System.nanoTime();
     Object[] alignmentScores = improvedFuzzyContextSearch(sequence);
+    long searchTime = System.nanoTime() - start;
 
     Alignment alignment = findMostProbablePath(alignmentScores, sequence, start);
+    alignment.setSearchTime(searchTime);
+    Metrics.ALIGNMENT.record(System.nanoTime() - start);
     return alignment;
   }
 
@@ -364,10 +835,7 @@ public class FuzzySearchIndex implements Serializable {
     LogUtils.printInfo("Storing index to file " + filename);
     long start = System.nanoTime();
     try {
-      FileOutputStream fos = new FileOutputStream(filename);
-      ObjectOutputStream stream = new ObjectOutputStream(fos);
-      stream.writeObject(this);
-      stream.close();
+      IndexFormat.write(this, filename);
     } catch (IOException e) {
       LogUtils.printError("Unable to write index to file " + filename);
       return;
@@ -0,0 +1,268 @@
+package index;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import configuration.LastzConfiguration;
+import context_search.SuffixTree;
+import data.CompactGraph;
+import data.Graph;
+
+/**
+ * The binary index file format. The file is a flat little endian layout which is memory mapped
+ * on load, and the graph and both context tries are queried directly from the mapping:
+ *
+ * <pre>
+ * int magic, int version
+ * int scoring system, int context length, int error margin
+ * graph: int size, byte[size] values (padded to 4 bytes), int[size + 1] outgoing offsets,
+ *        int edges, int[edges] outgoing edges, int[size + 1] incoming offsets, int[edges] incoming
+ * left and right trie: int max depth, int nodes, int[nodes * FANOUT] children,
+ *        int[nodes + 1] leaf offsets, int leaves, int[leaves] leaf pool
+ * </pre>
+ */
+public class IndexFormat {
+  public static final int MAGIC = 0x47474958;
+  public static final int VERSION = 1;
+
+  private static final int SCORING_EDIT_DISTANCE = 0;
+  private static final int SCORING_LASTZ = 1;
+
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  public static void write(FuzzySearchIndex index, String filename) throws IOException {
+    Configuration configuration = index.getConfiguration();
+    CompactGraph graph = index.getGraph().getCompactGraph();
+    FileOutputStream fos = new FileOutputStream(filename);
+    Writer writer = new Writer(fos.getChannel());
+    try {
+      writer.putInt(MAGIC);
+      writer.putInt(VERSION);
+      writer.putInt(configuration instanceof LastzConfiguration ? SCORING_LASTZ
+          : SCORING_EDIT_DISTANCE);
+      writer.putInt(configuration.getContextLength());
+      writer.putInt(configuration.getErrorMargin());
+
+      writer.putInt(graph.getSize());
+      writer.putBytes(graph.getValues());
+      writer.putInts(graph.getOutgoingOffsets());
+      writer.putInt(graph.getNumberOfEdges());
+      writer.putInts(graph.getOutgoingEdges());
+      writer.putInts(graph.getIncomingOffsets());
+      writer.putInts(graph.getIncomingEdges());
+
+      writeTree(writer, index.getLeftContexts());
+      writeTree(writer, index.getRightContexts());
+      writer.flush();
+    } finally {
+      fos.close();
+    }
+  }
+
+  private static void writeTree(Writer writer, SuffixTree tree) throws IOException {
+    writer.putInt(tree.getMaxDepth());
+    writer.putInt(tree.getNumberOfNodes());
+    writer.putInts(tree.getChildren());
+    writer.putInts(tree.getLeafOffsets());
+    IntBuffer leaves = tree.getLeaves();
+    writer.putInt(leaves.remaining());
+    writer.putInts(leaves);
+  }
+
+  public static FuzzySearchIndex read(String filename) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(new File(filename), "r");
+    MappedByteBuffer mapping;
+    try {
+      if (file.length() > Integer.MAX_VALUE) {
+        throw new IOException("Index files larger than 2GB can not be mapped");
+      }
+      mapping = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+    } finally {
+      file.close();
+    }
+    Reader reader = new Reader(mapping, filename);
+    if (mapping.limit() < 8 || reader.getInt() != MAGIC) {
+      throw new IOException(filename + " is not an index file. Try rebuilding the index");
+    }
+    int version = reader.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported index version " + version + " in " + filename
+          + ". Try rebuilding the index");
+    }
+    Configuration configuration;
+    if (reader.getInt() == SCORING_LASTZ) {
+      configuration = new LastzConfiguration();
+    } else {
+      configuration = new EditDistanceConfiguration();
+    }
+    configuration.setContextLength(reader.getInt());
+    configuration.setErrorMargin(reader.getInt());
+
+    int size = reader.getCount();
+    ByteBuffer values = reader.getBytes(size);
+    IntBuffer outOffsets = reader.getInts(size + 1L);
+    int edges = reader.getCount();
+    IntBuffer outEdges = reader.getInts(edges);
+    IntBuffer inOffsets = reader.getInts(size + 1L);
+    IntBuffer inEdges = reader.getInts(edges);
+    reader.checkEnd(outOffsets, edges);
+    reader.checkEnd(inOffsets, edges);
+    CompactGraph compact = new CompactGraph(values, outOffsets, outEdges, inOffsets, inEdges);
+
+    FuzzySearchIndex index = new FuzzySearchIndex();
+    index.setGraph(new Graph(configuration, compact));
+    index.setLeftContexts(readTree(reader, configuration));
+    index.setRightContexts(readTree(reader, configuration));
+    index.setConfiguration(configuration);
+    return index;
+  }
+
+  private static SuffixTree readTree(Reader reader, Configuration configuration)
+      throws IOException {
+    int maxDepth = reader.getCount();
+    int nodes = reader.getCount();
+    IntBuffer children = reader.getInts((long) nodes * SuffixTree.FANOUT);
+    IntBuffer leafOffsets = reader.getInts(nodes + 1L);
+    IntBuffer leaves = reader.getInts(reader.getCount());
+    reader.checkEnd(leafOffsets, leaves.limit());
+    return new SuffixTree(configuration, maxDepth, children, leafOffsets, leaves);
+  }
+
+  /**
+   * Sequential views over the mapped file. Every read is checked against the rest of the file,
+   * so a truncated or corrupt file gives an IOException instead of a view past its end.
+   */
+  private static class Reader {
+    private final ByteBuffer buffer;
+    private final String filename;
+
+    private Reader(ByteBuffer buffer, String filename) {
+      this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+      this.filename = filename;
+    }
+
+    private int getInt() throws IOException {
+      check(4);
+      return buffer.getInt();
+    }
+
+    /**
+     * A size or number of elements, which can not be negative
+     */
+    private int getCount() throws IOException {
+      int count = getInt();
+      if (count < 0) {
+        throw corrupt();
+      }
+      return count;
+    }
+
+    private ByteBuffer getBytes(int length) throws IOException {
+      check(length + (long) pad(length));
+      ByteBuffer slice = slice(length);
+      skip(pad(length));
+      return slice;
+    }
+
+    private IntBuffer getInts(long length) throws IOException {
+      check(length * 4);
+      return slice((int) (length * 4)).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    private ByteBuffer slice(int bytes) {
+      ByteBuffer slice = buffer.slice();
+      ((Buffer) slice).limit(bytes);
+      skip(bytes);
+      return slice;
+    }
+
+    /**
+     * Checks that the last of offsets ends the elements they index
+     */
+    private void checkEnd(IntBuffer offsets, int elements) throws IOException {
+      if (offsets.get(offsets.limit() - 1) != elements) {
+        throw corrupt();
+      }
+    }
+
+    private void check(long bytes) throws IOException {
+      if (bytes > buffer.remaining()) {
+        throw corrupt();
+      }
+    }
+
+    private IOException corrupt() {
+      return new IOException(filename + " is truncated or corrupt. Try rebuilding the index");
+    }
+
+    private void skip(int bytes) {
+      ((Buffer) buffer).position(buffer.position() + bytes);
+    }
+  }
+
+  /**
+   * Buffered little endian writes to a channel
+   */
+  private static class Writer {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    private Writer(FileChannel channel) {
+      this.channel = channel;
+      this.buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void putInt(int value) throws IOException {
+      ensure(4);
+      buffer.putInt(value);
+    }
+
+    private void putBytes(ByteBuffer values) throws IOException {
+      int length = values.remaining();
+      for (int i = 0; i < length; i++) {
+        ensure(1);
+        buffer.put(values.get(values.position() + i));
+      }
+      for (int i = 0; i < pad(length); i++) {
+        ensure(1);
+        buffer.put((byte) 0);
+      }
+    }
+
+    private void putInts(IntBuffer values) throws IOException {
+      int length = values.remaining();
+      for (int i = 0; i < length; i++) {
+        ensure(4);
+        buffer.putInt(values.get(values.position() + i));
+      }
+    }
+
+    private void ensure(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+    }
+
+    private void flush() throws IOException {
+      ((Buffer) buffer).flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      ((Buffer) buffer).clear();
+    }
+  }
+
+  private static int pad(int length) {
+    return (4 - (length & 3)) & 3;
+  }
+}
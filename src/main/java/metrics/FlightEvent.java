@@ -0,0 +1,185 @@
+package metrics;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Java Flight Recorder event type for a phase of building, loading or using an index, so a
+ * recording shows where a slow run spent its time next to GC and allocation data. The project
+ * still targets Java 7, so the types are created through jdk.jfr.EventFactory by reflection
+ * when the JVM has it, and begin returns null otherwise, or when no recording is enabled for
+ * the event, which makes the events free when nobody is recording.
+ *
+ * <pre>
+ * Object event = FlightEvent.CONTEXT_SEARCH.begin();
+ * ...
+ * FlightEvent.CONTEXT_SEARCH.commit(event, readLength, errorMargin, ...);
+ * </pre>
+ */
+public class FlightEvent {
+  private static final String PREFIX = "graphgenome.";
+  private static final String CATEGORY = "Graph Genome";
+
+  private static final boolean AVAILABLE;
+  private static Method create;
+  private static Method getEventType;
+  private static Method isEnabled;
+  private static Method newEvent;
+  private static Method begin;
+  private static Method end;
+  private static Method shouldCommit;
+  private static Method set;
+  private static Method commit;
+  private static Constructor<?> annotationElement;
+  private static Constructor<?> valueDescriptor;
+
+  static {
+    boolean available;
+    try {
+      Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+      Class<?> eventClass = Class.forName("jdk.jfr.Event");
+      create = factoryClass.getMethod("create", List.class, List.class);
+      getEventType = factoryClass.getMethod("getEventType");
+      newEvent = factoryClass.getMethod("newEvent");
+      isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+      begin = eventClass.getMethod("begin");
+      end = eventClass.getMethod("end");
+      shouldCommit = eventClass.getMethod("shouldCommit");
+      set = eventClass.getMethod("set", int.class, Object.class);
+      commit = eventClass.getMethod("commit");
+      annotationElement = Class.forName("jdk.jfr.AnnotationElement")
+          .getConstructor(Class.class, Object.class);
+      valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor")
+          .getConstructor(Class.class, String.class, List.class);
+      available = true;
+    } catch (Exception e) {
+      available = false;
+    }
+    AVAILABLE = available;
+  }
+
+  public static final FlightEvent INDEX_BUILD = new FlightEvent("IndexBuild", "Index Build",
+      "Building the context tries of an index",
+      "graphSize", int.class, "contextLength", int.class, "threads", int.class,
+      "leftContexts", int.class, "rightContexts", int.class, "trieNodes", int.class);
+  public static final FlightEvent INDEX_READ = new FlightEvent("IndexRead", "Index Read",
+      "Reading an index from file",
+      "file", String.class, "graphSize", int.class, "contextLength", int.class);
+  public static final FlightEvent CONTEXT_SEARCH = new FlightEvent("ContextSearch",
+      "Context Search", "Fuzzy search of the contexts of every position of a read",
+      "readLength", int.class, "errorMargin", int.class, "contextLength", int.class,
+      "candidates", int.class);
+  public static final FlightEvent PATH_SEARCH = new FlightEvent("PathSearch", "Path Search",
+      "Finding the most probable path through the candidates of a read",
+      "readLength", int.class, "graphSize", int.class, "errorMargin", int.class,
+      "candidates", int.class, "distanceQueries", long.class);
+  public static final FlightEvent ALIGN_REGION = new FlightEvent("AlignRegion", "Align Region",
+      "PO-MSA of a read against a region of the graph",
+      "readLength", int.class, "graphSize", int.class, "kernel", String.class);
+  public static final FlightEvent GET_CONTEXTS = new FlightEvent("GetContexts",
+      "Get Contexts", "Generating the contexts of the vertices of a graph",
+      "direction", String.class, "graphSize", int.class, "contexts", int.class);
+
+  private final String name;
+  private final Object factory;
+  private final Object eventType;
+
+  /**
+   * @param fields Pairs of field name and type, int, long or String
+   */
+  private FlightEvent(String name, String label, String description, Object... fields) {
+    this.name = PREFIX + name;
+    Object factory = null;
+    Object eventType = null;
+    if (AVAILABLE) {
+      try {
+        List<Object> annotations = Arrays.asList(
+            annotation("jdk.jfr.Name", this.name),
+            annotation("jdk.jfr.Label", label),
+            annotation("jdk.jfr.Description", description),
+            annotation("jdk.jfr.Category", new String[] { CATEGORY }),
+            // The stack trace would only show the reflective commit
+            annotation("jdk.jfr.StackTrace", false));
+        List<Object> descriptors = new ArrayList<Object>();
+        for (int i = 0; i < fields.length; i += 2) {
+          descriptors.add(valueDescriptor.newInstance(fields[i + 1], fields[i],
+              Collections.singletonList(annotation("jdk.jfr.Label", fields[i]))));
+        }
+        factory = create.invoke(null, annotations, descriptors);
+        eventType = getEventType.invoke(factory);
+      } catch (Exception e) {
+        factory = null;
+      }
+    }
+    this.factory = factory;
+    this.eventType = eventType;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object annotation(String type, Object value) throws Exception {
+    Class<? extends Annotation> annotationType =
+        (Class<? extends Annotation>) Class.forName(type);
+    return annotationElement.newInstance(annotationType, value);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Whether a recording is enabled for this event
+   */
+  public boolean isEnabled() {
+    if (factory == null) {
+      return false;
+    }
+    try {
+      return (Boolean) isEnabled.invoke(eventType);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * Starts timing an event, or returns null if it is not recorded
+   */
+  public Object begin() {
+    if (!isEnabled()) {
+      return null;
+    }
+    try {
+      Object event = newEvent.invoke(factory);
+      begin.invoke(event);
+      return event;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Ends an event returned by begin and commits it with the values of its fields in order.
+   * Does nothing for null.
+   */
+  public void commit(Object event, Object... values) {
+    if (event == null) {
+      return;
+    }
+    try {
+      end.invoke(event);
+      if (!(Boolean) shouldCommit.invoke(event)) {
+        return;
+      }
+      for (int i = 0; i < values.length; i++) {
+        set.invoke(event, i, values[i]);
+      }
+      commit.invoke(event);
+    } catch (Exception e) {
+      // Losing an event is not worth failing the alignment
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values, e.g. durations in nanoseconds. Buckets are
+ * log-linear: every power of two is split into SUB_BUCKETS linear buckets, so percentiles are
+ * within about 6% of the recorded value. Recording allocates nothing. Like StripedCounter, the
+ * buckets are striped by thread id, so threads recording at once rarely touch the same array.
+ */
+public class Histogram {
+  private static final int SUB_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+  private static final int STRIPES = 8;
+
+  private final AtomicLongArray[] counts = new AtomicLongArray[STRIPES];
+  private final StripedCounter count = new StripedCounter();
+  private final StripedCounter total = new StripedCounter();
+  private final AtomicLong max = new AtomicLong();
+
+  public Histogram() {
+    for (int i = 0; i < STRIPES; i++) {
+      counts[i] = new AtomicLongArray(BUCKETS);
+    }
+  }
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts[(int) (Thread.currentThread().getId() & (STRIPES - 1))].incrementAndGet(bucket(value));
+    count.increment();
+    total.add(value);
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getTotal() {
+    return total.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public long getMean() {
+    long n = count.sum();
+    return n == 0 ? 0 : total.sum() / n;
+  }
+
+  /**
+   * The upper bound of the bucket holding the given percentile, between 0 and 100, capped by
+   * the largest recorded value. 0 if nothing is recorded.
+   */
+  public long getPercentile(double percentile) {
+    long[] sums = new long[BUCKETS];
+    long n = 0;
+    for (AtomicLongArray stripe : counts) {
+      for (int i = 0; i < BUCKETS; i++) {
+        sums[i] += stripe.get(i);
+      }
+    }
+    for (int i = 0; i < BUCKETS; i++) {
+      n += sums[i];
+    }
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += sums[i];
+      if (seen >= rank) {
+        return Math.min(upperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Clears the histogram. Values recorded concurrently may be partly kept.
+   */
+  public void reset() {
+    for (AtomicLongArray stripe : counts) {
+      for (int i = 0; i < BUCKETS; i++) {
+        stripe.set(i, 0);
+      }
+    }
+    count.reset();
+    total.reset();
+    max.set(0);
+  }
+
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    int sub = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+    return (exponent + 1) * SUB_BUCKETS + sub;
+  }
+
+  private static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS - 1;
+    long sub = bucket % SUB_BUCKETS;
+    return ((SUB_BUCKETS + sub + 1) << exponent) - 1;
+  }
+}
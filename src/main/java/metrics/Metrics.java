@@ -0,0 +1,113 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import utils.LogUtils;
+
+/**
+ * Timings of the phases of every fuzzy search alignment and counters of the work they do,
+ * summed over all alignments since start or the last reset. Durations are in nanoseconds.
+ * Counters are striped and histograms lock-free, and the search keeps its per node counts in
+ * its scratch space and adds them once per search, so recording is cheap enough to stay on.
+ */
+public class Metrics {
+  public static final String OBJECT_NAME = "graphgenome:type=Metrics";
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+  private static final Map<String, Histogram> HISTOGRAMS =
+      new LinkedHashMap<String, Histogram>();
+  private static final Map<String, StripedCounter> COUNTERS =
+      new LinkedHashMap<String, StripedCounter>();
+
+  public static final Histogram ALIGNMENT = histogram("alignmentNanos");
+  public static final Histogram CONTEXT_SEARCH = histogram("contextSearchNanos");
+  public static final Histogram COMBINE_SCORES = histogram("combineScoresNanos");
+  public static final Histogram PATH_SEARCH = histogram("pathSearchNanos");
+  public static final Histogram BACKTRACK = histogram("backtrackNanos");
+  public static final Histogram CANDIDATES = histogram("candidatesPerPosition");
+
+  public static final StripedCounter POSITIONS = counter("positions");
+  public static final StripedCounter EXACT_MATCHES = counter("exactMatches");
+  public static final StripedCounter TRIE_NODES_VISITED = counter("trieNodesVisited");
+  public static final StripedCounter TRIE_NODES_PRUNED = counter("trieNodesPruned");
+  public static final StripedCounter DISTANCE_QUERIES = counter("distanceQueries");
+  public static final StripedCounter CAPPED_POSITIONS = counter("cappedPositions");
+  public static final StripedCounter DROPPED_CANDIDATES = counter("droppedCandidates");
+
+  private static boolean registered;
+
+  private static Histogram histogram(String name) {
+    Histogram histogram = new Histogram();
+    HISTOGRAMS.put(name, histogram);
+    return histogram;
+  }
+
+  private static StripedCounter counter(String name) {
+    StripedCounter counter = new StripedCounter();
+    COUNTERS.put(name, counter);
+    return counter;
+  }
+
+  /**
+   * The current value of every counter, and the count, mean, percentiles and maximum of every
+   * histogram as name.count, name.mean, name.p50, name.p90, name.p99, name.p999 and name.max
+   */
+  public static Map<String, Long> snapshot() {
+    Map<String, Long> values = new LinkedHashMap<String, Long>();
+    for (Map.Entry<String, StripedCounter> counter : COUNTERS.entrySet()) {
+      values.put(counter.getKey(), counter.getValue().sum());
+    }
+    for (Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()) {
+      String name = entry.getKey();
+      Histogram histogram = entry.getValue();
+      values.put(name + ".count", histogram.getCount());
+      values.put(name + ".mean", histogram.getMean());
+      for (double percentile : PERCENTILES) {
+        values.put(name + "." + getPercentileName(percentile),
+            histogram.getPercentile(percentile));
+      }
+      values.put(name + ".max", histogram.getMax());
+    }
+    return values;
+  }
+
+  /**
+   * p50 for 50, p999 for 99.9
+   */
+  public static String getPercentileName(double percentile) {
+    String digits = percentile == Math.rint(percentile)
+        ? Long.toString((long) percentile) : Double.toString(percentile).replace(".", "");
+    return "p" + digits;
+  }
+
+  public static void reset() {
+    for (StripedCounter counter : COUNTERS.values()) {
+      counter.reset();
+    }
+    for (Histogram histogram : HISTOGRAMS.values()) {
+      histogram.reset();
+    }
+  }
+
+  /**
+   * Registers the metrics as the MBean OBJECT_NAME of the platform MBean server, once
+   */
+  public static synchronized void registerMBean() {
+    if (registered) {
+      return;
+    }
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(new MetricsDynamicMBean(), new ObjectName(OBJECT_NAME));
+      registered = true;
+    } catch (JMException e) {
+      LogUtils.printWarning("Unable to register metrics MBean: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package metrics;
+
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes every value of Metrics.snapshot() as a read-only long attribute, and a reset
+ * operation
+ */
+class MetricsDynamicMBean implements DynamicMBean {
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Long value = Metrics.snapshot().get(attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return value;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics are read-only");
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    Map<String, Long> snapshot = Metrics.snapshot();
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      if (snapshot.containsKey(attribute)) {
+        list.add(new Attribute(attribute, snapshot.get(attribute)));
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature)
+      throws ReflectionException {
+    if ("reset".equals(actionName)) {
+      Metrics.reset();
+      return null;
+    }
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    Map<String, Long> snapshot = Metrics.snapshot();
+    MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+    int i = 0;
+    for (String name : snapshot.keySet()) {
+      attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+    }
+    MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clears every metric",
+        new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+    return new MBeanInfo(getClass().getName(), "Alignment metrics", attributes, null,
+        new MBeanOperationInfo[] { reset }, null);
+  }
+}
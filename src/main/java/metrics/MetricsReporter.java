@@ -0,0 +1,107 @@
+package metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import utils.LogUtils;
+
+/**
+ * Appends a snapshot of the metrics to a file every interval and once more when stopped. Files
+ * ending with .csv get one row per snapshot below a header, other files one "name value" line
+ * per metric after a line with the time.
+ */
+public class MetricsReporter {
+  public static final int DEFAULT_INTERVAL = 60;
+
+  private final File file;
+  private final boolean csv;
+  private final int interval;
+  private ScheduledExecutorService executor;
+
+  /**
+   * @param interval Seconds between snapshots
+   */
+  public MetricsReporter(String filename, int interval) {
+    this.file = new File(filename);
+    this.csv = filename.endsWith(".csv");
+    this.interval = interval;
+  }
+
+  public synchronized void start() {
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "metrics-reporter");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        report();
+      }
+    }, interval, interval, TimeUnit.SECONDS);
+    LogUtils.printInfo("Writing metrics to " + file.getAbsolutePath() + " every " + interval
+        + " seconds");
+  }
+
+  /**
+   * Stops the periodic snapshots and writes a last one
+   */
+  public synchronized void stop() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+    report();
+  }
+
+  /**
+   * Appends a snapshot of the metrics
+   */
+  public synchronized void report() {
+    Map<String, Long> snapshot = Metrics.snapshot();
+    String time = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date());
+    boolean header = csv && file.length() == 0;
+    try {
+      Writer out = new BufferedWriter(new FileWriter(file, true));
+      try {
+        if (header) {
+          out.write("time");
+          for (String name : snapshot.keySet()) {
+            out.write("," + name);
+          }
+          out.write("\n");
+        }
+        if (csv) {
+          out.write(time);
+          for (Long value : snapshot.values()) {
+            out.write("," + value);
+          }
+          out.write("\n");
+        } else {
+          out.write("# " + time + "\n");
+          for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+            out.write(entry.getKey() + " " + entry.getValue() + "\n");
+          }
+        }
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      LogUtils.printWarning("Unable to write metrics to " + file.getAbsolutePath() + ": "
+          + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A sum added to by many threads, standing in for Java 8's LongAdder. Every thread adds to one
+ * of STRIPES cells, each on its own cache line, chosen by its thread id, so threads rarely
+ * contend. Reading the sum adds up the cells.
+ */
+public class StripedCounter {
+  private static final int STRIPES = 32;
+  private static final int PADDING = 8;
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  public void add(long value) {
+    cells.addAndGet(cell(), value);
+  }
+
+  public void increment() {
+    cells.incrementAndGet(cell());
+  }
+
+  public long sum() {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  public void reset() {
+    for (int i = 0; i < STRIPES; i++) {
+      cells.set(i * PADDING, 0);
+    }
+  }
+
+  private static int cell() {
+    return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+  }
+}
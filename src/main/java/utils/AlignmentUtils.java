@@ -1,168 +1,537 @@
 package utils;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import configuration.Configuration;
 import data.Alignment;
+import data.CompactGraph;
 import data.Graph;
-import data.Node;
+import data.TopologicalOrder;
+import metrics.FlightEvent;
 
 public class AlignmentUtils {
+  private static final int HORIZONTAL = 0;
+  private static final int DIAGONAL = 1;
+  private static final int VERTICAL = 2;
+
   /**
    * PO-MSA
    */
   public static Alignment align(Graph g, String sequence, Configuration configuration) {
-    return alignRegion(g, g.getHead(), g.getTail(), sequence, configuration);
+    return alignRegion(g, Graph.HEAD_INDEX, sequence, configuration);
   }
 
-  public static Alignment alignRegion(Graph g, Node start, Node end, String sequence,
+  /**
+   * Aligns sequence to the vertices reachable from the vertex with index start, which are swept
+   * in topological order over the compact graph, so the nodes of a loaded index are never built.
+   * Score rows are recycled once every successor of a vertex has used them, so only the rows of
+   * the current frontier are held. The traceback keeps two bits per cell for the direction,
+   * which also tells whether the cell ends a gap in the graph, and the preceding vertex of every
+   * cell only for vertices with more than one incoming edge. Unit costs use BitParallelSweep,
+   * unless the scalar alignment kernel is chosen.
+   */
+  public static Alignment alignRegion(Graph g, int start, String sequence,
       Configuration configuration) {
     LogUtils.printInfo("Brute force aligning sequence " + sequence);
 
-    final int HORIZONTAL = 0;
-    final int DIAGONAL = 1;
-    final int VERTICAL = 2;
+    long startTime = System.nanoTime();
+    Object event = FlightEvent.ALIGN_REGION.begin();
+    int startSlot = g.getCompactGraph().toSlot(start);
+    Alignment alignment;
+    if (configuration.isUnitCost()
+        && !Configuration.ALIGNMENT_KERNEL_SCALAR.equals(configuration.getAlignmentKernel())) {
+      alignment = new BitParallelSweep(g, sequence, configuration).align(startSlot);
+    } else {
+      alignment = new Sweep(g, sequence, configuration, Integer.MAX_VALUE).align(startSlot);
+    }
+    alignment.setTime(System.nanoTime() - startTime);
+    alignment.setType("Brute force");
+    if (event != null) {
+      FlightEvent.ALIGN_REGION.commit(event, sequence.length(), g.getCurrentSize(),
+          configuration.getAlignmentKernel());
+    }
+
+    return alignment;
+  }
+
+  /**
+   * PO-MSA restricted to a band around the vertices aligned by anchor, typically a fuzzy search
+   * alignment of the same sequence. The sweep starts as many vertices before the first aligned
+   * vertex as there are unaligned characters in front of it.
+   */
+  public static Alignment alignBanded(Graph g, int[] anchor, String sequence,
+      Configuration configuration) {
+    CompactGraph compact = g.getCompactGraph();
+    int slot = compact.getHeadSlot();
+    for (int i = 0; i < anchor.length; i++) {
+      if (anchor[i] != 0) {
+        slot = compact.toSlot(anchor[i]);
+        for (int j = 0; j <= i && compact.getIncomingEnd(slot) > compact.getIncomingStart(slot);
+            j++) {
+          slot = compact.getIncoming(compact.getIncomingStart(slot));
+        }
+        break;
+      }
+    }
+    return alignBanded(g, compact.toIndex(slot), sequence, configuration);
+  }
+
+  /**
+   * PO-MSA from the vertex with index start where the vertices at distance d from it only
+   * compute the characters within the band width of d. If an alignment leaving the band could
+   * score as well as the best one inside it, the band is doubled and the sequence aligned again,
+   * until the band is as wide as the sequence.
+   */
+  public static Alignment alignBanded(Graph g, int start, String sequence,
+      Configuration configuration) {
+    LogUtils.printInfo("Banded aligning sequence " + sequence);
+    int startSlot = g.getCompactGraph().toSlot(start);
 
     long startTime = System.nanoTime();
-    char[] characters = sequence.toCharArray();
-    List<Node> queue = new ArrayList<Node>();
-    Set<Integer> waiting = new HashSet<Integer>();
-    Map<Integer, Integer[]> results = new HashMap<Integer, Integer[]>();
-    Map<Integer, Integer[]> backPointers = new HashMap<Integer, Integer[]>();
-    Map<Integer, Boolean[]> gaps = new HashMap<Integer, Boolean[]>();
-    Map<Integer, Integer[]> path = new HashMap<Integer, Integer[]>();
-
-    int max = Integer.MIN_VALUE;
-    int lastNode = -1;
-
-    Integer[] values = new Integer[characters.length + 1];
-    Boolean[] firstGaps = new Boolean[characters.length + 1];
-    values[0] = 0;
-    values[1] = values[0] - configuration.getGapOpeningPenalty();
-    firstGaps[1] = false;
-    for (int i = 2; i < values.length; i++) {
-      values[i] = values[i - 1] - configuration.getGapExtensionPenalty();
-      firstGaps[i] = false;
-    }
-
-    results.put(start.getIndex(), values);
-    gaps.put(start.getIndex(), firstGaps);
-    for (Integer neighbour : start.getOutgoing()) {
-      queue.add(g.getNode(neighbour));
-      waiting.add(neighbour);
-    }
-
-    // Iterates over all vertices
-    while (!queue.isEmpty()) {
-      Node curr = queue.remove(0);
-      values = new Integer[characters.length + 1];
+    int bandWidth = configuration.getBandWidth();
+    Sweep sweep = new Sweep(g, sequence, configuration, bandWidth);
+    Alignment alignment = sweep.align(startSlot);
+    while (sweep.mayLeaveBand() && bandWidth < sequence.length()) {
+      bandWidth = (int) Math.min(sequence.length(), bandWidth * 2L);
+      LogUtils.printInfo("Alignment may leave the band, widening it to " + bandWidth);
+      sweep = new Sweep(g, sequence, configuration, bandWidth);
+      alignment = sweep.align(startSlot);
+    }
+    alignment.setTime(System.nanoTime() - startTime);
+    alignment.setType("Banded");
+
+    return alignment;
+  }
+
+  /**
+   * A single dynamic programming sweep over the vertices reachable from a start vertex. The per
+   * vertex state is kept in arrays indexed by slot, or with a band by the order the vertices are
+   * reached in, so that a narrow band only pays for the vertices it reaches.
+   *
+   * The profile kernel relaxes a vertex from a predecessor in two passes. The first combines the
+   * gaps in the graph and the matches of every cell, without branches and independently of the
+   * other cells so that the JIT can vectorize it, from a score row over the sequence per
+   * character and a row per finished vertex with the score of opening or extending a gap in the
+   * graph from each of its cells. The second adds the gaps in the sequence, which depend on the
+   * previous cell. Ties are broken as in the scalar kernel.
+   */
+  private static class Sweep {
+    // Cells outside the band, low enough to never win and high enough to never overflow
+    private static final int OUTSIDE = Integer.MIN_VALUE / 2;
+
+    private final Graph g;
+    private final CompactGraph compact;
+    private final TopologicalOrder order;
+    private final char[] characters;
+    private final byte[] codes;
+    private final int bandWidth;
+    private final int cellsPerRow;
+    private final int gapOpeningPenalty;
+    private final int gapExtensionPenalty;
+    private final int maxPairwiseScore;
+    private final Configuration configuration;
+    private final boolean profiled;
+    private final int[][] profiles = new int[Configuration.NUMBER_OF_CODES][];
+    private int[] candidates;
+
+    private final IntIntMap numbers;
+    private int[] depths;
+    private int[][] rows;
+    private int[][] gapRows;
+    private int[] consumers;
+    private long[] cells;
+    private int startNumber;
+    private final ArrayDeque<int[]> pool = new ArrayDeque<int[]>();
+    private byte[] directions = new byte[64];
+    private long cellCount;
+    private final IntIntMap joinRows = new IntIntMap();
+    private final List<int[]> joinPaths = new ArrayList<int[]>();
+    private int edgeBound = Integer.MIN_VALUE;
+    private int max = Integer.MIN_VALUE;
+
+    Sweep(Graph g, String sequence, Configuration configuration, int bandWidth) {
+      this.g = g;
+      this.compact = g.getCompactGraph();
+      this.order = g.getTopologicalOrder();
+      this.characters = sequence.toCharArray();
+      this.codes = Configuration.encode(sequence);
+      this.bandWidth = bandWidth;
+      this.cellsPerRow = (int) Math.min(characters.length + 1, bandWidth * 2L + 1);
+      this.gapOpeningPenalty = configuration.getGapOpeningPenalty();
+      this.gapExtensionPenalty = configuration.getGapExtensionPenalty();
+      this.maxPairwiseScore = configuration.getMaxPairwiseScore();
+      this.configuration = configuration;
+      this.profiled = Configuration.ALIGNMENT_KERNEL_PROFILE.equals(
+          configuration.getAlignmentKernel());
+      int capacity = compact.getSize();
+      if (cellsPerRow < characters.length + 1) {
+        numbers = new IntIntMap();
+        capacity = 64;
+      } else {
+        numbers = null;
+      }
+      depths = new int[capacity];
+      Arrays.fill(depths, -1);
+      rows = new int[capacity][];
+      consumers = new int[capacity];
+      cells = new long[capacity];
+      if (profiled) {
+        gapRows = new int[capacity][];
+        candidates = new int[characters.length + 1];
+      }
+    }
+
+    /**
+     * Whether an alignment passing a cell on the edge of the band could score at least as well
+     * as the best one, if all its remaining characters matched
+     */
+    boolean mayLeaveBand() {
+      return edgeBound >= max;
+    }
+
+    Alignment align(int startSlot) {
+      int width = characters.length + 1;
+      int lastNode = -1;
+
+      int[] values = new int[width];
       values[0] = 0;
-      for (int i = 1; i < values.length; i++) {
-        values[i] = Integer.MIN_VALUE;
-      }
-      Boolean[] myGaps = new Boolean[characters.length + 1];
-      Integer[] myBackPointers = new Integer[characters.length + 1];
-      Integer[] paths = new Integer[characters.length + 1];
-      boolean wait = false;
-
-      // Iterates over all incoming paths to a vertex
-      for (Integer neighbour : curr.getIncoming()) {
-        Integer[] prev = results.get(neighbour);
-        Boolean[] prevGaps = gaps.get(neighbour);
-        if (prev == null) {
-          wait = true;
-          break;
+      values[1] = values[0] - gapOpeningPenalty;
+      for (int i = 2; i < values.length; i++) {
+        values[i] = values[i - 1] - gapExtensionPenalty;
+      }
+      startNumber = reach(startSlot, 0);
+      rows[startNumber] = values;
+      if (profiled) {
+        gapRows[startNumber] = getGapRow(values, -1, 0, -1);
+      }
+      consumers[startNumber] = compact.getOutgoingEnd(startSlot)
+          - compact.getOutgoingStart(startSlot);
+      int pending = 0;
+      for (int e = compact.getOutgoingStart(startSlot); e < compact.getOutgoingEnd(startSlot);
+          e++) {
+        if (getNumber(compact.getOutgoing(e)) == -1) {
+          pending++;
         }
+        reach(compact.getOutgoing(e), 1);
+      }
 
-        // Iterates over all indexes of the string in one preceding vertex
-        for (int i = 1; i < values.length; i++) {
-          int verticalScore = values[i - 1];
-          if (i == 1 || values[i - 1] - values[i - 2] == configuration.getGapExtensionPenalty()
-              || values[i - 1] - values[i - 2] == configuration.getGapOpeningPenalty()) {
-            verticalScore -= configuration.getGapExtensionPenalty();
-          } else {
-            verticalScore -= configuration.getGapOpeningPenalty();
+      // Iterates over the vertices reachable from start in topological order, so that every
+      // preceding vertex has been computed. Stops when no reached vertex is left.
+      for (int position = order.getRank(startSlot) + 1;
+          position < order.size() && pending > 0; position++) {
+        int curr = order.get(position);
+        int number = getNumber(curr);
+        if (number == -1) {
+          continue;
+        }
+        pending--;
+        int lo = getLow(number);
+        int hi = getHigh(number);
+        if (lo > hi) {
+          // The whole sequence is behind this vertex, so it ends the band
+          release(curr);
+          continue;
+        }
+        int value = Configuration.encode(compact.getValue(curr));
+        values = pool.isEmpty() ? new int[width] : pool.pop();
+        Arrays.fill(values, 0, lo, OUTSIDE);
+        Arrays.fill(values, lo, hi + 1, Integer.MIN_VALUE);
+        Arrays.fill(values, hi + 1, width, OUTSIDE);
+        if (lo == 0) {
+          values[0] = 0;
+        }
+        long cell = addCells() - lo;
+        cells[number] = cell;
+        int[] paths = null;
+        if (compact.getIncomingEnd(curr) - compact.getIncomingStart(curr) > 1) {
+          paths = new int[cellsPerRow];
+          joinRows.put(curr, joinPaths.size());
+          joinPaths.add(paths);
+        }
+
+        // Iterates over all incoming paths to a vertex
+        for (int e = compact.getIncomingStart(curr); e < compact.getIncomingEnd(curr); e++) {
+          int neighbour = compact.getIncoming(e);
+          int prevNumber = getNumber(neighbour);
+          if (prevNumber == -1 || rows[prevNumber] == null) {
+            // Not reachable from start
+            continue;
           }
-          int horizontalScore = prev[i];
-          if (prevGaps[i]) {
-            horizontalScore -= configuration.getGapExtensionPenalty();
-          } else {
-            horizontalScore -= configuration.getGapOpeningPenalty();
+          int[] prev = rows[prevNumber];
+          boolean prevGaps = neighbour != startSlot;
+          int prevLo = neighbour == startSlot ? 0 : getLow(prevNumber);
+          int prevHi = neighbour == startSlot ? characters.length : getHigh(prevNumber);
+          long prevCell = cells[prevNumber];
+          if (profiled) {
+            relax(values, prev, gapRows[prevNumber], getProfile(value), Math.max(lo, 1), hi,
+                cell, paths, lo, neighbour);
+            continue;
           }
-          int diagonalScore =
-              prev[i - 1] + configuration.getScore(characters[i - 1], curr.getValue());
-          int myMax = Math.max(verticalScore, Math.max(horizontalScore, diagonalScore));
-
-          // Finds the highest score and sets backpointer and gap
-          if (myMax > values[i]) {
-            values[i] = myMax;
-            if (myMax == horizontalScore) {
-              myGaps[i] = true;
-              myBackPointers[i] = HORIZONTAL;
-              paths[i] = neighbour;
-            } else if (myMax == diagonalScore) {
-              myGaps[i] = false;
-              myBackPointers[i] = DIAGONAL;
-              paths[i] = neighbour;
+
+          // Iterates over all indexes of the string in one preceding vertex
+          for (int i = Math.max(lo, 1); i <= hi; i++) {
+            int verticalScore = values[i - 1];
+            if (i == 1 || values[i - 1] - values[i - 2] == gapExtensionPenalty
+                || values[i - 1] - values[i - 2] == gapOpeningPenalty) {
+              verticalScore -= gapExtensionPenalty;
             } else {
-              myGaps[i] = false;
-              myBackPointers[i] = VERTICAL;
+              verticalScore -= gapOpeningPenalty;
+            }
+            int horizontalScore = prev[i];
+            if (prevGaps && i >= prevLo && i <= prevHi
+                && getDirection(prevCell + i) == HORIZONTAL) {
+              horizontalScore -= gapExtensionPenalty;
+            } else {
+              horizontalScore -= gapOpeningPenalty;
+            }
+            int diagonalScore =
+                prev[i - 1] + configuration.getScore(codes[i - 1], value);
+            int myMax = Math.max(verticalScore, Math.max(horizontalScore, diagonalScore));
+
+            // Finds the highest score and sets backpointer and gap
+            if (myMax > values[i]) {
+              values[i] = myMax;
+              if (myMax == horizontalScore || myMax == diagonalScore) {
+                setDirection(cell + i, myMax == horizontalScore ? HORIZONTAL : DIAGONAL);
+                if (paths != null) {
+                  paths[i - lo] = neighbour;
+                }
+              } else {
+                setDirection(cell + i, VERTICAL);
+              }
             }
           }
         }
+        release(curr);
+
+        int depth = depths[number];
+        for (int e = compact.getOutgoingStart(curr); e < compact.getOutgoingEnd(curr); e++) {
+          if (getNumber(compact.getOutgoing(e)) == -1) {
+            pending++;
+          }
+          reach(compact.getOutgoing(e), depth + 1);
+        }
+        if (hi < characters.length) {
+          bound(values[hi], hi);
+        }
+        if (lo > 0) {
+          bound(values[lo], lo);
+        }
+        if (hi == characters.length && values[hi] > max) {
+          max = values[hi];
+          lastNode = curr;
+        }
+        rows[number] = values;
+        if (profiled) {
+          gapRows[number] = getGapRow(values, cell, lo, hi);
+        }
+        consumers[number] = compact.getOutgoingEnd(curr) - compact.getOutgoingStart(curr);
+      }
+
+      // Backtracks the alignment. The row of start only holds gaps in the graph.
+      int index = characters.length;
+      int[] alignmentSequence = new int[characters.length];
+      while (index > 0 && lastNode != -1 && lastNode != startSlot) {
+        int number = getNumber(lastNode);
+        if (number == -1) {
+          break;
+        }
+        int lo = getLow(number);
+        int backPointer = getDirection(cells[number] + index);
+        if (backPointer == DIAGONAL) {
+          alignmentSequence[index - 1] = compact.toIndex(lastNode);
+          lastNode = getPath(lastNode, index - lo);
+          index--;
+        } else if (backPointer == VERTICAL) {
+          alignmentSequence[index - 1] = 0;
+          index--;
+        } else {
+          lastNode = getPath(lastNode, index - lo);
+        }
+      }
+
+      Alignment alignment = new Alignment();
+      alignment.setScore(max);
+      alignment.setSequenceLength(characters.length);
+      alignment.setGraphSize(g.getCurrentSize());
+      alignment.setAlignment(alignmentSequence);
+      return alignment;
+    }
+
+    /**
+     * Relaxes the cells from lo to hi of values from the row prev of a preceding vertex, whose
+     * gaps in the graph score gaps, with the score row profile of the character of the vertex
+     */
+    private void relax(int[] values, int[] prev, int[] gaps, int[] profile, int lo, int hi,
+        long cell, int[] paths, int rowStart, int neighbour) {
+      int[] candidates = this.candidates;
+      for (int i = lo; i <= hi; i++) {
+        candidates[i] = Math.max(gaps[i], prev[i - 1] + profile[i - 1]);
+      }
+
+      for (int i = lo; i <= hi; i++) {
+        int verticalScore = values[i - 1];
+        if (i == 1 || values[i - 1] - values[i - 2] == gapExtensionPenalty
+            || values[i - 1] - values[i - 2] == gapOpeningPenalty) {
+          verticalScore -= gapExtensionPenalty;
+        } else {
+          verticalScore -= gapOpeningPenalty;
+        }
+        int candidate = candidates[i];
+        if (candidate > values[i] || verticalScore > values[i]) {
+          if (candidate >= verticalScore) {
+            values[i] = candidate;
+            setDirection(cell + i, candidate == gaps[i] ? HORIZONTAL : DIAGONAL);
+            if (paths != null) {
+              paths[i - rowStart] = neighbour;
+            }
+          } else {
+            values[i] = verticalScore;
+            setDirection(cell + i, VERTICAL);
+          }
+        }
       }
-      if (wait) {
-        queue.add(curr);
-        continue;
+    }
+
+    /**
+     * The score of a gap in the graph after every cell of values, extending the gap if the cell
+     * within lo and hi ends one. The start vertex, with no cells, only opens gaps.
+     */
+    private int[] getGapRow(int[] values, long cell, int lo, int hi) {
+      int[] gaps = pool.isEmpty() ? new int[values.length] : pool.pop();
+      for (int i = 0; i < values.length; i++) {
+        gaps[i] = values[i] - gapOpeningPenalty;
       }
-      for (Integer neighbour : curr.getOutgoing()) {
-        if (!waiting.contains(neighbour)) {
-          queue.add(g.getNode(neighbour));
-          waiting.add(neighbour);
+      for (int i = lo; i <= hi; i++) {
+        if (getDirection(cell + i) == HORIZONTAL) {
+          gaps[i] = values[i] - gapExtensionPenalty;
         }
       }
-      results.put(curr.getIndex(), values);
-      gaps.put(curr.getIndex(), myGaps);
-      backPointers.put(curr.getIndex(), myBackPointers);
-      path.put(curr.getIndex(), paths);
-      waiting.remove(curr.getIndex());
-      if (values[values.length - 1] > max) {
-        max = values[values.length - 1];
-        lastNode = curr.getIndex();
+      return gaps;
+    }
+
+    /**
+     * The scores of every character of the sequence against value, computed once per value
+     */
+    private int[] getProfile(int value) {
+      int[] profile = profiles[value];
+      if (profile == null) {
+        profile = new int[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+          profile[i] = configuration.getScore(codes[i], value);
+        }
+        profiles[value] = profile;
       }
+      return profile;
     }
 
-    // Backtracks the alignment
-    int index = characters.length;
-    int[] alignmentSequence = new int[sequence.length()];
-    while (index > 0) {
-      int backPointer = backPointers.get(lastNode)[index];
-      if (backPointer == DIAGONAL) {
-        alignmentSequence[index - 1] = lastNode;
-        lastNode = path.get(lastNode)[index];
-        index--;
-      } else if (backPointer == VERTICAL) {
-        alignmentSequence[index - 1] = 0;
-        index--;
+    private void bound(int score, int index) {
+      long bound = score + (long) (characters.length - index) * maxPairwiseScore;
+      edgeBound = (int) Math.max(edgeBound, Math.min(Integer.MAX_VALUE, bound));
+    }
+
+    /**
+     * Numbers slot if it is reached for the first time and lowers its distance from start
+     */
+    private int reach(int slot, int depth) {
+      int number = getNumber(slot);
+      if (number != -1) {
+        depths[number] = Math.min(depths[number], depth);
+        return number;
+      }
+      if (numbers == null) {
+        number = slot;
       } else {
-        lastNode = path.get(lastNode)[index];
+        number = numbers.size();
+        if (number == depths.length) {
+          depths = Arrays.copyOf(depths, number * 2);
+          rows = Arrays.copyOf(rows, number * 2);
+          if (profiled) {
+            gapRows = Arrays.copyOf(gapRows, number * 2);
+          }
+          consumers = Arrays.copyOf(consumers, number * 2);
+          cells = Arrays.copyOf(cells, number * 2);
+        }
+        numbers.put(slot, number);
       }
+      depths[number] = depth;
+      return number;
     }
 
-    long time = System.nanoTime() - startTime;
-    Alignment alignment = new Alignment();
-    alignment.setScore(max);
-    alignment.setTime(time);
-    alignment.setType("Brute force");
-    alignment.setSequenceLength(characters.length);
-    alignment.setGraphSize(g.getCurrentSize());
-    alignment.setAlignment(alignmentSequence);
+    /**
+     * The index of slot in the per vertex arrays, -1 if it has not been reached
+     */
+    private int getNumber(int slot) {
+      if (numbers == null) {
+        return depths[slot] == -1 ? -1 : slot;
+      }
+      return numbers.get(slot, -1);
+    }
 
-    return alignment;
+    /**
+     * The first character computed by the vertex, at most the band width before its distance
+     */
+    private int getLow(int number) {
+      return Math.max(0, depths[number] - bandWidth);
+    }
+
+    private int getHigh(int number) {
+      return (int) Math.min(characters.length, (long) depths[number] + bandWidth);
+    }
+
+    /**
+     * Recycles the rows of the vertices preceding slot that all their successors have used
+     */
+    private void release(int slot) {
+      for (int e = compact.getIncomingStart(slot); e < compact.getIncomingEnd(slot); e++) {
+        int number = getNumber(compact.getIncoming(e));
+        if (number != -1 && rows[number] != null && --consumers[number] == 0
+            && number != startNumber) {
+          pool.push(rows[number]);
+          rows[number] = null;
+          if (profiled) {
+            pool.push(gapRows[number]);
+            gapRows[number] = null;
+          }
+        }
+      }
+    }
+
+    /**
+     * Reserves the traceback cells of one row, returns the first one
+     */
+    private long addCells() {
+      long first = cellCount;
+      cellCount += cellsPerRow;
+      if ((cellCount + 3) / 4 > directions.length) {
+        directions = Arrays.copyOf(directions,
+            (int) Math.max((cellCount + 3) / 4, directions.length * 2L));
+      }
+      return first;
+    }
+
+    private int getDirection(long cell) {
+      return (directions[(int) (cell >>> 2)] >>> ((cell & 3) << 1)) & 3;
+    }
+
+    private void setDirection(long cell, int direction) {
+      int i = (int) (cell >>> 2);
+      int shift = (int) ((cell & 3) << 1);
+      directions[i] = (byte) ((directions[i] & ~(3 << shift)) | (direction << shift));
+    }
+
+    /**
+     * The vertex preceding slot in the alignment ending at the given cell of its row
+     */
+    private int getPath(int slot, int cell) {
+      int join = joinRows.get(slot, -1);
+      if (join == -1) {
+        return compact.getIncoming(compact.getIncomingStart(slot));
+      }
+      return joinPaths.get(join)[cell];
+    }
   }
 }
@@ -0,0 +1,35 @@
+package utils;
+
+/**
+ * Encoding of bases to small integer codes. Anything that is not A, C, G or T is treated as the
+ * wildcard N.
+ */
+public class BaseUtils {
+  public static final int A = 0;
+  public static final int C = 1;
+  public static final int G = 2;
+  public static final int T = 3;
+  public static final int N = 4;
+  public static final int ALPHABET_SIZE = 5;
+
+  private static final char[] BASES = { 'A', 'C', 'G', 'T', 'N' };
+  private static final byte[] CODES = new byte[128];
+
+  static {
+    for (int i = 0; i < CODES.length; i++) {
+      CODES[i] = N;
+    }
+    CODES['A'] = A;
+    CODES['C'] = C;
+    CODES['G'] = G;
+    CODES['T'] = T;
+  }
+
+  public static int encode(char c) {
+    return c < CODES.length ? CODES[c] : N;
+  }
+
+  public static char decode(int code) {
+    return BASES[code];
+  }
+}
@@ -0,0 +1,171 @@
+package utils;
+
+/**
+ * Myers' bit-parallel edit distance, in the block form of Hyyro. A column of the dynamic
+ * programming matrix over a pattern of m characters is stored as the vertical differences
+ * D[i] - D[i - 1] of its cells: bit i - 1 of the positive words is set where the difference is
+ * +1, bit i - 1 of the negative words where it is -1. Columns are laid out as words() positive
+ * words followed by words() negative words at an offset of a long array, so that many columns
+ * can share one array.
+ *
+ * Only valid for unit costs: matches cost 0, and mismatches, insertions and deletions cost 1.
+ */
+public class BitParallel {
+  private static final int WORD = 64;
+
+  private int length;
+  private int words;
+  private long[][] equalities = new long[BaseUtils.ALPHABET_SIZE][0];
+
+  public BitParallel(char[] pattern, int length) {
+    setPattern(pattern, length);
+  }
+
+  /**
+   * Precomputes the positions of every base in pattern. N and unknown characters match nothing.
+   * Reuses the masks of the previous pattern if they are large enough.
+   */
+  public void setPattern(char[] pattern, int length) {
+    this.length = length;
+    this.words = Math.max(1, (length + WORD - 1) / WORD);
+    for (int code = 0; code < equalities.length; code++) {
+      if (equalities[code].length < words) {
+        equalities[code] = new long[words];
+      }
+      for (int w = 0; w < words; w++) {
+        equalities[code][w] = 0L;
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      int code = BaseUtils.encode(pattern[i]);
+      if (code != BaseUtils.N) {
+        equalities[code][i / WORD] |= 1L << (i % WORD);
+      }
+    }
+  }
+
+  public int length() {
+    return length;
+  }
+
+  public int words() {
+    return words;
+  }
+
+  /**
+   * The longs used by one column
+   */
+  public int columnSize() {
+    return 2 * words;
+  }
+
+  /**
+   * Writes the column where every cell is one more than the previous one
+   */
+  public void initColumn(long[] column, int offset) {
+    for (int w = 0; w < words; w++) {
+      column[offset + w] = -1L;
+      column[offset + words + w] = 0L;
+    }
+  }
+
+  /**
+   * Computes the column after src for the character c. hin is the difference between the first
+   * cells of the new and the old column: 1 for global alignment, 0 for a free start. Returns the
+   * difference between the last cells, only meaningful if the length is a multiple of 64.
+   */
+  public int advance(long[] src, int srcOffset, long[] dst, int dstOffset, char c, int hin) {
+    long[] eqs = equalities[BaseUtils.encode(c)];
+    for (int w = 0; w < words; w++) {
+      long pv = src[srcOffset + w];
+      long mv = src[srcOffset + words + w];
+      long eq = eqs[w];
+      long hinIsNeg = hin < 0 ? 1L : 0L;
+
+      long xv = eq | mv;
+      eq |= hinIsNeg;
+      long xh = (((eq & pv) + pv) ^ pv) | eq;
+      long ph = mv | ~(xh | pv);
+      long mh = pv & xh;
+      int hout = (int) (ph >>> (WORD - 1)) - (int) (mh >>> (WORD - 1));
+      ph <<= 1;
+      mh <<= 1;
+      mh |= hinIsNeg;
+      ph |= (hin + 1) >> 1;
+      dst[dstOffset + w] = mh | ~(xv | ph);
+      dst[dstOffset + words + w] = ph & xv;
+      hin = hout;
+    }
+    return hin;
+  }
+
+  /**
+   * D[i] - D[0] of the column
+   */
+  public int prefix(long[] column, int offset, int i) {
+    int sum = 0;
+    int w = 0;
+    for (; (w + 1) * WORD <= i; w++) {
+      sum += Long.bitCount(column[offset + w]) - Long.bitCount(column[offset + words + w]);
+    }
+    int rest = i - w * WORD;
+    if (rest > 0) {
+      long mask = (1L << rest) - 1;
+      sum += Long.bitCount(column[offset + w] & mask)
+          - Long.bitCount(column[offset + words + w] & mask);
+    }
+    return sum;
+  }
+
+  /**
+   * D[i] - D[i - 1] of the column
+   */
+  public int delta(long[] column, int offset, int i) {
+    int w = (i - 1) / WORD;
+    int bit = (i - 1) % WORD;
+    return (int) ((column[offset + w] >>> bit) & 1)
+        - (int) ((column[offset + words + w] >>> bit) & 1);
+  }
+
+  /**
+   * The lowest D[i] - D[0] for from <= i <= to
+   */
+  public int min(long[] column, int offset, int from, int to) {
+    int value = prefix(column, offset, from);
+    int min = value;
+    for (int i = from + 1; i <= to; i++) {
+      value += delta(column, offset, i);
+      min = Math.min(min, value);
+    }
+    return min;
+  }
+
+  /**
+   * Writes the cells D[0..length] - D[0] of the column to values
+   */
+  public void decode(long[] column, int offset, int[] values) {
+    values[0] = 0;
+    for (int i = 1; i <= length; i++) {
+      values[i] = values[i - 1] + delta(column, offset, i);
+    }
+  }
+
+  /**
+   * Encodes cells whose neighbours differ by at most one as a column
+   */
+  public void encode(int[] values, long[] column, int offset) {
+    for (int w = 0; w < 2 * words; w++) {
+      column[offset + w] = 0L;
+    }
+    for (int i = 1; i <= length; i++) {
+      int difference = values[i] - values[i - 1];
+      int w = (i - 1) / WORD;
+      long bit = 1L << ((i - 1) % WORD);
+      if (difference > 0) {
+        column[offset + w] |= bit;
+      } else if (difference < 0) {
+        column[offset + words + w] |= bit;
+      }
+    }
+  }
+}
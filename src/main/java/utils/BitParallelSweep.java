@@ -0,0 +1,245 @@
+package utils;
+
+import java.util.Arrays;
+
+import configuration.Configuration;
+import data.Alignment;
+import data.CompactGraph;
+import data.Graph;
+import data.TopologicalOrder;
+
+/**
+ * PO-MSA for unit costs with Myers' bit-parallel edit distance. Every vertex gets one column of
+ * edit distances against the whole sequence, starting at 0 since an alignment may start at any
+ * vertex. A vertex with one predecessor advances the column of its predecessor, a join first
+ * merges the columns of its predecessors into their cell-wise minimum. The tail, which scores
+ * every character aligned to it as a gain, is computed cell by cell.
+ *
+ * The columns are kept for the traceback, which recomputes the choice of the cell-by-cell sweep
+ * for the cells it passes, including its tie breaking, so the alignments are the same.
+ */
+class BitParallelSweep {
+  private static final int HORIZONTAL = 0;
+  private static final int DIAGONAL = 1;
+  private static final int VERTICAL = 2;
+  // Number of a computed vertex without a column
+  private static final int SCALAR = Integer.MAX_VALUE;
+
+  private final Graph g;
+  private final CompactGraph compact;
+  private final TopologicalOrder order;
+  private final char[] characters;
+  private final byte[] codes;
+  private final Configuration configuration;
+  private final BitParallel kernel;
+  private final int columnSize;
+
+  private final int[] numbers;
+  private long[] columns;
+  private int count;
+  private int startSlot;
+  private int[] tailScores;
+
+  private int[] merged;
+  private int[] decoded;
+  private long[] mergedColumn;
+
+  BitParallelSweep(Graph g, String sequence, Configuration configuration) {
+    this.g = g;
+    this.compact = g.getCompactGraph();
+    this.order = g.getTopologicalOrder();
+    this.characters = sequence.toCharArray();
+    this.codes = Configuration.encode(sequence);
+    this.configuration = configuration;
+    this.kernel = new BitParallel(characters, characters.length);
+    this.columnSize = kernel.columnSize();
+    this.numbers = new int[compact.getSize()];
+    Arrays.fill(numbers, -1);
+    this.columns = new long[16 * columnSize];
+    this.merged = new int[characters.length + 1];
+    this.decoded = new int[characters.length + 1];
+    this.mergedColumn = new long[columnSize];
+  }
+
+  Alignment align(int startSlot) {
+    int length = characters.length;
+    this.startSlot = startSlot;
+    boolean[] reached = new boolean[compact.getSize()];
+    int max = Integer.MIN_VALUE;
+    int lastNode = -1;
+
+    kernel.initColumn(columns, addColumn(startSlot));
+    for (int e = compact.getOutgoingStart(startSlot); e < compact.getOutgoingEnd(startSlot); e++) {
+      reached[compact.getOutgoing(e)] = true;
+    }
+
+    // Iterates over the vertices reachable from start in topological order, so that every
+    // preceding vertex has been computed
+    for (int position = order.getRank(startSlot) + 1; position < order.size(); position++) {
+      int curr = order.get(position);
+      if (!reached[curr]) {
+        continue;
+      }
+      char value = compact.getValue(curr);
+      int score;
+      if (value == Graph.TAIL_VALUE) {
+        tailScores = new int[length + 1];
+        computeTail(curr);
+        numbers[curr] = SCALAR;
+        score = tailScores[length];
+      } else {
+        int offset = addColumn(curr);
+        int preceding = -1;
+        int joined = 0;
+        for (int e = compact.getIncomingStart(curr); e < compact.getIncomingEnd(curr); e++) {
+          int neighbour = compact.getIncoming(e);
+          if (numbers[neighbour] == -1) {
+            // Not reachable from start
+            continue;
+          }
+          if (joined == 0) {
+            preceding = neighbour;
+          } else {
+            if (joined == 1) {
+              kernel.decode(columns, numbers[preceding] * columnSize, merged);
+            }
+            kernel.decode(columns, numbers[neighbour] * columnSize, decoded);
+            for (int i = 1; i <= length; i++) {
+              merged[i] = Math.min(merged[i], decoded[i]);
+            }
+          }
+          joined++;
+        }
+        if (joined == 1) {
+          kernel.advance(columns, numbers[preceding] * columnSize, columns, offset, value, 0);
+        } else {
+          kernel.encode(merged, mergedColumn, 0);
+          kernel.advance(mergedColumn, 0, columns, offset, value, 0);
+        }
+        score = -kernel.prefix(columns, offset, length);
+      }
+      for (int e = compact.getOutgoingStart(curr); e < compact.getOutgoingEnd(curr); e++) {
+        reached[compact.getOutgoing(e)] = true;
+      }
+      if (score > max) {
+        max = score;
+        lastNode = curr;
+      }
+    }
+
+    // Backtracks the alignment. The row of start only holds gaps in the graph.
+    int index = length;
+    int[] alignmentSequence = new int[length];
+    int[] choice = new int[2];
+    while (index > 0 && lastNode != -1 && lastNode != startSlot) {
+      choose(lastNode, index, choice);
+      if (choice[0] == DIAGONAL) {
+        alignmentSequence[index - 1] = compact.toIndex(lastNode);
+        lastNode = choice[1];
+        index--;
+      } else if (choice[0] == VERTICAL) {
+        alignmentSequence[index - 1] = 0;
+        index--;
+      } else {
+        lastNode = choice[1];
+      }
+    }
+
+    Alignment alignment = new Alignment();
+    alignment.setScore(max);
+    alignment.setSequenceLength(length);
+    alignment.setGraphSize(g.getCurrentSize());
+    alignment.setAlignment(alignmentSequence);
+    return alignment;
+  }
+
+  private int addColumn(int slot) {
+    if ((count + 1) * columnSize > columns.length) {
+      columns = Arrays.copyOf(columns, columns.length * 2);
+    }
+    numbers[slot] = count;
+    return count++ * columnSize;
+  }
+
+  /**
+   * The score of aligning the first i characters to end at slot, which must have been computed
+   */
+  private int getScore(int slot, int i) {
+    if (slot == startSlot) {
+      return -i;
+    }
+    if (compact.getValue(slot) == Graph.TAIL_VALUE) {
+      return tailScores[i];
+    }
+    return -kernel.prefix(columns, numbers[slot] * columnSize, i);
+  }
+
+  /**
+   * The cell-by-cell recurrence for the tail
+   */
+  private void computeTail(int slot) {
+    int value = Configuration.encode(compact.getValue(slot));
+    Arrays.fill(tailScores, Integer.MIN_VALUE);
+    tailScores[0] = 0;
+    for (int e = compact.getIncomingStart(slot); e < compact.getIncomingEnd(slot); e++) {
+      int neighbour = compact.getIncoming(e);
+      if (numbers[neighbour] == -1) {
+        continue;
+      }
+      int previous = getScore(neighbour, 0);
+      for (int i = 1; i < tailScores.length; i++) {
+        int current = getScore(neighbour, i);
+        int myMax = Math.max(tailScores[i - 1] - 1, Math.max(current - 1,
+            previous + configuration.getScore(codes[i - 1], value)));
+        tailScores[i] = Math.max(tailScores[i], myMax);
+        previous = current;
+      }
+    }
+  }
+
+  /**
+   * Finds the move into cell index of slot and the vertex it comes from. Every predecessor in
+   * turn may only replace a cell with a strictly better score, preferring a gap in the
+   * sequence, then a match, then a gap in the graph, so the move comes from the first
+   * predecessor for which the cells computed so far reach the final score.
+   */
+  private void choose(int slot, int index, int[] choice) {
+    int value = Configuration.encode(compact.getValue(slot));
+    int score = getScore(slot, index);
+    int[] partial = merged;
+    int[] best = decoded;
+    Arrays.fill(best, 0, index + 1, Integer.MIN_VALUE);
+    for (int e = compact.getIncomingStart(slot); e < compact.getIncomingEnd(slot); e++) {
+      int neighbour = compact.getIncoming(e);
+      if (numbers[neighbour] == -1 || order.getRank(neighbour) > order.getRank(slot)) {
+        // Not reachable from start, or computed after slot
+        continue;
+      }
+      partial[0] = 0;
+      int previous = getScore(neighbour, 0);
+      for (int i = 1; i <= index; i++) {
+        int current = getScore(neighbour, i);
+        best[i] = Math.max(best[i], Math.max(current - 1,
+            previous + configuration.getScore(codes[i - 1], value)));
+        partial[i] = Math.max(partial[i - 1] - 1, best[i]);
+        previous = current;
+      }
+      if (partial[index] == score) {
+        int horizontalScore = getScore(neighbour, index) - 1;
+        int diagonalScore = getScore(neighbour, index - 1)
+            + configuration.getScore(codes[index - 1], value);
+        if (score == horizontalScore) {
+          choice[0] = HORIZONTAL;
+        } else if (score == diagonalScore) {
+          choice[0] = DIAGONAL;
+        } else {
+          choice[0] = VERTICAL;
+        }
+        choice[1] = neighbour;
+        return;
+      }
+    }
+    choice[0] = VERTICAL;
+    choice[1] = -1;
+  }
+}
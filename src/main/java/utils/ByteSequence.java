@@ -0,0 +1,44 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A sequence of bases stored as one byte per base, used instead of a String for inputs too large
+ * to hold as chars
+ */
+public class ByteSequence implements CharSequence {
+  private final byte[] bases;
+  private final int offset;
+  private final int length;
+
+  public ByteSequence(byte[] bases, int offset, int length) {
+    this.bases = bases;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public int length() {
+    return length;
+  }
+
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of sequence of length "
+          + length);
+    }
+    return (char) bases[offset + index];
+  }
+
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("Range " + start + "-" + end
+          + " out of sequence of length " + length);
+    }
+    return new ByteSequence(bases, offset + start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    return new String(bases, offset, length, StandardCharsets.US_ASCII);
+  }
+}
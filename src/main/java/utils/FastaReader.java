@@ -0,0 +1,148 @@
+package utils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming parser of multi-record FASTA files, optionally gzip compressed. Bases are upper
+ * cased and stored one byte each, and line breaks and whitespace are dropped. Content before the
+ * first header, or a file without headers, is read as a record with an empty name.
+ */
+public class FastaReader implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int INITIAL_SEQUENCE_SIZE = 1 << 16;
+
+  private final InputStream in;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private int limit;
+
+  private String name;
+  private byte[] sequence = new byte[0];
+  private int length;
+
+  public FastaReader(String fileName) throws IOException {
+    InputStream file = new BufferedInputStream(new FileInputStream(fileName), BUFFER_SIZE);
+    try {
+      file.mark(2);
+      boolean gzip = file.read() == 0x1f && file.read() == 0x8b;
+      file.reset();
+      in = gzip ? new GZIPInputStream(file, BUFFER_SIZE) : file;
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads every remaining record of fileName into one sequence
+   */
+  public static ByteSequence readAll(String fileName) throws IOException {
+    FastaReader reader = new FastaReader(fileName);
+    try {
+      while (reader.readRecord(true)) {
+        // Appends the record to the sequence
+      }
+      return reader.getSequence();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Advances to the next record. Returns false when there are no more records.
+   */
+  public boolean next() throws IOException {
+    return readRecord(false);
+  }
+
+  /**
+   * The header of the current record, without the leading '>'
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * The bases of the current record. Stays valid after the reader has advanced.
+   */
+  public ByteSequence getSequence() {
+    return new ByteSequence(sequence, 0, length);
+  }
+
+  private boolean readRecord(boolean append) throws IOException {
+    int b = peek();
+    while (b == '\n' || b == '\r' || b == ' ' || b == '\t') {
+      position++;
+      b = peek();
+    }
+    if (b == -1) {
+      return false;
+    }
+    if (b == '>') {
+      position++;
+      name = readLine().trim();
+    } else {
+      name = "";
+    }
+    if (!append) {
+      sequence = new byte[INITIAL_SEQUENCE_SIZE];
+      length = 0;
+    }
+
+    boolean lineStart = true;
+    while ((b = peek()) != -1) {
+      if (lineStart && b == '>') {
+        break;
+      }
+      position++;
+      if (b == '\n') {
+        lineStart = true;
+        continue;
+      }
+      lineStart = false;
+      if (b == '\r' || b == ' ' || b == '\t') {
+        continue;
+      }
+      if (length == sequence.length) {
+        sequence = Arrays.copyOf(sequence, Math.max(INITIAL_SEQUENCE_SIZE, length * 2));
+      }
+      sequence[length++] = (byte) (b >= 'a' && b <= 'z' ? b - ('a' - 'A') : b);
+    }
+    return true;
+  }
+
+  private String readLine() throws IOException {
+    StringBuilder line = new StringBuilder();
+    int b;
+    while ((b = peek()) != -1) {
+      position++;
+      if (b == '\n') {
+        break;
+      }
+      line.append((char) b);
+    }
+    return line.toString();
+  }
+
+  private int peek() throws IOException {
+    if (position == limit) {
+      limit = in.read(buffer, 0, buffer.length);
+      position = 0;
+      if (limit <= 0) {
+        limit = 0;
+        return -1;
+      }
+    }
+    return buffer[position] & 0xff;
+  }
+
+  public void close() throws IOException {
+    in.close();
+  }
+}
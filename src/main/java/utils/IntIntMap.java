@@ -0,0 +1,120 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from int to int, iterable in insertion order and cleared in time
+ * proportional to its size, so that one instance can be reused across searches
+ */
+public class IntIntMap {
+  private static final int FREE = Integer.MIN_VALUE;
+
+  private int[] keys;
+  private int[] values;
+  private int[] order;
+  private int size;
+
+  public IntIntMap() {
+    this(16);
+  }
+
+  public IntIntMap(int capacity) {
+    int tableSize = 1;
+    while (tableSize < capacity * 2) {
+      tableSize <<= 1;
+    }
+    keys = new int[tableSize];
+    values = new int[tableSize];
+    order = new int[tableSize / 2];
+    Arrays.fill(keys, FREE);
+  }
+
+  private int slot(int key) {
+    int mask = keys.length - 1;
+    int hash = key * 0x9E3779B9;
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    while (keys[slot] != FREE && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  public boolean containsKey(int key) {
+    return keys[slot(key)] == key;
+  }
+
+  /**
+   * The value of key, or missing if the key is not present
+   */
+  public int get(int key, int missing) {
+    int slot = slot(key);
+    return keys[slot] == key ? values[slot] : missing;
+  }
+
+  public void put(int key, int value) {
+    int slot = slot(key);
+    if (keys[slot] == FREE) {
+      if (size == order.length) {
+        grow();
+        slot = slot(key);
+      }
+      keys[slot] = key;
+      order[size++] = slot;
+    }
+    values[slot] = value;
+  }
+
+  /**
+   * Stores value unless key already maps to a value at least as large
+   */
+  public void putMax(int key, int value) {
+    int slot = slot(key);
+    if (keys[slot] != FREE && values[slot] >= value) {
+      return;
+    }
+    put(key, value);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The i-th key in insertion order
+   */
+  public int keyAt(int i) {
+    return keys[order[i]];
+  }
+
+  /**
+   * The value of the i-th key in insertion order
+   */
+  public int valueAt(int i) {
+    return values[order[i]];
+  }
+
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      keys[order[i]] = FREE;
+    }
+    size = 0;
+  }
+
+  private void grow() {
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+    int[] oldOrder = order;
+    int oldSize = size;
+    keys = new int[oldKeys.length * 2];
+    values = new int[oldValues.length * 2];
+    order = new int[oldOrder.length * 2];
+    Arrays.fill(keys, FREE);
+    size = 0;
+    for (int i = 0; i < oldSize; i++) {
+      int slot = slot(oldKeys[oldOrder[i]]);
+      keys[slot] = oldKeys[oldOrder[i]];
+      values[slot] = oldValues[oldOrder[i]];
+      order[size++] = slot;
+    }
+  }
+}
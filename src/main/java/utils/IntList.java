@@ -0,0 +1,50 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, used where boxed collections would dominate the cost
+ */
+public class IntList {
+  private int[] values;
+  private int size;
+
+  public IntList() {
+    this(16);
+  }
+
+  public IntList(int capacity) {
+    values = new int[Math.max(1, capacity)];
+  }
+
+  public void add(int value) {
+    if (size == values.length) {
+      values = Arrays.copyOf(values, size * 2);
+    }
+    values[size++] = value;
+  }
+
+  public int get(int index) {
+    return values[index];
+  }
+
+  public void set(int index, int value) {
+    values[index] = value;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  public int[] toArray() {
+    return Arrays.copyOf(values, size);
+  }
+}
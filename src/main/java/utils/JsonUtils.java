@@ -0,0 +1,226 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reading and writing for the alignment server. Objects are read as maps, arrays
+ * as lists, numbers as doubles, and true, false and null as Boolean and null.
+ */
+public class JsonUtils {
+  private final String text;
+  private int position;
+
+  private JsonUtils(String text) {
+    this.text = text;
+  }
+
+  /**
+   * Reads a JSON value, throwing IllegalArgumentException if text is not valid JSON
+   */
+  public static Object parse(String text) {
+    JsonUtils reader = new JsonUtils(text);
+    Object value = reader.readValue();
+    reader.skipWhitespace();
+    if (reader.position != text.length()) {
+      throw reader.error("Unexpected trailing characters");
+    }
+    return value;
+  }
+
+  /**
+   * The string as a quoted JSON string
+   */
+  public static String quote(String s) {
+    StringBuilder builder = new StringBuilder(s.length() + 2);
+    builder.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          builder.append("\\\"");
+          break;
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            builder.append(String.format("\\u%04x", (int) c));
+          } else {
+            builder.append(c);
+          }
+      }
+    }
+    return builder.append('"').toString();
+  }
+
+  private Object readValue() {
+    skipWhitespace();
+    if (position == text.length()) {
+      throw error("Unexpected end of input");
+    }
+    char c = text.charAt(position);
+    if (c == '{') {
+      return readObject();
+    } else if (c == '[') {
+      return readArray();
+    } else if (c == '"') {
+      return readString();
+    } else if (text.startsWith("true", position)) {
+      position += 4;
+      return Boolean.TRUE;
+    } else if (text.startsWith("false", position)) {
+      position += 5;
+      return Boolean.FALSE;
+    } else if (text.startsWith("null", position)) {
+      position += 4;
+      return null;
+    }
+    return readNumber();
+  }
+
+  private Map<String, Object> readObject() {
+    Map<String, Object> object = new LinkedHashMap<String, Object>();
+    position++;
+    skipWhitespace();
+    if (peek() == '}') {
+      position++;
+      return object;
+    }
+    while (true) {
+      skipWhitespace();
+      if (peek() != '"') {
+        throw error("Expected a key");
+      }
+      String key = readString();
+      skipWhitespace();
+      expect(':');
+      object.put(key, readValue());
+      skipWhitespace();
+      if (peek() == ',') {
+        position++;
+      } else {
+        expect('}');
+        return object;
+      }
+    }
+  }
+
+  private List<Object> readArray() {
+    List<Object> array = new ArrayList<Object>();
+    position++;
+    skipWhitespace();
+    if (peek() == ']') {
+      position++;
+      return array;
+    }
+    while (true) {
+      array.add(readValue());
+      skipWhitespace();
+      if (peek() == ',') {
+        position++;
+      } else {
+        expect(']');
+        return array;
+      }
+    }
+  }
+
+  private String readString() {
+    StringBuilder builder = new StringBuilder();
+    position++;
+    while (true) {
+      if (position == text.length()) {
+        throw error("Unterminated string");
+      }
+      char c = text.charAt(position++);
+      if (c == '"') {
+        return builder.toString();
+      } else if (c != '\\') {
+        builder.append(c);
+        continue;
+      }
+      if (position == text.length()) {
+        throw error("Unterminated string");
+      }
+      char escaped = text.charAt(position++);
+      switch (escaped) {
+        case 'b':
+          builder.append('\b');
+          break;
+        case 'f':
+          builder.append('\f');
+          break;
+        case 'n':
+          builder.append('\n');
+          break;
+        case 'r':
+          builder.append('\r');
+          break;
+        case 't':
+          builder.append('\t');
+          break;
+        case 'u':
+          if (position + 4 > text.length()) {
+            throw error("Invalid unicode escape");
+          }
+          try {
+            builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+          } catch (NumberFormatException e) {
+            throw error("Invalid unicode escape");
+          }
+          position += 4;
+          break;
+        default:
+          builder.append(escaped);
+      }
+    }
+  }
+
+  private Double readNumber() {
+    int start = position;
+    while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+      position++;
+    }
+    try {
+      return Double.valueOf(text.substring(start, position));
+    } catch (NumberFormatException e) {
+      throw error("Unexpected character");
+    }
+  }
+
+  private char peek() {
+    if (position == text.length()) {
+      throw error("Unexpected end of input");
+    }
+    return text.charAt(position);
+  }
+
+  private void expect(char c) {
+    if (peek() != c) {
+      throw error("Expected '" + c + "'");
+    }
+    position++;
+  }
+
+  private void skipWhitespace() {
+    while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+      position++;
+    }
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at position " + position);
+  }
+}
@@ -0,0 +1,178 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing set of contexts of at most a fixed number of bases, packed three bits per
+ * base code of BaseUtils, twenty-one bases per long, first base in the lowest bits. Contexts are
+ * kept densely in insertion order, so that they can be iterated by index and passed on as an
+ * offset into the packed array, and the set is cleared in time proportional to its size so that
+ * one instance can be reused.
+ */
+public class KmerSet {
+  public static final int BASES_PER_WORD = 21;
+  private static final int BITS_PER_BASE = 3;
+  private static final long BASE_MASK = (1L << BITS_PER_BASE) - 1;
+  private static final long WORD_MASK = (1L << (BITS_PER_BASE * BASES_PER_WORD)) - 1;
+
+  private final int words;
+  private long[] kmers;
+  private int[] lengths;
+  private int[] slots;
+  private int[] table;
+  private int size;
+
+  /**
+   * A set of contexts of at most maxLength bases
+   */
+  public KmerSet(int maxLength) {
+    this.words = getWords(maxLength);
+    kmers = new long[4 * words];
+    lengths = new int[4];
+    slots = new int[4];
+    table = new int[8];
+  }
+
+  /**
+   * The longs used by a context of length bases
+   */
+  public static int getWords(int length) {
+    return Math.max(1, (length + BASES_PER_WORD - 1) / BASES_PER_WORD);
+  }
+
+  /**
+   * The code of base i of the context at offset of kmers
+   */
+  public static int getCode(long[] kmers, int offset, int i) {
+    return (int) ((kmers[offset + i / BASES_PER_WORD] >>> (BITS_PER_BASE * (i % BASES_PER_WORD)))
+        & BASE_MASK);
+  }
+
+  /**
+   * Writes code followed by the first length bases of the context at offset of src to dst,
+   * keeping at most maxLength bases. Returns the length of the new context.
+   */
+  public static int prepend(int code, long[] src, int offset, int length, long[] dst,
+      int maxLength) {
+    int words = dst.length;
+    long carry = code;
+    for (int w = 0; w < words; w++) {
+      long word = src[offset + w];
+      dst[w] = ((word << BITS_PER_BASE) | carry) & WORD_MASK;
+      carry = word >>> (BITS_PER_BASE * (BASES_PER_WORD - 1));
+    }
+    int newLength = Math.min(length + 1, maxLength);
+    int full = newLength / BASES_PER_WORD;
+    if (full < words) {
+      dst[full] &= (1L << (BITS_PER_BASE * (newLength % BASES_PER_WORD))) - 1;
+      for (int w = full + 1; w < words; w++) {
+        dst[w] = 0L;
+      }
+    }
+    return newLength;
+  }
+
+  /**
+   * Decodes the context at offset of kmers
+   */
+  public static String toString(long[] kmers, int offset, int length) {
+    char[] bases = new char[length];
+    for (int i = 0; i < length; i++) {
+      bases[i] = BaseUtils.decode(getCode(kmers, offset, i));
+    }
+    return new String(bases);
+  }
+
+  public int getWords() {
+    return words;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * The packed contexts, the one of index i at offset i * getWords()
+   */
+  public long[] getKmers() {
+    return kmers;
+  }
+
+  public int getLength(int i) {
+    return lengths[i];
+  }
+
+  private int slot(long[] src, int offset, int length) {
+    long hash = length;
+    for (int w = 0; w < words; w++) {
+      hash = (hash + src[offset + w]) * 0x9E3779B97F4A7C15L;
+    }
+    int mask = table.length - 1;
+    int slot = (int) (hash ^ (hash >>> 32)) & mask;
+    while (table[slot] != 0 && !matches(table[slot] - 1, src, offset, length)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private boolean matches(int entry, long[] src, int offset, int length) {
+    if (lengths[entry] != length) {
+      return false;
+    }
+    for (int w = 0; w < words; w++) {
+      if (kmers[entry * words + w] != src[offset + w]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean contains(long[] src, int offset, int length) {
+    return table[slot(src, offset, length)] != 0;
+  }
+
+  /**
+   * Adds the context at offset of src, returns true if it was not already present
+   */
+  public boolean add(long[] src, int offset, int length) {
+    int slot = slot(src, offset, length);
+    if (table[slot] != 0) {
+      return false;
+    }
+    if (size == lengths.length) {
+      grow();
+      slot = slot(src, offset, length);
+    }
+    System.arraycopy(src, offset, kmers, size * words, words);
+    lengths[size] = length;
+    slots[size] = slot;
+    table[slot] = ++size;
+    return true;
+  }
+
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      table[slots[i]] = 0;
+    }
+    size = 0;
+  }
+
+  private void grow() {
+    int capacity = lengths.length * 2;
+    kmers = Arrays.copyOf(kmers, capacity * words);
+    lengths = Arrays.copyOf(lengths, capacity);
+    slots = Arrays.copyOf(slots, capacity);
+    table = new int[capacity * 2];
+    int entries = size;
+    size = 0;
+    for (int i = 0; i < entries; i++) {
+      int slot = slot(kmers, i * words, lengths[i]);
+      slots[i] = slot;
+      table[slot] = ++size;
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package utils;
 
+import java.io.PrintStream;
+
 /**
  * Created by esten on 11.04.16.
  */
@@ -8,6 +10,32 @@ public class LogUtils {
   public static final int WARNING = 1;
   public static final int ERROR = 2;
 
+  private static volatile int level = INFO;
+  private static volatile PrintStream stream = System.out;
+
+  /**
+   * Suppresses messages below the given level, e.g. per read messages when aligning in batch
+   */
+  public static void setLevel(int level) {
+    LogUtils.level = level;
+  }
+
+  public static int getLevel() {
+    return level;
+  }
+
+  /**
+   * Prints messages to the given stream instead of standard out, e.g. to standard error when
+   * standard out holds results
+   */
+  public static void setStream(PrintStream stream) {
+    LogUtils.stream = stream;
+  }
+
+  public static PrintStream getStream() {
+    return stream;
+  }
+
   public static void print(int level, String message) {
     if (level == INFO) {
       printInfo(message);
@@ -21,14 +49,20 @@ public class LogUtils {
   }
 
   public static void printInfo(String message) {
-    System.out.printf("%-10s%s\n", "[INFO]", message);
+    if (level > INFO) {
+      return;
+    }
+    stream.printf("%-10s%s\n", "[INFO]", message);
   }
 
   public static void printWarning(String message) {
-    System.out.printf("%-10s%s\n", "[WARNING]", message);
+    if (level > WARNING) {
+      return;
+    }
+    stream.printf("%-10s%s\n", "[WARNING]", message);
   }
 
   public static void printError(String message) {
-    System.out.printf("%-10s%s\n", "[ERROR]", message);
+    stream.printf("%-10s%s\n", "[ERROR]", message);
   }
 }
@@ -10,47 +10,29 @@ import data.Graph;
 import data.Node;
 
 public class ParseUtils {
-  public static Graph stringToGraph(Configuration configuration, String s) {
+  public static Graph stringToGraph(Configuration configuration, CharSequence s) {
     Graph graph = new Graph(configuration, GraphUtils.getGraphSize(s.length() * 2));
-    Node prev = graph.getHead();
-    char[] chars = s.toCharArray();
-    for (int i = 0; i < chars.length; i++) {
-      Node curr = new Node(chars[i]);
-      int index = graph.addNode(curr);
-      prev.addOutgoing(index);
-      curr.addIncoming(prev.getIndex());
-      prev = curr;
+    int prev = Graph.HEAD_INDEX;
+    for (int i = 0; i < s.length(); i++) {
+      int index = graph.addNode(new Node(s.charAt(i)));
+      graph.addEdge(prev, index);
+      prev = index;
     }
-    Node tail = graph.getTail();
-    tail.addIncoming(prev.getIndex());
-    prev.addOutgoing(tail.getIndex());
+    graph.addEdge(prev, Graph.TAIL_INDEX);
 
     return graph;
   }
 
+  /**
+   * The bases of every record of a FASTA file, concatenated
+   */
   public static String fastaToSequence(String fileName) throws IOException {
-    BufferedReader reader = new BufferedReader(new FileReader(new File(fileName)));
-    String header = reader.readLine();
-    String sequence = "";
-    String line;
-    int read = 0;
-    while ((line = reader.readLine()) != null) {
-      read++;
-      if (read % 1000 == 0) {
-        LogUtils.printInfo("Read " + read + " lines");
-      }
-      for (Character c : line.trim().toCharArray()) {
-        sequence += Character.toUpperCase(c);
-      }
-    }
-    reader.close();
-
-    return sequence;
+    return FastaReader.readAll(fileName).toString();
   }
 
   public static Graph fastaToGraph(Configuration configuration, String fileName)
       throws IOException {
-    return stringToGraph(configuration, fastaToSequence(fileName));
+    return stringToGraph(configuration, FastaReader.readAll(fileName));
   }
 
   public static int parseInt(String s) {
@@ -0,0 +1,78 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Reads one read at a time from a multi-record FASTA file, a FASTQ file or a file with one read
+ * per line, as written by ReadGenerator. The format is decided by the first character of the
+ * file.
+ */
+public class ReadReader implements Closeable {
+  private final BufferedReader reader;
+  private String pending;
+  private String name;
+  private int count;
+
+  public ReadReader(String fileName) throws IOException {
+    reader = new BufferedReader(new FileReader(new File(fileName)));
+    pending = nextLine();
+  }
+
+  /**
+   * The next read in upper case, or null when the file is exhausted
+   */
+  public String nextRead() throws IOException {
+    if (pending == null) {
+      return null;
+    }
+    count++;
+    String read;
+    if (pending.startsWith(">")) {
+      name = pending.substring(1).trim();
+      StringBuilder sequence = new StringBuilder();
+      while ((pending = nextLine()) != null && !pending.startsWith(">")) {
+        sequence.append(pending);
+      }
+      read = sequence.toString();
+    } else if (pending.startsWith("@")) {
+      name = pending.substring(1).trim();
+      read = reader.readLine();
+      if (read == null || reader.readLine() == null || reader.readLine() == null) {
+        throw new IOException("Truncated FASTQ record " + name);
+      }
+      read = read.trim();
+      pending = nextLine();
+    } else {
+      name = "read_" + count;
+      read = pending;
+      pending = nextLine();
+    }
+    return read.toUpperCase();
+  }
+
+  /**
+   * The name of the last read returned by nextRead
+   */
+  public String getName() {
+    return name;
+  }
+
+  private String nextLine() throws IOException {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (!line.isEmpty()) {
+        return line;
+      }
+    }
+    return null;
+  }
+
+  public void close() throws IOException {
+    reader.close();
+  }
+}
@@ -13,4 +13,16 @@ public class StringUtils {
     }
     return new String(reversed);
   }
+
+  /**
+   * The length of the longest common prefix of a and b
+   */
+  public static int commonPrefix(String a, String b) {
+    int length = Math.min(a.length(), b.length());
+    int i = 0;
+    while (i < length && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    return i;
+  }
 }
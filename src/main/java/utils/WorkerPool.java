@@ -0,0 +1,40 @@
+package utils;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The fork/join pool shared by all parallel work, so that nested parallel tasks are bounded by
+ * one set of worker threads instead of spawning their own
+ */
+public class WorkerPool {
+  private static int parallelism = Runtime.getRuntime().availableProcessors();
+  private static ForkJoinPool pool;
+
+  public static synchronized ForkJoinPool getPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(parallelism);
+    }
+    return pool;
+  }
+
+  public static synchronized int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Sets the number of worker threads, replacing the pool if it has already been started
+   */
+  public static synchronized void setParallelism(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Number of threads must be positive, was " + threads);
+    }
+    if (threads == parallelism) {
+      return;
+    }
+    parallelism = threads;
+    if (pool != null) {
+      pool.shutdown();
+      pool = null;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import configuration.LastzConfiguration;
+import data.Alignment;
+import data.Graph;
+import utils.AlignmentUtils;
+import utils.ParseUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AlignmentKernels {
+  private static final String SEQUENCE =
+      "ACGTATTACGGATCAGTTACCATGAGGCTTACAAGTCGATCCGATTGACCTAGGACTTCAGGTACCGTTAGCA";
+  private static final String READ = "CAGTTACCGTGAGGCTTAGGCAAGTTGATCCNATTG";
+
+  @Test
+  public void profileEqualsScalarLastz() {
+    assertKernelsEqual(new LastzConfiguration(), new LastzConfiguration());
+  }
+
+  @Test
+  public void profileEqualsScalarEditDistance() {
+    assertKernelsEqual(new EditDistanceConfiguration(), new EditDistanceConfiguration());
+  }
+
+  private static void assertKernelsEqual(Configuration scalar, Configuration profile) {
+    scalar.setAlignmentKernel(Configuration.ALIGNMENT_KERNEL_SCALAR);
+    scalar.setBandWidth(2);
+    profile.setBandWidth(2);
+    Graph graph = ParseUtils.stringToGraph(scalar, SEQUENCE);
+    graph.addSNP('G', 20);
+    graph.addInsertion("GTA", 33);
+    graph.addDeletion("AG", 40);
+
+    Alignment expected = AlignmentUtils.align(graph, READ, scalar);
+    Alignment actual = AlignmentUtils.align(graph, READ, profile);
+    assertEquals(expected.getScore(), actual.getScore(), 0.0);
+    assertArrayEquals(expected.getAlignment(), actual.getAlignment());
+
+    expected = AlignmentUtils.alignBanded(graph, 9, READ, scalar);
+    actual = AlignmentUtils.alignBanded(graph, 9, READ, profile);
+    assertEquals(expected.getScore(), actual.getScore(), 0.0);
+    assertArrayEquals(expected.getAlignment(), actual.getAlignment());
+  }
+}
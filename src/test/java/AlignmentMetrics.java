@@ -0,0 +1,140 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import data.Graph;
+import index.FuzzySearchIndex;
+import metrics.Histogram;
+import metrics.Metrics;
+import metrics.MetricsReporter;
+import metrics.StripedCounter;
+import utils.ParseUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AlignmentMetrics {
+  @Test
+  public void countsAlignmentWork() throws Exception {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(5);
+    configuration.setErrorMargin(1);
+    String sequence = "ACGTATTACGGATCAGTTACCATGAGGCTTACAAGTCGATCCGATTGACCTAGG";
+    Graph graph = ParseUtils.stringToGraph(configuration, sequence);
+    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+    Metrics.reset();
+    index.align("ACGGATCAGTTAGCATGAGGCTTAC");
+    index.align("TTACAAGTCGATCCGATTG");
+
+    Map<String, Long> snapshot = Metrics.snapshot();
+    assertEquals(2L, (long) snapshot.get("alignmentNanos.count"));
+    assertEquals(2L, (long) snapshot.get("backtrackNanos.count"));
+    assertEquals(44L, (long) snapshot.get("positions"));
+    assertEquals(44L, (long) snapshot.get("candidatesPerPosition.count"));
+    assertTrue(snapshot.get("trieNodesVisited") > 0);
+    assertTrue(snapshot.get("trieNodesPruned") > 0);
+    assertTrue(snapshot.get("distanceQueries") > 0);
+    assertTrue(snapshot.get("contextSearchNanos.p99") <= snapshot.get("contextSearchNanos.max"));
+
+    Metrics.registerMBean();
+    Object positions = ManagementFactory.getPlatformMBeanServer()
+        .getAttribute(new ObjectName(Metrics.OBJECT_NAME), "positions");
+    assertEquals(44L, positions);
+  }
+
+  @Test
+  public void histogramPercentiles() {
+    Histogram histogram = new Histogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500500, histogram.getMean());
+    assertEquals(1000000, histogram.getMax());
+    long median = histogram.getPercentile(50);
+    assertTrue(median >= 500000 && median <= 500000 * 1.07);
+    long p99 = histogram.getPercentile(99);
+    assertTrue(p99 >= 990000 && p99 <= 1000000);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(50));
+  }
+
+  @Test
+  public void stripedCounterSumsThreads() throws InterruptedException {
+    final StripedCounter counter = new StripedCounter();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            counter.increment();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(80000, counter.sum());
+  }
+
+  @Test
+  public void histogramSumsThreads() throws InterruptedException {
+    final Histogram histogram = new Histogram();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final long value = (t + 1) * 100L;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            histogram.record(value);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(80000, histogram.getCount());
+    assertEquals(800, histogram.getPercentile(100));
+    long median = histogram.getPercentile(50);
+    assertTrue(median >= 400 && median <= 400 * 1.07);
+    histogram.reset();
+    assertEquals(0, histogram.getPercentile(100));
+  }
+
+  @Test
+  public void reportsCsv() throws IOException {
+    File file = File.createTempFile("metrics", ".csv");
+    file.deleteOnExit();
+    MetricsReporter reporter = new MetricsReporter(file.getAbsolutePath(), 60);
+    reporter.report();
+    reporter.report();
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      String header = reader.readLine();
+      assertTrue(header.startsWith("time,positions,"));
+      int columns = header.split(",").length;
+      assertEquals(columns, reader.readLine().split(",").length);
+      assertEquals(columns, reader.readLine().split(",").length);
+      assertEquals(null, reader.readLine());
+    } finally {
+      reader.close();
+      file.delete();
+    }
+  }
+}
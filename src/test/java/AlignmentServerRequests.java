@@ -0,0 +1,143 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import data.Graph;
+import index.AlignmentServer;
+import index.FuzzySearchIndex;
+import utils.JsonUtils;
+import utils.ParseUtils;
+import utils.TestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AlignmentServerRequests {
+  private String sequence;
+  private FuzzySearchIndex index;
+  private AlignmentServer server;
+
+  private void startServer() throws IOException {
+    sequence = TestUtils.generateRandomString(new Random(5), 500);
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(6);
+    configuration.setErrorMargin(1);
+    Graph graph = ParseUtils.stringToGraph(configuration, sequence);
+    index = FuzzySearchIndex.buildIndex(graph, configuration);
+    Map<String, FuzzySearchIndex> indexes = new LinkedHashMap<String, FuzzySearchIndex>();
+    indexes.put("random", index);
+    server = new AlignmentServer(indexes, null, "localhost", 0);
+    server.start();
+  }
+
+  @Test
+  public void alignsSingleRead() throws IOException {
+    startServer();
+    try {
+      String read = sequence.substring(100, 160);
+      Map<?, ?> response = (Map<?, ?>) JsonUtils.parse(request("POST", "/align",
+          "{\"name\": \"first\", \"sequence\": \"" + read + "\"}", 200));
+      assertEquals("first", response.get("name"));
+      assertEquals(toList(index.align(read).getAlignment()), response.get("alignment"));
+      assertEquals(0.0, response.get("score"));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void alignsBatchInOrder() throws IOException {
+    startServer();
+    try {
+      Random random = new Random(9);
+      StringBuilder body = new StringBuilder("{\"index\": \"random\", \"reads\": [");
+      List<String> reads = new ArrayList<String>();
+      for (int i = 0; i < 8; i++) {
+        int start = random.nextInt(sequence.length() - 50);
+        char[] read = sequence.substring(start, start + 50).toCharArray();
+        read[random.nextInt(read.length)] = "ACGT".charAt(random.nextInt(4));
+        reads.add(new String(read));
+        body.append(i > 0 ? "," : "").append(i % 2 == 0
+            ? "{\"name\": \"r" + i + "\", \"sequence\": \"" + reads.get(i) + "\"}"
+            : "\"" + reads.get(i) + "\"");
+      }
+      body.append("]}");
+      Map<?, ?> response = (Map<?, ?>) JsonUtils.parse(request("POST", "/align",
+          body.toString(), 200));
+      List<?> results = (List<?>) response.get("results");
+      assertEquals(reads.size(), results.size());
+      for (int i = 0; i < reads.size(); i++) {
+        Map<?, ?> result = (Map<?, ?>) results.get(i);
+        assertEquals(i % 2 == 0 ? "r" + i : null, result.get("name"));
+        assertEquals(toList(index.align(reads.get(i)).getAlignment()), result.get("alignment"));
+      }
+
+      Map<?, ?> stats = (Map<?, ?>) JsonUtils.parse(request("GET", "/stats", null, 200));
+      assertEquals(8.0, stats.get("reads"));
+      assertEquals(0.0, stats.get("inFlightReads"));
+      assertTrue((Double) ((Map<?, ?>) stats.get("readLatency")).get("p99") > 0);
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void rejectsInvalidRequests() throws IOException {
+    startServer();
+    try {
+      request("POST", "/align", "{\"sequence\": ", 400);
+      request("POST", "/align", "{\"name\": \"empty\"}", 400);
+      request("POST", "/align", "{\"index\": \"unknown\", \"sequence\": \"ACGT\"}", 404);
+      request("GET", "/align", null, 405);
+      assertEquals("{\"indexes\":[\"random\"]}", request("GET", "/indexes", null, 200));
+      Map<?, ?> stats = (Map<?, ?>) JsonUtils.parse(request("GET", "/stats", null, 200));
+      assertEquals(4.0, stats.get("errors"));
+      assertEquals(0.0, stats.get("inFlightRequests"));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private String request(String method, String path, String body, int status)
+      throws IOException {
+    URL url = new URL("http://localhost:" + server.getPort() + path);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod(method);
+    if (body != null) {
+      connection.setDoOutput(true);
+      OutputStream out = connection.getOutputStream();
+      out.write(body.getBytes("UTF-8"));
+      out.close();
+    }
+    assertEquals(status, connection.getResponseCode());
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      response.write(buffer, 0, read);
+    }
+    in.close();
+    return response.toString("UTF-8");
+  }
+
+  private static List<Double> toList(int[] alignment) {
+    List<Double> list = new ArrayList<Double>();
+    for (int vertex : alignment) {
+      list.add((double) vertex);
+    }
+    return list;
+  }
+}
@@ -0,0 +1,49 @@
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import data.Alignment;
+import data.Graph;
+import index.FuzzySearchIndex;
+import utils.AlignmentUtils;
+import utils.ParseUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BandedAlignment {
+  private static final String SEQUENCE =
+      "ACGTATTACGGATCAGTTACCATGAGGCTTACAAGTCGATCCGATTGACCTAGGACTTCAGGTACCGTTAGCA";
+
+  @Test
+  public void matchesFullAlignment() {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(5);
+    configuration.setErrorMargin(1);
+    Graph graph = ParseUtils.stringToGraph(configuration, SEQUENCE);
+    graph.addSNP('G', 20);
+    graph.addSNP('T', 33);
+    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+
+    String read = "CAGTTACCGTGAGGCTTACAAGTTGATCC";
+    Alignment full = AlignmentUtils.align(graph, read, configuration);
+    Alignment banded = AlignmentUtils.alignBanded(graph, index.align(read).getAlignment(), read,
+        configuration);
+    assertEquals(full.getScore(), banded.getScore(), 0.0);
+    assertArrayEquals(full.getAlignment(), banded.getAlignment());
+  }
+
+  @Test
+  public void widensBand() {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setBandWidth(1);
+    Graph graph = ParseUtils.stringToGraph(configuration, SEQUENCE);
+
+    // Six inserted characters move the alignment off the diagonal
+    String read = "GGATCAGTTACCAGGTCATGAGGCTTACAAGTC";
+    Alignment full = AlignmentUtils.align(graph, read, configuration);
+    Alignment banded = AlignmentUtils.alignBanded(graph, 9, read, configuration);
+    assertEquals(full.getScore(), banded.getScore(), 0.0);
+    assertArrayEquals(full.getAlignment(), banded.getAlignment());
+  }
+}
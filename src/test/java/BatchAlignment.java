@@ -0,0 +1,157 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import data.Alignment;
+import data.Graph;
+import index.BatchAligner;
+import index.FuzzySearchIndex;
+import utils.ParseUtils;
+import utils.ReadReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchAlignment {
+  private static final String SEQUENCE = "ACGTATTACGGATCAGTTACCATGAGGCTTACAAGTCGATCCGA";
+  private static final String[] READS = { "ACGTATTACGGATC", "GATCAGTTACCATG", "GCTTACAAGTCGAT",
+      "TTACGGATCTGTTA" };
+
+  @Test
+  public void readsAllFormats() throws IOException {
+    assertReads(write("ACGTA\n\nCCGT\n"), new String[] { "read_1", "read_2" },
+        new String[] { "ACGTA", "CCGT" });
+    assertReads(write(">first read\nACG\ntac\n>second\nGGT\n"),
+        new String[] { "first read", "second" }, new String[] { "ACGTAC", "GGT" });
+    assertReads(write("@r1\nACGT\n+\nIIII\n@r2\nTTA\n+\nIII\n"), new String[] { "r1", "r2" },
+        new String[] { "ACGT", "TTA" });
+  }
+
+  @Test
+  public void alignsInInputOrder() throws IOException {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(5);
+    configuration.setErrorMargin(1);
+    Graph graph = ParseUtils.stringToGraph(configuration, SEQUENCE);
+    graph.addSNP('G', 4);
+    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+
+    StringBuilder file = new StringBuilder();
+    for (String read : READS) {
+      file.append(read).append('\n');
+    }
+    ReadReader reader = new ReadReader(write(file.toString()));
+    StringWriter out = new StringWriter();
+    int count = new BatchAligner(index, null).alignAll(reader, out);
+    reader.close();
+
+    assertEquals(READS.length, count);
+    String[] lines = out.toString().split("\n");
+    assertEquals(READS.length, lines.length);
+    for (int i = 0; i < READS.length; i++) {
+      Alignment expected = index.align(READS[i]);
+      String[] columns = lines[i].split("\t");
+      assertEquals("read_" + (i + 1), columns[0]);
+      assertEquals((int) expected.getScore(), Integer.parseInt(columns[1]));
+      String[] vertices = columns[2].split(",");
+      for (int j = 0; j < READS[i].length(); j++) {
+        assertEquals(expected.getAlignment()[j], Integer.parseInt(vertices[j]));
+      }
+    }
+  }
+
+  @Test
+  public void writesFailedReads() throws IOException {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(5);
+    Graph graph = ParseUtils.stringToGraph(configuration, SEQUENCE);
+    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+    BatchAligner aligner = new BatchAligner(index, null) {
+      @Override
+      public Alignment align(String sequence) {
+        if (sequence.equals(READS[1])) {
+          throw new IllegalStateException("bad\tread");
+        }
+        return super.align(sequence);
+      }
+    };
+
+    ReadReader reader = new ReadReader(write(">a\n" + READS[0] + "\n>b\n" + READS[1] + "\n>c\n"
+        + READS[2] + "\n"));
+    StringWriter out = new StringWriter();
+    assertEquals(3, aligner.alignAll(reader, out));
+    reader.close();
+
+    String[] lines = out.toString().split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[1].startsWith("b\tERROR\tjava.lang.IllegalStateException"));
+    assertTrue(lines[1].endsWith("bad read"));
+    assertEquals("c", lines[2].split("\t")[0]);
+    assertEquals(1, aligner.getFailures());
+  }
+
+  @Test
+  public void writesOnlyResultsToStandardOut() throws Exception {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(5);
+    configuration.setErrorMargin(1);
+    Graph graph = ParseUtils.stringToGraph(configuration, SEQUENCE);
+    File index = File.createTempFile("index", ".idx");
+    index.deleteOnExit();
+    FuzzySearchIndex.buildIndex(graph, configuration).writeToFile(index.getPath());
+    StringBuilder file = new StringBuilder();
+    for (String read : READS) {
+      file.append(read).append('\n');
+    }
+
+    PrintStream out = System.out;
+    PrintStream err = System.err;
+    ByteArrayOutputStream results = new ByteArrayOutputStream();
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    try {
+      System.setOut(new PrintStream(results, true));
+      System.setErr(new PrintStream(log, true));
+      GraphGenome.main(new String[] { "align-batch", "--index=" + index.getPath(),
+          "--reads=" + write(file.toString()), "--threads=2" });
+    } finally {
+      System.setOut(out);
+      System.setErr(err);
+    }
+
+    String[] lines = results.toString().split("\n");
+    assertEquals(READS.length, lines.length);
+    for (int i = 0; i < lines.length; i++) {
+      assertTrue(lines[i].startsWith("read_" + (i + 1) + "\t"));
+      assertEquals(3, lines[i].split("\t").length);
+    }
+    assertTrue(log.toString().contains("reads/second"));
+  }
+
+  private static void assertReads(String fileName, String[] names, String[] reads)
+      throws IOException {
+    ReadReader reader = new ReadReader(fileName);
+    for (int i = 0; i < reads.length; i++) {
+      assertEquals(reads[i], reader.nextRead());
+      assertEquals(names[i], reader.getName());
+    }
+    assertNull(reader.nextRead());
+    reader.close();
+  }
+
+  private static String write(String contents) throws IOException {
+    File file = File.createTempFile("reads", ".txt");
+    file.deleteOnExit();
+    FileWriter writer = new FileWriter(file);
+    writer.write(contents);
+    writer.close();
+    return file.getPath();
+  }
+}
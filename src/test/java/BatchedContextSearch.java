@@ -0,0 +1,77 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import configuration.LastzConfiguration;
+import context_search.SuffixTree;
+import data.Graph;
+import index.FuzzySearchIndex;
+import utils.ParseUtils;
+import utils.TestUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BatchedContextSearch {
+  @Test
+  public void searchesLikeSingleQueries() {
+    Random random = new Random(17);
+    for (int round = 0; round < 40; round++) {
+      Configuration configuration = round % 2 == 0
+          ? new EditDistanceConfiguration() : new LastzConfiguration();
+      configuration.setContextLength(3 + random.nextInt(10));
+      configuration.setErrorMargin(round % 2 == 0 ? random.nextInt(3) : random.nextInt(200));
+      String sequence = TestUtils.generateRandomString(random, 60 + random.nextInt(100));
+      SuffixTree tree = new SuffixTree(configuration);
+      int length = configuration.getContextLength();
+      for (int i = 0; i + length <= sequence.length(); i++) {
+        tree.addSuffix(sequence.substring(i, i + length), i + 1);
+      }
+
+      String[] queries = new String[30];
+      boolean[] force = new boolean[queries.length];
+      for (int q = 0; q < queries.length; q++) {
+        int size = random.nextInt(length + 1);
+        int start = random.nextInt(sequence.length() - size);
+        char[] query = sequence.substring(start, start + size).toCharArray();
+        if (size > 0 && random.nextBoolean()) {
+          query[random.nextInt(size)] = "ACGTN".charAt(random.nextInt(5));
+        }
+        // Some equal queries
+        queries[q] = q > 0 && random.nextInt(5) == 0 ? queries[q - 1] : new String(query);
+        force[q] = random.nextBoolean();
+      }
+
+      Object[] results = tree.improvedSearch(queries, force);
+      for (int q = 0; q < queries.length; q++) {
+        assertEquals(tree.improvedSearch(queries[q], force[q]), results[q]);
+      }
+    }
+  }
+
+  @Test
+  public void alignsLikePositions() {
+    Random random = new Random(3);
+    String sequence = TestUtils.generateRandomString(random, 400);
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(6);
+    configuration.setErrorMargin(1);
+    Graph graph = ParseUtils.stringToGraph(configuration, sequence);
+    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+    for (int i = 0; i < 10; i++) {
+      int start = random.nextInt(sequence.length() - 50);
+      char[] read = sequence.substring(start, start + 50).toCharArray();
+      read[random.nextInt(read.length)] = "ACGT".charAt(random.nextInt(4));
+      configuration.setContextSearch(Configuration.CONTEXT_SEARCH_POSITIONS);
+      Object[] positions = index.improvedFuzzyContextSearch(new String(read));
+      int[] expected = index.align(new String(read)).getAlignment();
+      configuration.setContextSearch(Configuration.CONTEXT_SEARCH_BATCHED);
+      Object[] batched = index.improvedFuzzyContextSearch(new String(read));
+      assertEquals(Arrays.deepToString(positions), Arrays.deepToString(batched));
+      assertArrayEquals(expected, index.align(new String(read)).getAlignment());
+    }
+  }
+}
@@ -0,0 +1,73 @@
+import java.util.Random;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import configuration.LastzConfiguration;
+import data.Alignment;
+import data.Graph;
+import utils.AlignmentUtils;
+import utils.BitParallel;
+import utils.ParseUtils;
+import utils.TestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BitParallelKernel {
+  @Test
+  public void matchesEditDistance() {
+    Random random = new Random(3);
+    for (int length : new int[] { 1, 17, 64, 65, 150 }) {
+      char[] pattern = TestUtils.generateRandomString(random, length).toCharArray();
+      String text = TestUtils.generateRandomString(random, 90);
+      BitParallel kernel = new BitParallel(pattern, length);
+      long[] column = new long[kernel.columnSize()];
+      kernel.initColumn(column, 0);
+
+      int[] expected = new int[length + 1];
+      for (int i = 0; i <= length; i++) {
+        expected[i] = i;
+      }
+      int[] values = new int[length + 1];
+      for (int j = 0; j < text.length(); j++) {
+        char c = text.charAt(j);
+        int[] next = new int[length + 1];
+        next[0] = j + 1;
+        for (int i = 1; i <= length; i++) {
+          int cost = pattern[i - 1] == c ? 0 : 1;
+          next[i] = Math.min(expected[i - 1] + cost, Math.min(expected[i], next[i - 1]) + 1);
+        }
+        expected = next;
+        kernel.advance(column, 0, column, 0, c, 1);
+        kernel.decode(column, 0, values);
+        for (int i = 0; i <= length; i++) {
+          assertEquals(expected[i] - expected[0], values[i]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void detectsUnitCost() {
+    assertTrue(new EditDistanceConfiguration().isUnitCost());
+    assertFalse(new LastzConfiguration().isUnitCost());
+  }
+
+  @Test
+  public void alignsThroughJoins() {
+    Configuration configuration = new EditDistanceConfiguration();
+    Graph graph = ParseUtils.stringToGraph(configuration, "ACGTTAGCCATGACGTAGGATCCAT");
+    graph.addSNP('A', 8);
+    graph.addInsertion("GG", 14);
+
+    // Passes through the SNP and the insertion
+    Alignment alignment = AlignmentUtils.align(graph, "TAGACATGACGGGTAGG", configuration);
+    assertEquals(0, alignment.getScore(), 0.0);
+    assertEquals(9, alignment.getAlignment()[4]);
+    alignment = AlignmentUtils.align(graph, "TAGACATGACGGGTCGG", configuration);
+    assertEquals(-1, alignment.getScore(), 0.0);
+  }
+}
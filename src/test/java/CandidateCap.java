@@ -0,0 +1,120 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import data.Graph;
+import index.FuzzySearchIndex;
+import metrics.Metrics;
+import utils.ParseUtils;
+import utils.TestUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CandidateCap {
+  private Configuration configuration;
+  private FuzzySearchIndex index;
+
+  private void buildIndex(String sequence) {
+    configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(6);
+    configuration.setErrorMargin(1);
+    Graph graph = ParseUtils.stringToGraph(configuration, sequence);
+    index = FuzzySearchIndex.buildIndex(graph, configuration);
+  }
+
+  @Test
+  public void ordersByScoreThenVertex() {
+    buildIndex("ACGTATTACGGATCAGTTACCATGAGGCTTAC");
+    Object[] left = { scores(5, 3, 7, 3, 2, 1, 4, 2) };
+    Object[] right = { scores(7, 1, 9, 4, 4, 1) };
+    // Combined 9: 4, 7: 4, 5: 3 and 4: 3 within the margin, 2: 1 outside
+    assertArrayEquals(new int[] { 9, 7, 5, 4 },
+        (int[]) index.combineScores(left, right, "A")[0]);
+
+    configuration.setMaxCandidates(3);
+    assertArrayEquals(new int[] { 9, 7, 5 }, (int[]) index.combineScores(left, right, "A")[0]);
+    configuration.setMaxCandidates(1);
+    assertArrayEquals(new int[] { 9 }, (int[]) index.combineScores(left, right, "A")[0]);
+  }
+
+  @Test
+  public void dropsScoresFarBelowFloor() {
+    buildIndex("ACGTATTACGGATCAGTTACCATGAGGCTTAC");
+    // Scores like those of lastz gaps, below the floor of -1000 by more than the margin
+    Object[] left = { scores(3, -1200, 5, -1400), scores(3, -1000, 5, -1001) };
+    Object[] right = { scores(5, -30), scores(7, -1002) };
+    Object[] combined = index.combineScores(left, right, "AC");
+    assertArrayEquals(new int[0], (int[]) combined[0]);
+    assertArrayEquals(new int[] { 3, 5 }, (int[]) combined[1]);
+  }
+
+  @Test
+  public void countsCappedPositions() {
+    buildIndex("ACGTATTACGGATCAGTTACCATGAGGCTTAC");
+    Object[] left = { scores(1, 2, 2, 2, 3, 2), scores(1, 2, 2, 1), scores() };
+    Object[] right = { scores(), scores(3, 1), scores(4, 0) };
+    configuration.setMaxCandidates(2);
+    Metrics.reset();
+    Object[] combined = index.combineScores(left, right, "ACG");
+    assertArrayEquals(new int[] { 3, 2 }, (int[]) combined[0]);
+    assertArrayEquals(new int[] { 1, 3 }, (int[]) combined[1]);
+    assertArrayEquals(new int[] { 4 }, (int[]) combined[2]);
+    assertEquals(2L, Metrics.CAPPED_POSITIONS.sum());
+    assertEquals(2L, Metrics.DROPPED_CANDIDATES.sum());
+  }
+
+  @Test
+  public void boundsRepeats() {
+    String unit = "ACGGATCAGTTACC";
+    StringBuilder sequence = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      sequence.append(unit);
+    }
+    buildIndex(sequence.toString());
+    String read = sequence.substring(3, 3 + 2 * unit.length());
+    Object[] uncapped = index.improvedFuzzyContextSearch(read);
+    configuration.setMaxCandidates(4);
+    Object[] capped = index.improvedFuzzyContextSearch(read);
+    for (int i = 0; i < capped.length; i++) {
+      int[] all = (int[]) uncapped[i];
+      int[] kept = (int[]) capped[i];
+      assertEquals(Math.min(all.length, 4), kept.length);
+      for (int j = 0; j < kept.length; j++) {
+        assertEquals(all[j], kept[j]);
+      }
+    }
+    assertEquals(read.length(), index.align(read).getAlignment().length);
+  }
+
+  @Test
+  public void alignsLikeUncappedWhenCapIsLoose() {
+    Random random = new Random(11);
+    String sequence = TestUtils.generateRandomString(random, 400);
+    buildIndex(sequence);
+    for (int i = 0; i < 10; i++) {
+      int start = random.nextInt(sequence.length() - 50);
+      char[] read = sequence.substring(start, start + 50).toCharArray();
+      read[random.nextInt(read.length)] = "ACGT".charAt(random.nextInt(4));
+      configuration.setMaxCandidates(Configuration.DEFAULT_MAX_CANDIDATES);
+      int[] expected = index.align(new String(read)).getAlignment();
+      configuration.setMaxCandidates(64);
+      assertArrayEquals(expected, index.align(new String(read)).getAlignment());
+    }
+  }
+
+  /**
+   * Pairs of vertex and score
+   */
+  private static Map<Integer, Integer> scores(int... pairs) {
+    Map<Integer, Integer> scores = new HashMap<Integer, Integer>();
+    for (int i = 0; i < pairs.length; i += 2) {
+      scores.put(pairs[i], pairs[i + 1]);
+    }
+    return scores;
+  }
+}
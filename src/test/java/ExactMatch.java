@@ -0,0 +1,101 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import configuration.LastzConfiguration;
+import context_search.SuffixTree;
+import data.Alignment;
+import data.Graph;
+import index.FuzzySearchIndex;
+import utils.ParseUtils;
+import utils.StringUtils;
+import utils.TestUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ExactMatch {
+  @Test
+  public void findsVertexRanges() {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(4);
+    SuffixTree tree = new SuffixTree(configuration);
+    tree.addSuffix("ACGT", 1);
+    tree.addSuffix("ACGA", 2);
+    tree.addSuffix("ACTT", 2);
+    tree.addSuffix("GTTA", 3);
+    tree.addSuffix("GTTC", 3);
+    tree.addSuffix("TA", 4);
+
+    assertEquals(1, tree.exactSearch("ACGT"));
+    assertEquals(SuffixTree.AMBIGUOUS, tree.exactSearch("ACG"));
+    assertEquals(SuffixTree.AMBIGUOUS, tree.exactSearch("A"));
+    assertEquals(3, tree.exactSearch("GT"));
+    assertEquals(SuffixTree.NO_MATCH, tree.exactSearch("CA"));
+    assertEquals(4, tree.exactSearch("TA"));
+    // TA ends before the query, as a context near the end of the graph
+    assertEquals(SuffixTree.AMBIGUOUS, tree.exactSearch("TAC"));
+
+    assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), tree.strictSearch("AC"));
+    assertEquals(new HashSet<Integer>(Arrays.asList(3)), tree.strictSearch("GTT"));
+    assertNull(tree.strictSearch("CA"));
+  }
+
+  @Test
+  public void alignsExactRead() {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(5);
+    configuration.setErrorMargin(1);
+    String sequence = "ACGTATTACGGATCAGTTACCATGAGGCTTACAAGTCGATCCGATTGACCTAGG";
+    Graph graph = ParseUtils.stringToGraph(configuration, sequence);
+    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+    Alignment alignment = index.align(sequence.substring(10, 40));
+    int[] expected = new int[30];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = i + 11;
+    }
+    assertArrayEquals(expected, alignment.getAlignment());
+    assertEquals(0.0, alignment.getScore(), 0.0);
+  }
+
+  @Test
+  public void searchesGraphEndsLikeImprovedSearch() {
+    Random random = new Random(2);
+    for (int round = 0; round < 20; round++) {
+      Configuration configuration = round % 2 == 0
+          ? new EditDistanceConfiguration() : new LastzConfiguration();
+      int length = 4 + random.nextInt(5);
+      configuration.setContextLength(length);
+      String sequence = TestUtils.generateRandomString(random, 40 + random.nextInt(60));
+      FuzzySearchIndex index = FuzzySearchIndex.buildIndex(
+          ParseUtils.stringToGraph(configuration, sequence), configuration);
+      // The contexts of the graph, shorter at its head and tail
+      SuffixTree left = new SuffixTree(configuration);
+      SuffixTree right = new SuffixTree(configuration);
+      for (int i = 0; i < sequence.length(); i++) {
+        left.addSuffix(StringUtils.reverse(sequence.substring(Math.max(0, i - length), i)),
+            i + 1);
+        right.addSuffix(sequence.substring(i + 1, Math.min(sequence.length(), i + 1 + length)),
+            i + 1);
+      }
+
+      // Reads overlapping the head or the tail
+      int size = 2 + random.nextInt(3 * length);
+      String read = round % 4 < 2 ? sequence.substring(0, size)
+          : sequence.substring(sequence.length() - size);
+      Object[][] scores = index.searchContextScores(read);
+      for (int i = 0; i < read.length(); i++) {
+        boolean force = i - 1 < length && read.length() - (i + 1) < length;
+        String leftContext = StringUtils.reverse(read.substring(Math.max(0, i - length), i));
+        String rightContext = read.substring(i + 1, Math.min(read.length(), i + 1 + length));
+        assertEquals(left.improvedSearch(leftContext, force), scores[0][i]);
+        assertEquals(right.improvedSearch(rightContext, force), scores[1][i]);
+      }
+    }
+  }
+}
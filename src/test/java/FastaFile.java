@@ -0,0 +1,65 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import configuration.EditDistanceConfiguration;
+import data.Graph;
+import utils.FastaReader;
+import utils.ParseUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FastaFile {
+  private static final String FASTA = ">chr1 first\r\nacgtN\r\nTTAG\n\n>chr2\nGGCC\n";
+
+  @Test
+  public void readsRecords() throws IOException {
+    FastaReader reader = new FastaReader(write(FASTA, false));
+    assertTrue(reader.next());
+    assertEquals("chr1 first", reader.getName());
+    CharSequence first = reader.getSequence();
+    assertTrue(reader.next());
+    assertEquals("chr2", reader.getName());
+    assertEquals("GGCC", reader.getSequence().toString());
+    assertFalse(reader.next());
+    reader.close();
+    assertEquals("ACGTNTTAG", first.toString());
+    assertEquals("GTN", first.subSequence(2, 5).toString());
+  }
+
+  @Test
+  public void readsGzip() throws IOException {
+    assertEquals("ACGTNTTAGGGCC", ParseUtils.fastaToSequence(write(FASTA, true)));
+  }
+
+  @Test
+  public void readsSequenceWithoutHeader() throws IOException {
+    assertEquals("ACGTAC", ParseUtils.fastaToSequence(write("ACG\ntac\n", false)));
+  }
+
+  @Test
+  public void buildsGraph() throws IOException {
+    Graph graph = ParseUtils.fastaToGraph(new EditDistanceConfiguration(), write(FASTA, true));
+    assertEquals(14, graph.getCurrentSize());
+    assertEquals('A', graph.getNode(1).getValue());
+    assertEquals('C', graph.getNode(13).getValue());
+  }
+
+  private static String write(String contents, boolean gzip) throws IOException {
+    File file = File.createTempFile("sequence", gzip ? ".fasta.gz" : ".fasta");
+    file.deleteOnExit();
+    OutputStream out = new FileOutputStream(file);
+    if (gzip) {
+      out = new GZIPOutputStream(out);
+    }
+    out.write(contents.getBytes("US-ASCII"));
+    out.close();
+    return file.getPath();
+  }
+}
@@ -0,0 +1,87 @@
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import data.Graph;
+import index.FuzzySearchIndex;
+import metrics.FlightEvent;
+import utils.AlignmentUtils;
+import utils.ParseUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FlightEvents {
+  @Test
+  public void freeWithoutRecording() {
+    assertNull(FlightEvent.CONTEXT_SEARCH.begin());
+    FlightEvent.CONTEXT_SEARCH.commit(null, 1, 2, 3, 4);
+  }
+
+  /**
+   * Records the events of building an index and aligning with a JFR recording, when the JVM
+   * has one. jdk.jfr is used by reflection since the tests are compiled for Java 7 as well.
+   */
+  @Test
+  public void recordsPhases() throws Exception {
+    Class<?> recordingClass;
+    try {
+      recordingClass = Class.forName("jdk.jfr.Recording");
+    } catch (ClassNotFoundException e) {
+      return;
+    }
+    Object recording = recordingClass.newInstance();
+    Method enable = recordingClass.getMethod("enable", String.class);
+    for (FlightEvent event : new FlightEvent[] { FlightEvent.INDEX_BUILD,
+        FlightEvent.CONTEXT_SEARCH, FlightEvent.PATH_SEARCH, FlightEvent.ALIGN_REGION,
+        FlightEvent.GET_CONTEXTS }) {
+      enable.invoke(recording, event.getName());
+    }
+    recordingClass.getMethod("start").invoke(recording);
+
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(5);
+    configuration.setErrorMargin(1);
+    String sequence = "ACGTATTACGGATCAGTTACCATGAGGCTTACAAGTCGATCCGATTGACCTAGG";
+    Graph graph = ParseUtils.stringToGraph(configuration, sequence);
+    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+    index.align("ACGGATCAGTTAGCATGAGGCTTAC");
+    AlignmentUtils.align(graph, "ACGGATCAGTTAGCATGAGGCTTAC", configuration);
+
+    recordingClass.getMethod("stop").invoke(recording);
+    File file = File.createTempFile("events", ".jfr");
+    file.deleteOnExit();
+    recordingClass.getMethod("dump", Path.class).invoke(recording, file.toPath());
+    recordingClass.getMethod("close").invoke(recording);
+
+    Map<String, Object> events = new HashMap<String, Object>();
+    List<?> recorded = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+        .getMethod("readAllEvents", Path.class).invoke(null, file.toPath());
+    for (Object event : recorded) {
+      Object type = event.getClass().getMethod("getEventType").invoke(event);
+      events.put((String) type.getClass().getMethod("getName").invoke(type), event);
+    }
+    file.delete();
+
+    assertTrue(events.containsKey(FlightEvent.INDEX_BUILD.getName()));
+    assertTrue(events.containsKey(FlightEvent.PATH_SEARCH.getName()));
+    assertTrue(events.containsKey(FlightEvent.ALIGN_REGION.getName()));
+    // From building the index, which streams the contexts
+    Object contexts = events.get(FlightEvent.GET_CONTEXTS.getName());
+    assertTrue((Integer) contexts.getClass().getMethod("getValue", String.class)
+        .invoke(contexts, "contexts") > 0);
+    Object search = events.get(FlightEvent.CONTEXT_SEARCH.getName());
+    Method getValue = search.getClass().getMethod("getValue", String.class);
+    assertEquals(25, getValue.invoke(search, "readLength"));
+    assertEquals(1, getValue.invoke(search, "errorMargin"));
+    assertTrue((Integer) getValue.invoke(search, "candidates") >= 25);
+  }
+}
@@ -1,11 +1,21 @@
+import java.util.Set;
+
 import org.junit.Test;
 
 import configuration.Configuration;
 import configuration.EditDistanceConfiguration;
+import data.CompactGraph;
+import data.DistanceOracle;
 import data.Graph;
+import data.TopologicalOrder;
+import index.FuzzySearchIndex;
 import utils.ParseUtils;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class GraphTests {
   @Test
@@ -20,6 +30,129 @@ public class GraphTests {
     }
   }
 
+  @Test
+  public void compactGraph() {
+    Configuration configuration = new EditDistanceConfiguration();
+    Graph graph = ParseUtils.stringToGraph(configuration, "ACGTATTAC");
+    int snp = graph.addSNP('G', 4);
+    CompactGraph compact = graph.getCompactGraph();
+    assertEquals(graph.getCurrentSize() + 1, compact.getSize());
+    assertEquals('G', compact.getValue(snp));
+    assertEquals(2, compact.getOutgoingEnd(3) - compact.getOutgoingStart(3));
+    assertEquals(2, compact.getIncomingEnd(5) - compact.getIncomingStart(5));
+    assertEquals(Graph.TAIL_INDEX, compact.toIndex(compact.getOutgoing(compact.getOutgoingStart(9))));
+    assertEquals(2, graph.getDistance(3, 5, 5));
+    assertEquals(1, graph.getDistance(snp, 5, 5));
+    assertEquals(10, graph.getDistance(5, 3, 5));
+
+    graph.addEdge(2, 5);
+    assertEquals(1, graph.getDistance(2, 5, 5));
+  }
+
+  @Test
+  public void distanceOracle() {
+    Configuration configuration = new EditDistanceConfiguration();
+    Graph graph = ParseUtils.stringToGraph(configuration, "ACGTATTACGGATCAGTTACCATGAGG");
+    graph.addSNP('G', 4);
+    graph.addSNP('A', 12);
+    graph.addInsertion("TT", 7);
+    graph.addDeletion("CAG", 14);
+    CompactGraph compact = graph.getCompactGraph();
+    for (int maxDistance = 1; maxDistance <= 6; maxDistance++) {
+      DistanceOracle eager = DistanceOracle.eager(compact, maxDistance, Integer.MAX_VALUE);
+      DistanceOracle lazy = DistanceOracle.lazy(compact, maxDistance);
+      for (int source = 0; source < compact.getSize(); source++) {
+        for (int dest = 0; dest < compact.getSize(); dest++) {
+          int expected = compact.getDistance(source, dest, maxDistance);
+          assertEquals(expected, eager.getDistance(source, dest));
+          assertEquals(expected, lazy.getDistance(source, dest));
+        }
+      }
+    }
+    assertNull(DistanceOracle.eager(compact, 6, 10));
+  }
+
+  @Test
+  public void alignsWithLargeErrorMargin() {
+    String sequence = "ACGTATTACGGATCAGTTACCATGAGGCTTACAAGTCGATCCGATTGACCTAGG";
+    String read = "ACGGATCAGTTAGCATGAGGCTTAC";
+    for (int errorMargin : new int[] { 130, DistanceOracle.MAX_DISTANCE }) {
+      Configuration configuration = new EditDistanceConfiguration();
+      configuration.setContextLength(5);
+      configuration.setErrorMargin(errorMargin);
+      Graph graph = ParseUtils.stringToGraph(configuration, sequence);
+      graph.addSNP('G', 4);
+      CompactGraph compact = graph.getCompactGraph();
+      int maxDistance = configuration.getMaxDistance();
+      if (maxDistance <= DistanceOracle.MAX_DISTANCE) {
+        DistanceOracle eager = DistanceOracle.eager(compact, maxDistance, Integer.MAX_VALUE);
+        for (int source = 0; source < compact.getSize(); source++) {
+          for (int dest = 0; dest < compact.getSize(); dest++) {
+            assertEquals(compact.getDistance(source, dest, maxDistance),
+                eager.getDistance(source, dest));
+          }
+        }
+      }
+
+      FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+      int[] alignment = index.align(read).getAlignment();
+      configuration.setDistanceOracle(Configuration.DISTANCE_ORACLE_LAZY);
+      assertArrayEquals(alignment, index.align(read).getAlignment());
+      assertEquals(read.length(), alignment.length);
+    }
+  }
+
+  @Test
+  public void topologicalOrder() {
+    Configuration configuration = new EditDistanceConfiguration();
+    Graph graph = ParseUtils.stringToGraph(configuration, "ACGTATTACGGATC");
+    TopologicalOrder order = graph.getTopologicalOrder();
+    assertTrue(order == graph.getTopologicalOrder());
+    graph.addSNP('G', 4);
+    graph.addInsertion("TT", 7);
+    graph.addDeletion("CGG", 9);
+    order = graph.getTopologicalOrder();
+    CompactGraph compact = graph.getCompactGraph();
+    assertEquals(compact.getSize(), order.size());
+    assertTrue(order.isAcyclic());
+    assertEquals(compact.getHeadSlot(), order.get(0));
+    for (int slot = 0; slot < compact.getSize(); slot++) {
+      assertEquals(slot, order.get(order.getRank(slot)));
+      for (int e = compact.getOutgoingStart(slot); e < compact.getOutgoingEnd(slot); e++) {
+        assertTrue(order.getRank(slot) < order.getRank(compact.getOutgoing(e)));
+      }
+    }
+
+    graph.addEdge(10, 3);
+    assertFalse(graph.getTopologicalOrder().isAcyclic());
+    assertEquals(graph.getCompactGraph().getSize(), graph.getTopologicalOrder().size());
+    configuration.setContextLength(4);
+    Set<String> contexts = (Set<String>) graph.getContexts(Graph.LEFT_CONTEXT)[3];
+    assertTrue(contexts.contains("CA"));
+    assertTrue(contexts.contains("GCAT"));
+  }
+
+  @Test
+  public void boundedContexts() {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(25);
+    String sequence = "ACGTTTCACATGGATTACAGGCATTACGTAGGCTT";
+    Graph graph = ParseUtils.stringToGraph(configuration, sequence);
+    Set<String> contexts = (Set<String>) graph.getContexts(Graph.RIGHT_CONTEXT)[2];
+    assertEquals(1, contexts.size());
+    assertTrue(contexts.contains(sequence.substring(2, 27)));
+
+    // Every SNP doubles the contexts of the vertices before it
+    for (int i = 4; i <= 10; i += 2) {
+      graph.addSNP(sequence.charAt(i - 1) == 'A' ? 'C' : 'A', i);
+    }
+    assertEquals(16, ((Set<String>) graph.getContexts(Graph.RIGHT_CONTEXT)[2]).size());
+    assertEquals(0, graph.getTruncatedContexts());
+    configuration.setMaxContexts(5);
+    assertEquals(5, ((Set<String>) graph.getContexts(Graph.RIGHT_CONTEXT)[2]).size());
+    assertTrue(graph.getTruncatedContexts() > 0);
+  }
+
   @Test
   public void buildFromFasta() {
 
@@ -0,0 +1,78 @@
+import java.util.Random;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import data.Alignment;
+import data.Graph;
+import index.FuzzySearchIndex;
+import utils.IntList;
+import utils.ParseUtils;
+import utils.TestUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalIndex {
+  private static final String SEQUENCE =
+      "ACGTATTACGGATCAGTTACCATGAGGCTTACAAGTCGATCCGATTGACCTAGGACTTCAGGTACCGTTAGCA";
+
+  @Test
+  public void updatesChangedContexts() {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(5);
+    Graph graph = ParseUtils.stringToGraph(configuration, SEQUENCE);
+    graph.addSNP('G', 20);
+    Object[][] before = { graph.getContexts(Graph.LEFT_CONTEXT),
+        graph.getContexts(Graph.RIGHT_CONTEXT) };
+
+    // A SNP and an insertion
+    String sequence = "ACGTATTACGGATCAGTTACCTTGAGGCTTACAAGTCGAGTTCCGATTGACCTAGG";
+    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+    IntList edges = graph.mergeSequence(sequence, index.align(sequence).getAlignment());
+    assertTrue(edges.size() > 0);
+
+    String[] directions = { Graph.LEFT_CONTEXT, Graph.RIGHT_CONTEXT };
+    for (int d = 0; d < directions.length; d++) {
+      Object[] full = graph.getContexts(directions[d]);
+      Object[] changed = graph.getContexts(directions[d], edges);
+      for (int i = 1; i < full.length - 1; i++) {
+        if (changed[i] != null) {
+          assertEquals(full[i], changed[i]);
+        } else {
+          assertEquals(full[i], i < before[d].length - 1 ? before[d][i] : null);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void alignsAsRebuiltIndex() {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(6);
+    configuration.setErrorMargin(1);
+    Graph graph = ParseUtils.stringToGraph(configuration, SEQUENCE);
+    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+    String[] sequences = { "ACGTATTACGGATCAGTTACCTTGAGGCTTACAAGTCGATCCGATTG",
+        "ACGTATTACGGATCTTTACCATGAGGCTTACAAGTCGATCCGATTGACCTAGGACTTCAGG",
+        "ACGTATTACGGATCAGTTACCATGAGGCTTACAAGTCGATCCGATTGACCTAGGACTACAGGTACCGTTAGCA" };
+    for (String sequence : sequences) {
+      index.mergeSequence(sequence, index.align(sequence).getAlignment());
+    }
+    FuzzySearchIndex rebuilt = FuzzySearchIndex.buildIndex(graph, configuration);
+
+    Random random = new Random(TestUtils.SEED);
+    for (int i = 0; i < 20; i++) {
+      String sequence = sequences[random.nextInt(sequences.length)];
+      int start = random.nextInt(sequence.length() - 30);
+      char[] read = sequence.substring(start, start + 30).toCharArray();
+      read[random.nextInt(read.length)] = "ACGT".charAt(random.nextInt(4));
+      Alignment expected = rebuilt.align(new String(read));
+      Alignment actual = index.align(new String(read));
+      assertEquals(expected.getScore(), actual.getScore(), 0.0);
+      assertArrayEquals(expected.getAlignment(), actual.getAlignment());
+    }
+  }
+}
@@ -0,0 +1,90 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import data.Alignment;
+import data.Graph;
+import index.FuzzySearchIndex;
+import utils.AlignmentUtils;
+import utils.ParseUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class IndexFile {
+  @Test
+  public void writeAndRead() throws Exception {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(5);
+    configuration.setErrorMargin(1);
+    Graph graph = ParseUtils.stringToGraph(configuration, "ACGTATTACGGATCAGTTAC");
+    graph.addSNP('G', 4);
+    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+    String sequence = "ACGGATTACGGATC";
+    Alignment expected = index.align(sequence);
+
+    File file = File.createTempFile("index", ".idx");
+    file.deleteOnExit();
+    index.writeToFile(file.getPath());
+    FuzzySearchIndex read = FuzzySearchIndex.readIndex(file.getPath());
+    read.setConfiguration(configuration);
+    Alignment alignment = read.align(sequence);
+
+    assertEquals(expected.getScore(), alignment.getScore(), 0.0);
+    for (int i = 0; i < sequence.length(); i++) {
+      assertEquals(expected.getAlignment()[i], alignment.getAlignment()[i]);
+    }
+    Graph readGraph = read.getGraph();
+    assertArrayEquals(AlignmentUtils.align(graph, sequence, configuration).getAlignment(),
+        AlignmentUtils.align(readGraph, sequence, configuration).getAlignment());
+    assertArrayEquals(
+        AlignmentUtils.alignBanded(graph, expected.getAlignment(), sequence, configuration)
+            .getAlignment(),
+        AlignmentUtils.alignBanded(readGraph, alignment.getAlignment(), sequence, configuration)
+            .getAlignment());
+    // Aligning reads only uses the compact graph
+    Field nodes = Graph.class.getDeclaredField("nodes");
+    nodes.setAccessible(true);
+    assertNull(nodes.get(readGraph));
+
+    assertEquals(graph.getCurrentSize(), readGraph.getCurrentSize());
+    assertEquals(2, readGraph.getNode(3).getOutgoing().size());
+    assertEquals(Graph.TAIL_INDEX, readGraph.getTail().getIndex());
+  }
+
+  @Test
+  public void rejectsOtherFiles() throws IOException {
+    File file = File.createTempFile("index", ".idx");
+    file.deleteOnExit();
+    assertNull(FuzzySearchIndex.readIndex(file.getPath()));
+
+    // A valid index cut off at every length, and with a count overflowing when multiplied
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(5);
+    Graph graph = ParseUtils.stringToGraph(configuration, "ACGTATTACGGATCAGTTAC");
+    FuzzySearchIndex.buildIndex(graph, configuration).writeToFile(file.getPath());
+    byte[] contents = Files.readAllBytes(file.toPath());
+    for (int length = 0; length < contents.length; length += 4) {
+      Files.write(file.toPath(), Arrays.copyOf(contents, length));
+      assertNull(FuzzySearchIndex.readIndex(file.getPath()));
+    }
+    // The node count of the left trie, after the header, the graph and the trie's max depth
+    ByteBuffer buffer = ByteBuffer.wrap(contents).order(ByteOrder.LITTLE_ENDIAN);
+    int size = buffer.getInt(20);
+    int edgesOffset = 24 + (size + 3) / 4 * 4 + 4 * (size + 1);
+    int edges = buffer.getInt(edgesOffset);
+    int nodesOffset = edgesOffset + 4 + 4 * edges + 4 * (size + 1) + 4 * edges + 4;
+    buffer.putInt(nodesOffset, 1 << 30);
+    Files.write(file.toPath(), contents);
+    assertNull(FuzzySearchIndex.readIndex(file.getPath()));
+  }
+}
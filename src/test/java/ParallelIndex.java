@@ -0,0 +1,107 @@
+import java.util.Random;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import context_search.ContextPartitions;
+import context_search.SuffixTree;
+import data.ContextSink;
+import data.Graph;
+import index.FuzzySearchIndex;
+import utils.BaseUtils;
+import utils.KmerSet;
+import utils.ParseUtils;
+import utils.TestUtils;
+import utils.WorkerPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParallelIndex {
+  @Test
+  public void buildsSequentialTries() {
+    Random random = new Random(7);
+    int threads = WorkerPool.getParallelism();
+    try {
+      for (int contextLength : new int[] { 4, 21, 30 }) {
+        Configuration configuration = new EditDistanceConfiguration();
+        configuration.setContextLength(contextLength);
+        String sequence = TestUtils.generateRandomString(random, 300);
+        Graph graph = ParseUtils.stringToGraph(configuration, sequence);
+        for (int i = 0; i < 10; i++) {
+          int position = 2 + random.nextInt(sequence.length() - 4);
+          char value = "ACGTN".charAt(random.nextInt(5));
+          if (graph.getNode(position).getValue() != value) {
+            graph.addSNP(value, position);
+          }
+        }
+
+        WorkerPool.setParallelism(4);
+        for (String direction : new String[] { Graph.LEFT_CONTEXT, Graph.RIGHT_CONTEXT }) {
+          final SuffixTree sequential = new SuffixTree(configuration);
+          final ContextPartitions partitions = new ContextPartitions(contextLength);
+          graph.streamContexts(direction, null, new ContextSink() {
+            @Override
+            public void addContext(int vertex, long[] kmers, int offset, int length) {
+              sequential.addSuffix(kmers, offset, length, vertex);
+              partitions.add(kmers, offset, length, vertex);
+            }
+          });
+          SuffixTree parallel = new SuffixTree(configuration);
+          parallel.addSuffixes(partitions);
+          assertSameTrie(sequential, parallel);
+        }
+
+        FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+        WorkerPool.setParallelism(1);
+        FuzzySearchIndex sequentialIndex = FuzzySearchIndex.buildIndex(graph, configuration);
+        for (int i = 0; i < 5; i++) {
+          int start = random.nextInt(sequence.length() - 60);
+          String read = sequence.substring(start, start + 60);
+          assertArrayEquals(sequentialIndex.align(read).getAlignment(),
+              index.align(read).getAlignment());
+        }
+      }
+    } finally {
+      WorkerPool.setParallelism(threads);
+    }
+  }
+
+  @Test
+  public void addsToNonEmptyTrie() {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(3);
+    String[] contexts = { "ACG", "AC", "", "TTA", "GCA", "ACG", "" };
+
+    SuffixTree expected = new SuffixTree(configuration);
+    for (int i = 0; i < contexts.length; i++) {
+      expected.addSuffix(contexts[i], i);
+    }
+
+    SuffixTree tree = new SuffixTree(configuration);
+    tree.addSuffix(contexts[0], 0);
+    ContextPartitions partitions = new ContextPartitions(3);
+    for (int i = 1; i < contexts.length; i++) {
+      partitions.add(pack(contexts[i]), 0, contexts[i].length(), i);
+    }
+    tree.addSuffixes(partitions);
+    assertSameTrie(expected, tree);
+  }
+
+  private static long[] pack(String context) {
+    long[] kmers = new long[KmerSet.getWords(context.length())];
+    for (int i = context.length() - 1; i >= 0; i--) {
+      KmerSet.prepend(BaseUtils.encode(context.charAt(i)), kmers, 0,
+          context.length() - 1 - i, kmers, context.length());
+    }
+    return kmers;
+  }
+
+  private static void assertSameTrie(SuffixTree expected, SuffixTree actual) {
+    assertEquals(expected.getNumberOfNodes(), actual.getNumberOfNodes());
+    assertEquals(expected.getChildren(), actual.getChildren());
+    assertEquals(expected.getLeafOffsets(), actual.getLeafOffsets());
+    assertEquals(expected.getLeaves(), actual.getLeaves());
+  }
+}
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import context_search.SuffixTree;
+import data.Alignment;
+import data.Graph;
+import index.FuzzySearchIndex;
+import utils.ParseUtils;
+import utils.TestUtils;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelSearch {
+  private static final String BASES = "ACGT";
+
+  @Test
+  public void parallelAlignmentEqualsSerial() {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(6);
+    configuration.setErrorMargin(1);
+    Random random = new Random(3);
+    String sequence = TestUtils.generateRandomString(random, 300);
+    Graph graph = ParseUtils.stringToGraph(configuration, sequence);
+    graph.addSNP('A', 40);
+    graph.addSNP('C', 120);
+    FuzzySearchIndex index = FuzzySearchIndex.buildIndex(graph, configuration);
+
+    for (int read = 0; read < 10; read++) {
+      int start = random.nextInt(sequence.length() - 60);
+      char[] query = sequence.substring(start, start + 60).toCharArray();
+      query[random.nextInt(query.length)] = BASES.charAt(random.nextInt(4));
+      String s = new String(query);
+
+      configuration.setAllowParallellization(false);
+      Alignment serial = index.align(s);
+      configuration.setAllowParallellization(true);
+      Alignment parallel = index.align(s);
+      assertEquals(serial.getScore(), parallel.getScore(), 0.0);
+      for (int i = 0; i < s.length(); i++) {
+        assertEquals(serial.getAlignment()[i], parallel.getAlignment()[i]);
+      }
+    }
+  }
+
+  @Test
+  public void concurrentTreeSearches() throws Exception {
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(8);
+    configuration.setErrorMargin(2);
+    final SuffixTree tree = new SuffixTree(configuration);
+    Random random = new Random(5);
+    for (int i = 0; i < 5000; i++) {
+      tree.addSuffix(TestUtils.generateRandomString(random, 8), i);
+    }
+    final String[] queries = new String[200];
+    List<HashMap<Integer, Integer>> expected = new ArrayList<HashMap<Integer, Integer>>();
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = TestUtils.generateRandomString(random, 8);
+      expected.add(tree.improvedSearch(queries[i], false));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<HashMap<Integer, Integer>>>> futures =
+          new ArrayList<Future<List<HashMap<Integer, Integer>>>>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(executor.submit(new Callable<List<HashMap<Integer, Integer>>>() {
+          public List<HashMap<Integer, Integer>> call() {
+            List<HashMap<Integer, Integer>> results = new ArrayList<HashMap<Integer, Integer>>();
+            for (String query : queries) {
+              results.add(tree.improvedSearch(query, false));
+            }
+            return results;
+          }
+        }));
+      }
+      for (Future<List<HashMap<Integer, Integer>>> future : futures) {
+        assertEquals(expected, future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
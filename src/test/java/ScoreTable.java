@@ -0,0 +1,45 @@
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.LastzConfiguration;
+import data.Graph;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScoreTable {
+  @Test
+  public void encodedScoresMatchCharacters() {
+    Configuration configuration = new LastzConfiguration();
+    String characters = "ACGTN" + Graph.HEAD_VALUE + Graph.TAIL_VALUE;
+    for (int i = 0; i < characters.length(); i++) {
+      for (int j = 0; j < characters.length(); j++) {
+        char a = characters.charAt(i);
+        char b = characters.charAt(j);
+        assertEquals(configuration.getScore(a, b),
+            configuration.getScore(Configuration.encode(a), Configuration.encode(b)));
+      }
+    }
+    assertEquals(100, configuration.getScore('C', 'C'));
+    assertEquals(-31, configuration.getScore('A', 'G'));
+    assertEquals(-125, configuration.getScore('N', 'A'));
+    assertEquals(400, configuration.getScore('A', Graph.TAIL_VALUE));
+    assertEquals(-125, configuration.getScore('N', Graph.HEAD_VALUE));
+    assertEquals(382, configuration.getMaxAlignmentScore("ACGT"));
+  }
+
+  @Test
+  public void gapPenaltiesFollowErrorMargin() {
+    Configuration configuration = new LastzConfiguration();
+    assertEquals(400, configuration.getGapPenalty(0));
+    assertEquals(0, configuration.getGapPenalty(1));
+    assertEquals(400, configuration.getGapPenalty(2));
+    assertEquals(460, configuration.getGapPenalty(4));
+    assertEquals(30400, configuration.getGapPenalty(1002));
+    assertEquals(2, configuration.getMaxDistance());
+
+    configuration.setErrorMargin(450);
+    assertEquals(4, configuration.getMaxDistance());
+    assertEquals(430, configuration.getGapPenalty(3));
+    assertEquals(30400, configuration.getGapPenalty(1002));
+  }
+}
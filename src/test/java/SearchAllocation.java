@@ -0,0 +1,63 @@
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import configuration.Configuration;
+import configuration.EditDistanceConfiguration;
+import context_search.SuffixTree;
+import utils.TestUtils;
+
+import static org.junit.Assert.assertTrue;
+
+public class SearchAllocation {
+  private static final String BASES = "ACGT";
+
+  @Test
+  public void searchDoesNotAllocatePerNode() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    if (!threads.isThreadAllocatedMemorySupported()) {
+      return;
+    }
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    Configuration configuration = new EditDistanceConfiguration();
+    configuration.setContextLength(12);
+    configuration.setErrorMargin(3);
+    SuffixTree tree = new SuffixTree(configuration);
+    Random random = new Random(7);
+    String[] contexts = new String[20000];
+    for (int i = 0; i < contexts.length; i++) {
+      contexts[i] = TestUtils.generateRandomString(random, 12);
+      tree.addSuffix(contexts[i], i);
+    }
+
+    String[] queries = new String[50];
+    for (int i = 0; i < queries.length; i++) {
+      char[] query = contexts[random.nextInt(contexts.length)].toCharArray();
+      query[random.nextInt(query.length)] = BASES.charAt(random.nextInt(4));
+      queries[i] = new String(query);
+    }
+    for (int round = 0; round < 20; round++) {
+      for (String query : queries) {
+        tree.improvedSearch(query, false);
+      }
+    }
+
+    long thread = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(thread);
+    int reported = 0;
+    for (String query : queries) {
+      HashMap<Integer, Integer> scores = tree.improvedSearch(query, false);
+      reported += scores.size();
+    }
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+    // Only the returned map and its entries may be allocated, however many nodes were visited
+    assertTrue(reported > 0);
+    assertTrue("Allocated " + allocated + " bytes for " + reported + " results",
+        allocated < queries.length * 1024L + reported * 128L);
+  }
+}